@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.benchmark;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.domain.Id;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares replaying events through {@code AggregateRoot.loadFromHistory} against calling the
+ * apply methods directly, and against the reflective lookup and invoke per event it replaced.
+ *
+ * <p>Scores are events applied per microsecond.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AggregateRootApplyBenchmark {
+
+  private static final int EVENTS = 1_000;
+
+  private Id.Uuid id;
+  private List<DomainEvent<?>> history;
+
+  @Setup
+  public void setUp() {
+    id = new Id.Uuid();
+    history = Counter.history(id, EVENTS);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public Counter directCall() {
+    Counter counter = new Counter(id);
+    for (DomainEvent<?> event : history) {
+      counter.applyDirectly(event);
+    }
+    return counter;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public Counter dispatchTable() {
+    Counter counter = new Counter(id);
+    counter.loadFromHistory(history);
+    return counter;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public Counter reflectiveLookup() throws IllegalAccessException, InvocationTargetException {
+    Counter counter = new Counter(id);
+    for (DomainEvent<?> event : history) {
+      try {
+        Method applyMethod = Counter.class.getDeclaredMethod("apply", event.getClass());
+        applyMethod.setAccessible(true);
+        applyMethod.invoke(counter, event);
+      } catch (NoSuchMethodException e) {
+        // The way the old dispatch found out there was nothing to apply.
+      }
+    }
+    return counter;
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.benchmark;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.basil.twentytwenty.command.Command;
+import org.basil.twentytwenty.command.CommandDispatcher;
+import org.basil.twentytwenty.command.CommandExecutor;
+import org.basil.twentytwenty.command.impl.RoutingCommandDispatcher;
+import org.basil.twentytwenty.command.impl.SimpleCommandDispatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * Compares the command dispatchers, from dispatching a run of commands until the executor has
+ * executed all of them.
+ *
+ * <p>Scores are commands executed per microsecond.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandDispatcherBenchmark {
+
+  private static final int COMMANDS = 1_000;
+
+  @Param({"eventBusSync", "eventBusAsync", "routingSync", "routingAsync"})
+  private String dispatcher;
+
+  private CommandDispatcher commandDispatcher;
+  private CountingExecutor executor;
+  private Command command;
+
+  @Setup
+  public void setUp() {
+    switch (dispatcher) {
+      case "eventBusSync":
+        commandDispatcher = SimpleCommandDispatcher.sync();
+        break;
+      case "eventBusAsync":
+        commandDispatcher = SimpleCommandDispatcher.async();
+        break;
+      case "routingSync":
+        commandDispatcher = RoutingCommandDispatcher.sync();
+        break;
+      default:
+        commandDispatcher = RoutingCommandDispatcher.async(ForkJoinPool.commonPool());
+    }
+    executor = new CountingExecutor();
+    commandDispatcher.register(executor);
+    command = new Increment();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COMMANDS)
+  public long dispatch() {
+    long target = executor.count.get() + COMMANDS;
+    for (int i = 0; i < COMMANDS; i++) {
+      commandDispatcher.dispatch(command);
+    }
+    while (executor.count.get() < target) {
+      Thread.yield();
+    }
+    return target;
+  }
+
+  public static class Increment implements Command {
+  }
+
+  /**
+   * Subscribed so the {@code EventBus} finds it too, counts atomically as the asynchronous
+   * dispatchers execute on several threads.
+   */
+  public static class CountingExecutor implements CommandExecutor<Increment> {
+
+    private final AtomicLong count = new AtomicLong();
+
+    @Subscribe
+    @Override
+    public void execute(Increment command) {
+      count.incrementAndGet();
+    }
+
+  }
+
+}
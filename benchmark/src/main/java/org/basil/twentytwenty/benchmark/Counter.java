@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.benchmark;
+
+import java.util.List;
+
+import org.basil.twentytwenty.domain.AggregateRoot;
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.domain.Id;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A minimal {@link AggregateRoot} for the benchmarks.
+ */
+public class Counter extends AggregateRoot<Id.Uuid> {
+
+  /**
+   * Returns a history of the specified number of events, one in ten has no apply method.
+   */
+  public static List<DomainEvent<?>> history(Id.Uuid id, int events) {
+    List<DomainEvent<?>> history = Lists.newArrayListWithCapacity(events);
+    for (int version = 1; version <= events; version++) {
+      if (version % 10 == 0) {
+        history.add(new Noted(id, version, "note " + version));
+      } else if (version % 3 == 0) {
+        history.add(new Decremented(id, version));
+      } else {
+        history.add(new Incremented(id, version));
+      }
+    }
+    return history;
+  }
+
+  private long count;
+
+  public Counter(Id.Uuid id) {
+    this.id = id;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public void increment() {
+    applyChange(new Incremented(id, nextVersion()));
+  }
+
+  /**
+   * The hand-written dispatch a compiler would produce, the baseline of the benchmarks.
+   */
+  public void applyDirectly(DomainEvent<?> event) {
+    if (event instanceof Incremented) {
+      apply((Incremented) event);
+    } else if (event instanceof Decremented) {
+      apply((Decremented) event);
+    }
+  }
+
+  private void apply(Incremented event) {
+    count++;
+  }
+
+  private void apply(Decremented event) {
+    count--;
+  }
+
+  /**
+   * Comparable by version, as {@code SimpleEventStore} sorts the events it finds.
+   */
+  public abstract static class Event implements DomainEvent<Id.Uuid>, Comparable<Event> {
+
+    private final Id.Uuid id;
+    private final int version;
+
+    protected Event(Id.Uuid id, int version) {
+      this.id = id;
+      this.version = version;
+    }
+
+    @Override
+    public Id.Uuid getId() {
+      return id;
+    }
+
+    @Override
+    public int getVersion() {
+      return version;
+    }
+
+    @Override
+    public int compareTo(Event other) {
+      return Integer.compare(version, other.version);
+    }
+
+  }
+
+  public static class Incremented extends Event {
+
+    public Incremented(Id.Uuid id, int version) {
+      super(id, version);
+    }
+
+  }
+
+  public static class Decremented extends Event {
+
+    public Decremented(Id.Uuid id, int version) {
+      super(id, version);
+    }
+
+  }
+
+  public static class Noted extends Event {
+
+    private final String note;
+
+    public Noted(Id.Uuid id, int version, String note) {
+      super(id, version);
+      this.note = note;
+    }
+
+    public String getNote() {
+      return note;
+    }
+
+  }
+
+}
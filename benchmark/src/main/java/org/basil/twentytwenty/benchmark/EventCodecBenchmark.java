@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.BinaryReader;
+import org.basil.twentytwenty.event.BinaryWriter;
+import org.basil.twentytwenty.event.EventCodec;
+import org.basil.twentytwenty.event.EventSerializer;
+import org.basil.twentytwenty.event.impl.BinaryEventCodec;
+import org.basil.twentytwenty.event.impl.EventTypeRegistry;
+import org.basil.twentytwenty.event.impl.SerializableEventCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares encoding and decoding an event with the {@link BinaryEventCodec} against Java
+ * serialization. The encoded sizes are printed by the setup.
+ *
+ * <p>Scores are events encoded or decoded per microsecond.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventCodecBenchmark {
+
+  private static final EventSerializer<Counter.Noted> NOTED = new EventSerializer<Counter.Noted>() {
+
+    @Override
+    public void write(Counter.Noted event, BinaryWriter writer) {
+      writer.writeUuid(event.getId());
+      writer.writeVarInt(event.getVersion());
+      writer.writeString(event.getNote());
+    }
+
+    @Override
+    public Counter.Noted read(BinaryReader reader) {
+      return new Counter.Noted(new Id.Uuid(reader.readLong(), reader.readLong()),
+          reader.readVarInt(), reader.readString());
+    }
+
+  };
+
+  private final EventCodec binaryCodec = BinaryEventCodec.of(EventTypeRegistry.create()
+      .register(1, Counter.Noted.class, NOTED));
+  private final EventCodec serializableCodec = SerializableEventCodec.create();
+
+  private final BinaryWriter writer = new BinaryWriter();
+  private final BinaryReader reader = new BinaryReader();
+
+  private DomainEvent<?> event;
+  private ByteBuffer binaryEvent;
+  private ByteBuffer serializableEvent;
+
+  @Setup
+  public void setUp() {
+    event = new Counter.Noted(new Id.Uuid(), 42, "note 42");
+    binaryEvent = encode(binaryCodec);
+    serializableEvent = encode(serializableCodec);
+    System.out.printf("%nEncoded sizes: binary %d bytes, serializable %d bytes%n",
+        binaryEvent.remaining(), serializableEvent.remaining());
+  }
+
+  @Benchmark
+  public int binaryEncode() {
+    binaryCodec.encode(event, writer.reset());
+    return writer.size();
+  }
+
+  @Benchmark
+  public int serializableEncode() {
+    serializableCodec.encode(event, writer.reset());
+    return writer.size();
+  }
+
+  @Benchmark
+  public DomainEvent<?> binaryDecode() {
+    binaryEvent.rewind();
+    return binaryCodec.decode(reader.reset(binaryEvent));
+  }
+
+  @Benchmark
+  public DomainEvent<?> serializableDecode() {
+    serializableEvent.rewind();
+    return serializableCodec.decode(reader.reset(serializableEvent));
+  }
+
+  private ByteBuffer encode(EventCodec codec) {
+    BinaryWriter encoded = new BinaryWriter();
+    codec.encode(event, encoded);
+    return ByteBuffer.wrap(encoded.toByteArray());
+  }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.EventHandler;
+import org.basil.twentytwenty.event.EventPublisher;
+import org.basil.twentytwenty.event.impl.RingBufferEventPublisher;
+import org.basil.twentytwenty.event.impl.SimpleEventPublisher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * Compares the asynchronous publishers, from publishing a run of events until the handler has
+ * seen all of them.
+ *
+ * <p>Scores are events handled per microsecond.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventPublisherBenchmark {
+
+  private static final int EVENTS = 10_000;
+
+  @Param({"eventBus", "busySpin", "yielding", "blocking"})
+  private String publisher;
+
+  private EventPublisher eventPublisher;
+  private CountingHandler handler;
+  private DomainEvent<?> event;
+
+  @Setup
+  public void setUp() {
+    switch (publisher) {
+      case "eventBus":
+        eventPublisher = SimpleEventPublisher.async();
+        break;
+      case "busySpin":
+        eventPublisher = RingBufferEventPublisher.create(
+            RingBufferEventPublisher.DEFAULT_BUFFER_SIZE,
+            RingBufferEventPublisher.WaitStrategy.BUSY_SPIN);
+        break;
+      case "yielding":
+        eventPublisher = RingBufferEventPublisher.create(
+            RingBufferEventPublisher.DEFAULT_BUFFER_SIZE,
+            RingBufferEventPublisher.WaitStrategy.YIELDING);
+        break;
+      default:
+        eventPublisher = RingBufferEventPublisher.create();
+    }
+    handler = new CountingHandler();
+    eventPublisher.register(handler);
+    event = new Counter.Incremented(new Id.Uuid(), 1);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (eventPublisher instanceof RingBufferEventPublisher) {
+      ((RingBufferEventPublisher) eventPublisher).close();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public long publish() {
+    long target = handler.count + EVENTS;
+    for (int i = 0; i < EVENTS; i++) {
+      eventPublisher.publish(event);
+    }
+    while (handler.count < target) {
+      Thread.yield();
+    }
+    return target;
+  }
+
+  /**
+   * Subscribed so the {@code EventBus} finds it too.
+   */
+  public static class CountingHandler implements EventHandler<Counter.Incremented> {
+
+    private volatile long count;
+
+    @Subscribe
+    @Override
+    public void handle(Counter.Incremented event) {
+      count++;
+    }
+
+  }
+
+}
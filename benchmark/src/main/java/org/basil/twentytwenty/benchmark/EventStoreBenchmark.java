@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.benchmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.impl.IndexedEventStore;
+import org.basil.twentytwenty.event.impl.SegmentedFileEventStore;
+import org.basil.twentytwenty.event.impl.ShardedEventStore;
+import org.basil.twentytwenty.event.impl.SimpleEventStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the event stores saving an event and finding the events of an {@code Aggregate}, in a
+ * store already holding {@value #EVENTS_PER_AGGREGATE} events of each of a number of
+ * {@code Aggregate}s. {@code saveConcurrently} saves from {@value #THREADS} threads, where the
+ * {@value #SHARDS} writers of the sharded store can run in parallel.
+ *
+ * <p>Scores are operations per millisecond.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventStoreBenchmark {
+
+  private static final int EVENTS_PER_AGGREGATE = 10;
+  private static final int SHARDS = 4;
+  private static final int THREADS = 4;
+
+  @Param({"simple", "indexed", "segmented", "sharded"})
+  private String store;
+
+  @Param({"100", "10000"})
+  private int aggregates;
+
+  private EventStore eventStore;
+  private Path directory;
+  private Id.Uuid[] aggregateIds;
+
+  @Setup
+  public void setUp() throws IOException {
+    switch (store) {
+      case "simple":
+        eventStore = SimpleEventStore.list();
+        break;
+      case "indexed":
+        eventStore = IndexedEventStore.inMemory();
+        break;
+      case "segmented":
+        directory = Files.createTempDirectory("eventStoreBenchmark");
+        eventStore = SegmentedFileEventStore.open(directory);
+        break;
+      default:
+        directory = Files.createTempDirectory("eventStoreBenchmark");
+        eventStore = ShardedEventStore.open(directory, SHARDS);
+    }
+    aggregateIds = new Id.Uuid[aggregates];
+    for (int i = 0; i < aggregates; i++) {
+      aggregateIds[i] = new Id.Uuid();
+      eventStore.save(Counter.history(aggregateIds[i], EVENTS_PER_AGGREGATE));
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    if (eventStore instanceof Closeable) {
+      ((Closeable) eventStore).close();
+      try (Stream<Path> files = Files.walk(directory)) {
+        files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+      }
+    }
+  }
+
+  @Benchmark
+  public void save() {
+    eventStore.save(new Counter.Incremented(randomAggregateId(), 0));
+  }
+
+  @Benchmark
+  @Threads(THREADS)
+  public void saveConcurrently() {
+    eventStore.save(new Counter.Incremented(randomAggregateId(), 0));
+  }
+
+  @Benchmark
+  public List<DomainEvent> find() {
+    return eventStore.find(randomAggregateId());
+  }
+
+  private Id.Uuid randomAggregateId() {
+    return aggregateIds[ThreadLocalRandom.current().nextInt(aggregates)];
+  }
+
+}
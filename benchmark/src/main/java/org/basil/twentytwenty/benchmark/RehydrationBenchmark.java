@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.benchmark;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.basil.twentytwenty.domain.AggregateRoot;
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.impl.IndexedEventStore;
+import org.basil.twentytwenty.event.impl.SimpleEventPublisher;
+import org.basil.twentytwenty.event.impl.SimpleRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures rehydrating an {@code Aggregate} through {@link SimpleRepository#findById(Id)}: reading
+ * its history from the event store and replaying it with {@code AggregateRoot.loadFromHistory}.
+ *
+ * <p>Scores are {@code Aggregate}s loaded per millisecond.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RehydrationBenchmark {
+
+  @Param({"10", "1000"})
+  private int events;
+
+  private SimpleRepository repository;
+  private Id.Uuid id;
+
+  @Setup
+  public void setUp() {
+    EventStore eventStore = IndexedEventStore.inMemory();
+    repository = new SimpleRepository(SimpleEventPublisher.async(), eventStore,
+        aggregateId -> new Counter((Id.Uuid) aggregateId));
+    id = new Id.Uuid();
+    eventStore.save(Counter.history(id, events));
+  }
+
+  @Benchmark
+  public Optional<AggregateRoot<?>> findById() {
+    return repository.findById(id);
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.basil.twentytwenty.domain.UuidGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link UuidGenerator}s generating new {@code Id.Uuid}s, on one thread and on four
+ * at once.
+ *
+ * <p>Scores are UUIDs generated per microsecond, summed over the threads.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UuidGeneratorBenchmark {
+
+  private final UuidGenerator random = UuidGenerator.random();
+  private final UuidGenerator timeOrdered = UuidGenerator.timeOrdered();
+
+  @Benchmark
+  public UUID random() {
+    return random.generate();
+  }
+
+  @Benchmark
+  public UUID timeOrdered() {
+    return timeOrdered.generate();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public UUID randomContended() {
+    return random.generate();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public UUID timeOrderedContended() {
+    return timeOrdered.generate();
+  }
+
+}
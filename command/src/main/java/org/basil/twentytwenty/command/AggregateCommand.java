@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.command;
+
+import org.basil.twentytwenty.domain.Id;
+
+/**
+ * A Command targeting a single Aggregate, so it can be executed one at a time with the other
+ * Commands of the same Aggregate.
+ *
+ * @param <ID> type of the Aggregate's ID
+ */
+public interface AggregateCommand<ID extends Id<?>> extends Command {
+
+  /**
+   * Returns the ID of the Aggregate this Command targets.
+   *
+   * @return the Aggregate's ID
+   */
+  ID getAggregateId();
+
+}
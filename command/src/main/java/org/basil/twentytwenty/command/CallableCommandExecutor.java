@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.command;
+
+/**
+ * A CommandExecutor returning a result, to the future returned by
+ * {@link CommandDispatcher#dispatchAsync(Command)}.
+ *
+ * @param <C> the type of command that this CommandExecutor should executes.
+ * @param <R> the type of the result
+ */
+public interface CallableCommandExecutor<C extends Command, R> extends CommandExecutor<C> {
+
+  /**
+   * Executes the specified Command and returns the result.
+   *
+   * @param command to execute
+   * @return the result
+   */
+  R call(C command);
+
+  @Override
+  default void execute(C command) {
+    call(command);
+  }
+
+}
@@ -13,6 +13,9 @@
  */
 package org.basil.twentytwenty.command;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * The CommandDispatcher interface.
  *
@@ -47,4 +50,44 @@ public interface CommandDispatcher {
    */
   void dispatch(Command... commands);
 
+  /**
+   * Dispatches the specified Command and returns a future of its result, the value returned by a
+   * {@link CallableCommandExecutor} or {@code null} for other CommandExecutors. The future
+   * completes exceptionally if the Command fails, and cancelling it before the Command starts
+   * executing skips the Command.
+   *
+   * <p>By default the Command is dispatched by {@link #dispatch(Command...)} and the future is
+   * completed with {@code null} once it returns, the dispatchers that know when a Command is
+   * executed override it.</p>
+   *
+   * @param <R> type of the result
+   * @param command to dispatch
+   * @return the future of the result
+   */
+  default <R> CompletableFuture<R> dispatchAsync(Command command) {
+    CompletableFuture<R> result = new CompletableFuture<>();
+    try {
+      dispatch(command);
+      result.complete(null);
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /**
+   * Dispatches the specified Command and returns a future of its result, completed exceptionally
+   * with a {@link java.util.concurrent.TimeoutException} if the Command doesn't complete in time.
+   *
+   * @param <R> type of the result
+   * @param command to dispatch
+   * @param timeout to wait for the result
+   * @param unit of the timeout
+   * @return the future of the result
+   * @see #dispatchAsync(Command)
+   */
+  default <R> CompletableFuture<R> dispatchAsync(Command command, long timeout, TimeUnit unit) {
+    return Timeouts.within(dispatchAsync(command), timeout, unit);
+  }
+
 }
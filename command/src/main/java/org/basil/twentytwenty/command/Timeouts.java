@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.command;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Times out futures, {@code CompletableFuture.orTimeout} is only there since Java 9.
+ */
+final class Timeouts {
+
+  private static final ScheduledThreadPoolExecutor SCHEDULER = scheduler();
+
+  /**
+   * Completes the future exceptionally with a {@link TimeoutException} unless it completes within
+   * the specified timeout.
+   */
+  static <R> CompletableFuture<R> within(CompletableFuture<R> future, long timeout,
+      TimeUnit unit) {
+    if (future.isDone()) {
+      return future;
+    }
+    ScheduledFuture<?> timer = SCHEDULER.schedule(() -> future.completeExceptionally(
+        new TimeoutException("Timed out after " + timeout + " " + unit + ".")), timeout, unit);
+    future.whenComplete((result, failure) -> timer.cancel(false));
+    return future;
+  }
+
+  private static ScheduledThreadPoolExecutor scheduler() {
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+        new ThreadFactoryBuilder().setNameFormat("commandTimeouts-%d").setDaemon(true).build());
+    // Most futures complete in time, don't keep their timers around until they're due.
+    scheduler.setRemoveOnCancelPolicy(true);
+    return scheduler;
+  }
+
+  private Timeouts() {
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.command.impl;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.basil.twentytwenty.metrics.Gauge;
+import org.basil.twentytwenty.metrics.Metrics;
+
+/**
+ * Runs no more than a number of tasks at a time on another {@link Executor}. The tasks queue up
+ * here and are run by up to that number of workers handed to the Executor, so a pooled Executor
+ * never gets more than that number of tasks, and no thread is taken by a task waiting for its
+ * turn.
+ *
+ * <p>Reports the tasks running and the tasks waiting for their turn to the global
+ * {@link Metrics} as the gauges {@code <name>-<n>.inFlight} and {@code <name>-<n>.waiting}, named
+ * after {@link Metrics#instanceName(String)}, until it's closed.</p>
+ */
+final class ConcurrencyLimitedExecutor implements Executor, Closeable {
+
+  private final Executor executor;
+  private final int maxConcurrency;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicInteger workers = new AtomicInteger();
+  private final Gauge inFlight;
+  private final Gauge waiting;
+
+  ConcurrencyLimitedExecutor(String name, Executor executor, int maxConcurrency) {
+    this.executor = executor;
+    this.maxConcurrency = maxConcurrency;
+    String instanceName = Metrics.instanceName(name);
+    this.inFlight = Metrics.global().gauge(instanceName + ".inFlight", workers::get);
+    this.waiting = Metrics.global().gauge(instanceName + ".waiting", queued::get);
+  }
+
+  /**
+   * Queues the task and hands a worker to the Executor if there are less than the maximum.
+   *
+   * @throws java.util.concurrent.RejectedExecutionException if the Executor rejects the worker,
+   *     the task is then dropped unless another worker took it already
+   */
+  @Override
+  public void execute(Runnable task) {
+    tasks.add(task);
+    queued.incrementAndGet();
+    try {
+      startWorker();
+    } catch (RuntimeException e) {
+      if (tasks.remove(task)) {
+        queued.decrementAndGet();
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Stops reporting the gauges, the Executor it runs the tasks on is left alone.
+   */
+  @Override
+  public void close() {
+    inFlight.close();
+    waiting.close();
+  }
+
+  private void startWorker() {
+    while (!tasks.isEmpty()) {
+      int count = workers.get();
+      if (count >= maxConcurrency) {
+        return;
+      }
+      if (workers.compareAndSet(count, count + 1)) {
+        try {
+          executor.execute(this::work);
+        } catch (RuntimeException e) {
+          workers.decrementAndGet();
+          throw e;
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Runs the queued tasks until there are none left. A worker that stops, even on a failing task,
+   * starts another one if tasks were queued in the meantime.
+   */
+  private void work() {
+    try {
+      for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+        queued.decrementAndGet();
+        task.run();
+      }
+    } finally {
+      workers.decrementAndGet();
+      startWorker();
+    }
+  }
+
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.command.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.basil.twentytwenty.command.AggregateCommand;
+import org.basil.twentytwenty.command.Command;
+import org.basil.twentytwenty.command.CommandDispatcher;
+import org.basil.twentytwenty.command.CommandExecutor;
+import org.basil.twentytwenty.concurrent.BoundedExecutor;
+import org.basil.twentytwenty.concurrent.OverflowPolicy;
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.metrics.Gauge;
+import org.basil.twentytwenty.metrics.Metrics;
+import org.basil.twentytwenty.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A CommandDispatcher executing the Commands of each Aggregate one at a time, in the order they
+ * are dispatched, while the Commands of different Aggregates execute in parallel.
+ *
+ * <p>Every {@link AggregateCommand} goes to the mailbox of its Aggregate, a queue that is drained
+ * by one task on the Executor at a time, so the CommandExecutors never see two Commands of the
+ * same Aggregate concurrently and need neither locks nor retries for them. A mailbox left idle
+ * for the idle timeout is passivated and reclaimed, the next Command of its Aggregate starts a new
+ * one. Other Commands are executed on the Executor without ordering.</p>
+ *
+ * <p>Commands are routed to the CommandExecutors the way {@link RoutingCommandDispatcher} does,
+ * and timed the same way. The number of live mailboxes is reported to the global {@link Metrics}
+ * as the gauge {@code commandDispatcher-<n>.mailboxes}, named after
+ * {@link Metrics#instanceName(String)}, until the dispatcher is closed.</p>
+ *
+ * <p>The Executor may refuse a mailbox by throwing, when it's shut down or full: the Commands
+ * queued in the mailbox then fail, {@link #dispatch(Command...)} throws the exception and the
+ * futures of {@link #dispatchAsync(Command)} complete with it, and the next Command of the
+ * Aggregate schedules the mailbox again. The Executor must not drop tasks silently.</p>
+ *
+ * <p>On a {@link BoundedExecutor}, the {@link OverflowPolicy} applies to the threads dispatching
+ * the Commands: {@link OverflowPolicy#BLOCK} makes them wait for room, {@link OverflowPolicy#FAIL}
+ * fails the Commands as above and {@link OverflowPolicy#CALLER_RUNS} drains the mailbox on them.
+ * {@link OverflowPolicy#DROP} would lose whole mailboxes and is refused. A mailbox yielding its
+ * thread to the others never waits for room or recurses, it keeps draining while the queue is
+ * full.</p>
+ */
+public class MailboxCommandDispatcher implements CommandDispatcher, Closeable {
+
+  public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  /**
+   * The number of Commands a mailbox executes before it lets the other mailboxes have the thread.
+   */
+  private static final int THROUGHPUT = 64;
+
+  private static final Logger logger = LoggerFactory.getLogger(MailboxCommandDispatcher.class);
+
+  /**
+   * Creates a dispatcher draining the mailboxes on a pool of its own, a thread per processor, which
+   * is shut down when the dispatcher is closed. The Commands block no pool shared with the rest of
+   * the application.
+   *
+   * @return the dispatcher
+   */
+  public static MailboxCommandDispatcher create() {
+    ExecutorService executorService = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        new ThreadFactoryBuilder().setNameFormat("mailbox-%d").setDaemon(true).build());
+    return new MailboxCommandDispatcher(executorService,
+        TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_TIMEOUT_MILLIS), executorService::shutdown);
+  }
+
+  /**
+   * Creates a dispatcher draining the mailboxes on the specified Executor.
+   *
+   * @param executor to execute the Commands on, not a {@link BoundedExecutor} dropping tasks
+   * @param idleTimeout after which an idle mailbox is passivated
+   * @param unit of the idle timeout
+   * @return the dispatcher
+   */
+  public static MailboxCommandDispatcher create(Executor executor, long idleTimeout,
+      TimeUnit unit) {
+    checkArgument(idleTimeout > 0, "Idle timeout %s is not positive.", idleTimeout);
+    checkArgument(!(executor instanceof BoundedExecutor)
+        || ((BoundedExecutor) executor).getOverflowPolicy() != OverflowPolicy.DROP,
+        "A dropped mailbox would never run again, use another overflow policy than DROP.");
+    return new MailboxCommandDispatcher(executor, unit.toNanos(idleTimeout), () -> { });
+  }
+
+  private final RoutingCommandDispatcher router = RoutingCommandDispatcher.sync();
+  private final ConcurrentMap<Id<?>, Mailbox> mailboxes = new ConcurrentHashMap<>();
+  private final Executor executor;
+  private final long idleTimeoutNanos;
+  private final Runnable shutdown;
+  private final ScheduledExecutorService sweeper;
+  private final Timer dispatchTimer = Metrics.global().timer("commandDispatcher.dispatch");
+  private final Gauge mailboxCount;
+
+  /**
+   * @param shutdown run on close, shuts the Executor down if it's the dispatcher's own
+   */
+  MailboxCommandDispatcher(Executor executor, long idleTimeoutNanos, Runnable shutdown) {
+    this.executor = executor;
+    this.idleTimeoutNanos = idleTimeoutNanos;
+    this.shutdown = shutdown;
+    this.sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("mailboxSweeper-%d").setDaemon(true).build());
+    long sweepPeriodNanos = Math.max(idleTimeoutNanos / 2, 1);
+    sweeper.scheduleWithFixedDelay(this::passivateIdleMailboxes, sweepPeriodNanos,
+        sweepPeriodNanos, TimeUnit.NANOSECONDS);
+    this.mailboxCount = Metrics.global().gauge(
+        Metrics.instanceName("commandDispatcher") + ".mailboxes", mailboxes::size);
+  }
+
+  /**
+   * Routes the Commands of the specified type to the specified CommandExecutor.
+   *
+   * @see RoutingCommandDispatcher#route(Class, CommandExecutor)
+   */
+  public <C extends Command> void route(Class<C> commandType,
+      CommandExecutor<? super C> commandExecutor) {
+    router.route(commandType, commandExecutor);
+  }
+
+  @Override
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public <T extends CommandExecutor> void register(T... commandExecutors) {
+    router.register(commandExecutors);
+  }
+
+  @Override
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public <T extends CommandExecutor> void unregister(T... commandExecutors) {
+    router.unregister(commandExecutors);
+  }
+
+  @Override
+  public void dispatch(Command... commands) {
+    long start = dispatchTimer.start();
+    for (Command command : commands) {
+      submit(new Delivery(command, null));
+    }
+    dispatchTimer.stop(start);
+  }
+
+  /**
+   * Dispatches the Command like {@link #dispatch(Command...)}, the future completes once it's
+   * executed. Cancelling the future before the Command's turn comes skips it.
+   */
+  @Override
+  public <R> CompletableFuture<R> dispatchAsync(Command command) {
+    CompletableFuture<R> result = new CompletableFuture<>();
+    try {
+      submit(new Delivery(command, result));
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of active mailboxes.
+   *
+   * @return the number of active mailboxes
+   */
+  public int getMailboxCount() {
+    return mailboxes.size();
+  }
+
+  /**
+   * Stops passivating the mailboxes and reporting them, and shuts the pool of {@link #create()}
+   * down. The Commands already dispatched are still executed.
+   */
+  @Override
+  public void close() {
+    sweeper.shutdownNow();
+    mailboxCount.close();
+    shutdown.run();
+  }
+
+  private void submit(Delivery delivery) {
+    if (delivery.command instanceof AggregateCommand) {
+      post(((AggregateCommand<?>) delivery.command).getAggregateId(), delivery);
+    } else {
+      executor.execute(delivery);
+    }
+  }
+
+  private void post(Id<?> aggregateId, Delivery delivery) {
+    while (true) {
+      Mailbox mailbox = mailboxes.computeIfAbsent(aggregateId, Mailbox::new);
+      if (mailbox.post(delivery)) {
+        return;
+      }
+      // Passivated since it was looked up, make way for a new one.
+      mailboxes.remove(aggregateId, mailbox);
+    }
+  }
+
+  private void passivateIdleMailboxes() {
+    long now = System.nanoTime();
+    for (Mailbox mailbox : mailboxes.values()) {
+      if (mailbox.passivate(now)) {
+        mailboxes.remove(mailbox.aggregateId, mailbox);
+      }
+    }
+  }
+
+  /**
+   * A Command with the future to complete once it's executed, if it was dispatched asynchronously.
+   */
+  private final class Delivery implements Runnable {
+
+    private final Command command;
+    private final CompletableFuture<?> result;
+
+    private Delivery(Command command, CompletableFuture<?> result) {
+      this.command = command;
+      this.result = result;
+    }
+
+    @Override
+    public void run() {
+      if (result != null) {
+        router.complete(command, result);
+        return;
+      }
+      try {
+        router.execute(command);
+      } catch (RuntimeException e) {
+        logger.error("Failed to execute {}.", command, e);
+      }
+    }
+
+    /**
+     * Fails the Command the Executor refused to execute.
+     */
+    void reject(RuntimeException e) {
+      if (result != null) {
+        result.completeExceptionally(e);
+      } else {
+        logger.error("Failed to execute {}, the executor refused it.", command, e);
+      }
+    }
+
+  }
+
+  /**
+   * The queue of the Commands of an Aggregate drained by one task at a time.
+   */
+  private final class Mailbox implements Runnable {
+
+    private final Id<?> aggregateId;
+
+    // Guarded by this.
+    private final Queue<Delivery> deliveries = new ArrayDeque<>();
+    private boolean scheduled;
+    private boolean passivated;
+    private long lastActive = System.nanoTime();
+
+    private Mailbox(Id<?> aggregateId) {
+      this.aggregateId = aggregateId;
+    }
+
+    /**
+     * Queues the Command and schedules the mailbox unless it's already.
+     *
+     * @return {@code false} if the mailbox was passivated and the Command not queued
+     * @throws RuntimeException if the Executor refused the mailbox, the queued Commands failed too
+     */
+    boolean post(Delivery delivery) {
+      synchronized (this) {
+        if (passivated) {
+          return false;
+        }
+        deliveries.add(delivery);
+        if (scheduled) {
+          return true;
+        }
+        scheduled = true;
+      }
+      schedule();
+      return true;
+    }
+
+    /**
+     * Hands the mailbox to the Executor. If it's refused, the mailbox is unscheduled so the next
+     * Command starts it again, and the Commands queued so far fail.
+     */
+    private void schedule() {
+      try {
+        executor.execute(this);
+      } catch (RuntimeException e) {
+        reject(e);
+        throw e;
+      }
+    }
+
+    /**
+     * Lets the other mailboxes have the thread, unless a {@link BoundedExecutor} is full.
+     *
+     * @return {@code false} if the mailbox has to keep the thread
+     */
+    private boolean reschedule() {
+      try {
+        if (executor instanceof BoundedExecutor) {
+          return ((BoundedExecutor) executor).tryExecute(this);
+        }
+        executor.execute(this);
+      } catch (RuntimeException e) {
+        reject(e);
+      }
+      return true;
+    }
+
+    private void reject(RuntimeException e) {
+      List<Delivery> rejected;
+      synchronized (this) {
+        rejected = new ArrayList<>(deliveries);
+        deliveries.clear();
+        scheduled = false;
+        lastActive = System.nanoTime();
+      }
+      for (Delivery delivery : rejected) {
+        delivery.reject(e);
+      }
+    }
+
+    /**
+     * Passivates the mailbox if it has been idle for the idle timeout.
+     *
+     * @return {@code true} if the mailbox was passivated
+     */
+    synchronized boolean passivate(long now) {
+      if (scheduled || now - lastActive < idleTimeoutNanos) {
+        return false;
+      }
+      passivated = true;
+      return true;
+    }
+
+    /**
+     * Executes up to {@link #THROUGHPUT} Commands, then reschedules itself if there are more. If a
+     * Command throws out of it, an Error as the others are caught, the rest are handed to another
+     * task before it's rethrown, so the mailbox is never left scheduled with no task to drain it.
+     */
+    @Override
+    public void run() {
+      try {
+        drain();
+      } catch (RuntimeException | Error e) {
+        synchronized (this) {
+          if (deliveries.isEmpty()) {
+            scheduled = false;
+            lastActive = System.nanoTime();
+            throw e;
+          }
+        }
+        if (!reschedule()) {
+          // A full BoundedExecutor, the next Command starts the mailbox again.
+          synchronized (this) {
+            scheduled = false;
+            lastActive = System.nanoTime();
+          }
+        }
+        throw e;
+      }
+    }
+
+    private void drain() {
+      do {
+        for (int i = 0; i < THROUGHPUT; i++) {
+          Delivery delivery;
+          synchronized (this) {
+            delivery = deliveries.poll();
+            if (delivery == null) {
+              scheduled = false;
+              lastActive = System.nanoTime();
+              return;
+            }
+          }
+          delivery.run();
+        }
+        synchronized (this) {
+          if (deliveries.isEmpty()) {
+            scheduled = false;
+            lastActive = System.nanoTime();
+            return;
+          }
+        }
+      } while (!reschedule());
+    }
+
+  }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.command.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+import org.basil.twentytwenty.command.CallableCommandExecutor;
+import org.basil.twentytwenty.command.Command;
+import org.basil.twentytwenty.command.CommandDispatcher;
+import org.basil.twentytwenty.command.CommandExecutor;
+import org.basil.twentytwenty.metrics.Metrics;
+import org.basil.twentytwenty.metrics.Timer;
+
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * A CommandDispatcher routing every Command to exactly one CommandExecutor by the type of
+ * Commands it executes, without Guava's EventBus.
+ *
+ * <p>The type of Commands a CommandExecutor executes is resolved from its type argument when it's
+ * registered, use {@link #route(Class, CommandExecutor)} for the ones without (lambdas for
+ * instance). A Command goes to the CommandExecutor of its most specific type, the route of a
+ * Command class is resolved once and cached, so dispatching is a map lookup and an interface call.
+ * Only one CommandExecutor may be registered per type, and a Command class matching several types
+ * none of which is the most specific can't be dispatched.</p>
+ *
+ * <p>A Command without a route is ignored, the way the EventBus ignores an event without
+ * subscribers.</p>
+ *
+ * <p>Reports the time to dispatch and the time to execute the Commands to the global
+ * {@link Metrics} as {@code commandDispatcher.dispatch} and {@code commandDispatcher.execute}.</p>
+ */
+public class RoutingCommandDispatcher implements CommandDispatcher {
+
+  @SuppressWarnings("rawtypes")
+  private static final CommandExecutor NO_ROUTE = command -> {
+  };
+
+  public static RoutingCommandDispatcher sync() {
+    return new RoutingCommandDispatcher(null);
+  }
+
+  /**
+   * Returns a dispatcher executing the Commands on the specified Executor.
+   *
+   * @param executor to execute the Commands on
+   * @return the dispatcher
+   */
+  public static RoutingCommandDispatcher async(Executor executor) {
+    return new RoutingCommandDispatcher(executor);
+  }
+
+  /**
+   * The Executor to execute the Commands on, or {@code null} to execute them on the caller.
+   */
+  private final Executor executor;
+  private final Timer dispatchTimer = Metrics.global().timer("commandDispatcher.dispatch");
+  private final Timer executeTimer = Metrics.global().timer("commandDispatcher.execute");
+
+  @SuppressWarnings("rawtypes")
+  private final Map<Class<?>, CommandExecutor> routes = Maps.newHashMap();
+
+  /**
+   * The resolved routes by Command class, replaced whenever the routes change.
+   */
+  @SuppressWarnings("rawtypes")
+  private volatile ConcurrentMap<Class<?>, CommandExecutor> resolvedRoutes =
+      new ConcurrentHashMap<>();
+
+  RoutingCommandDispatcher(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Routes the Commands of the specified type to the specified CommandExecutor.
+   *
+   * @param <C> type of the Commands
+   * @param commandType type of the Commands
+   * @param commandExecutor to route the Commands to
+   * @throws IllegalArgumentException if the type is already routed
+   */
+  public synchronized <C extends Command> void route(Class<C> commandType,
+      CommandExecutor<? super C> commandExecutor) {
+    checkArgument(!routes.containsKey(commandType), "%s is already routed to %s.", commandType,
+        routes.get(commandType));
+    routes.put(commandType, commandExecutor);
+    resolvedRoutes = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Routes the Commands to the CommandExecutors by their type arguments.
+   *
+   * @throws IllegalArgumentException if a CommandExecutor has no type argument or its type is
+   *         already routed
+   */
+  @Override
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public <T extends CommandExecutor> void register(T... commandExecutors) {
+    for (T commandExecutor : commandExecutors) {
+      route((Class) commandTypeOf(commandExecutor), commandExecutor);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public synchronized <T extends CommandExecutor> void unregister(T... commandExecutors) {
+    for (T commandExecutor : commandExecutors) {
+      routes.values().removeIf(routed -> routed == commandExecutor);
+    }
+    resolvedRoutes = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Dispatches each Command to the CommandExecutor of its most specific type.
+   *
+   * @throws IllegalStateException if the route of a Command is ambiguous
+   */
+  @Override
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void dispatch(Command... commands) {
+    long start = dispatchTimer.start();
+    for (Command command : commands) {
+      CommandExecutor commandExecutor = routeOf(command.getClass());
+      if (commandExecutor == NO_ROUTE) {
+        continue;
+      }
+      if (executor == null) {
+        execute(commandExecutor, command);
+      } else {
+        executor.execute(() -> execute(commandExecutor, command));
+      }
+    }
+    dispatchTimer.stop(start);
+  }
+
+  /**
+   * Dispatches the Command to the CommandExecutor of its most specific type, the future completes
+   * exceptionally with an {@link IllegalStateException} if there's none.
+   */
+  @Override
+  public <R> CompletableFuture<R> dispatchAsync(Command command) {
+    CompletableFuture<R> result = new CompletableFuture<>();
+    if (executor == null) {
+      complete(command, result);
+    } else {
+      try {
+        executor.execute(() -> complete(command, result));
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Executes the Command on the caller, whatever the Executor of this dispatcher.
+   */
+  void execute(Command command) {
+    execute(routeOf(command.getClass()), command);
+  }
+
+  /**
+   * Executes the Command on the caller and completes the future with its result, unless the
+   * future is already done (cancelled or timed out).
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  <R> void complete(Command command, CompletableFuture<R> result) {
+    if (result.isDone()) {
+      return;
+    }
+    try {
+      CommandExecutor commandExecutor = routeOf(command.getClass());
+      checkState(commandExecutor != NO_ROUTE, "%s has no route.", command.getClass());
+      if (commandExecutor instanceof CallableCommandExecutor) {
+        long start = executeTimer.start();
+        R value;
+        try {
+          value = (R) ((CallableCommandExecutor) commandExecutor).call(command);
+        } finally {
+          executeTimer.stop(start);
+        }
+        result.complete(value);
+      } else {
+        execute(commandExecutor, command);
+        result.complete(null);
+      }
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private void execute(CommandExecutor commandExecutor, Command command) {
+    long start = executeTimer.start();
+    try {
+      commandExecutor.execute(command);
+    } finally {
+      executeTimer.stop(start);
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private CommandExecutor routeOf(Class<?> commandClass) {
+    ConcurrentMap<Class<?>, CommandExecutor> resolvedRoutes = this.resolvedRoutes;
+    CommandExecutor commandExecutor = resolvedRoutes.get(commandClass);
+    if (commandExecutor == null) {
+      commandExecutor = resolvedRoutes.computeIfAbsent(commandClass, this::resolve);
+    }
+    return commandExecutor;
+  }
+
+  @SuppressWarnings("rawtypes")
+  private synchronized CommandExecutor resolve(Class<?> commandClass) {
+    Map<Class<?>, CommandExecutor> matches = Maps.filterKeys(routes,
+        type -> type.isAssignableFrom(commandClass));
+    if (matches.isEmpty()) {
+      return NO_ROUTE;
+    }
+    for (Map.Entry<Class<?>, CommandExecutor> match : matches.entrySet()) {
+      if (matches.keySet().stream().allMatch(type -> type.isAssignableFrom(match.getKey()))) {
+        return match.getValue();
+      }
+    }
+    throw new IllegalStateException(commandClass + " has ambiguous routes to " + matches.keySet()
+        .stream().map(Class::getName).collect(Collectors.joining(", ")) + ".");
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private static Class<?> commandTypeOf(CommandExecutor commandExecutor) {
+    Type type = TypeToken.of(commandExecutor.getClass()).getSupertype((Class) CommandExecutor.class)
+        .getType();
+    Type commandType = type instanceof ParameterizedType
+        ? ((ParameterizedType) type).getActualTypeArguments()[0] : null;
+    checkArgument(commandType != null && !(commandType instanceof TypeVariable),
+        "%s has no Command type argument, route it instead.", commandExecutor);
+    return TypeToken.of(commandType).getRawType();
+  }
+
+}
@@ -13,35 +13,169 @@
  */
 package org.basil.twentytwenty.command.impl;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.basil.twentytwenty.command.Command;
 import org.basil.twentytwenty.command.CommandDispatcher;
 import org.basil.twentytwenty.command.CommandExecutor;
+import org.basil.twentytwenty.concurrent.BoundedExecutor;
+import org.basil.twentytwenty.concurrent.OverflowPolicy;
+import org.basil.twentytwenty.metrics.Metrics;
+import org.basil.twentytwenty.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import com.google.common.eventbus.AsyncEventBus;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.SubscriberExceptionContext;
 
 /**
  * A very simple implementation of CommandDispatcher using Google Guava's EventBus.
+ *
+ * <p>The EventBus never calls the same subscriber method concurrently, unless it's annotated
+ * with {@link AllowConcurrentEvents}. Annotate the thread-safe CommandExecutors so they get the
+ * most out of the {@link #virtual()} and {@link #async(Executor)} dispatchers.</p>
+ *
+ * <p>The asynchronous dispatchers post each Command to the EventBus on their Executor, so all
+ * the CommandExecutors of a Command run in one task. The futures returned by
+ * {@code dispatchAsync} complete once they have all returned, with {@code null} since the EventBus
+ * drops the results, or exceptionally with the first failure.</p>
+ *
+ * <p>A Command dispatched while a CommandExecutor is executing on the same thread, by the
+ * synchronous dispatcher or an Executor running the task on the caller, is queued by the EventBus
+ * until the CommandExecutor has returned. Its future completes once it's executed as well, and the
+ * same Command instance can't be dispatched by {@code dispatchAsync} again until then.</p>
+ *
+ * <p>Reports the time to dispatch the Commands to the global {@link Metrics} as
+ * {@code commandDispatcher.dispatch}.</p>
+ *
+ * <p>Closing the dispatcher shuts down the Executor it created, never one it was given, and stops
+ * reporting its gauges.</p>
  */
-public class SimpleCommandDispatcher implements CommandDispatcher {
+public class SimpleCommandDispatcher implements CommandDispatcher, Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(SimpleCommandDispatcher.class);
+
+  /**
+   * The threads of the pool {@link #virtual()} falls back to before Java 21.
+   */
+  static final int FALLBACK_THREADS = 256;
 
   public static CommandDispatcher async() {
     ExecutorService executorService = Executors.newFixedThreadPool(1);
-    return new SimpleCommandDispatcher(new AsyncEventBus("commandDispatcher", executorService));
+    return new SimpleCommandDispatcher(executorService, executorService::shutdown);
+  }
+
+  /**
+   * Returns a dispatcher executing the Commands in order on one thread, queueing up to the
+   * specified number of them. Create a {@link BoundedExecutor} and pass it to
+   * {@link #async(Executor)} instead to watch its queue.
+   *
+   * @param capacity the maximum number of Commands waiting to execute
+   * @param overflowPolicy applying when the queue is full
+   * @return the dispatcher
+   */
+  public static SimpleCommandDispatcher async(int capacity, OverflowPolicy overflowPolicy) {
+    BoundedExecutor executor =
+        BoundedExecutor.create("commandDispatcher", 1, capacity, overflowPolicy);
+    return new SimpleCommandDispatcher(executor, executor::shutdown);
+  }
+
+  /**
+   * Returns a dispatcher executing the Commands on the specified Executor.
+   *
+   * @param executor to execute the Commands on
+   * @return the dispatcher
+   */
+  public static SimpleCommandDispatcher async(Executor executor) {
+    return new SimpleCommandDispatcher(executor);
+  }
+
+  /**
+   * Returns a dispatcher executing the Commands on the specified Executor, no more than the
+   * specified number at a time. The Commands over the limit wait for their turn in a queue, the
+   * Executor is never given more than that number of tasks.
+   *
+   * @param executor to execute the Commands on
+   * @param maxConcurrency the maximum number of Commands executing at a time
+   * @return the dispatcher
+   */
+  public static SimpleCommandDispatcher async(Executor executor, int maxConcurrency) {
+    checkArgument(maxConcurrency > 0, "Max concurrency %s is not positive.", maxConcurrency);
+    ConcurrencyLimitedExecutor limitedExecutor =
+        new ConcurrencyLimitedExecutor("commandDispatcher", executor, maxConcurrency);
+    return new SimpleCommandDispatcher(limitedExecutor, limitedExecutor::close);
+  }
+
+  /**
+   * Returns a dispatcher executing every Command on a new virtual thread, so a blocking
+   * CommandExecutor holds up nothing but its own Command. Before Java 21 it falls back to a pool
+   * of up to {@value #FALLBACK_THREADS} threads, the Commands over that wait for a thread.
+   *
+   * @return the dispatcher
+   */
+  public static SimpleCommandDispatcher virtual() {
+    ExecutorService executorService = newVirtualThreadExecutor(FALLBACK_THREADS);
+    return new SimpleCommandDispatcher(executorService, executorService::shutdown);
+  }
+
+  /**
+   * Returns a dispatcher executing every Command on a new virtual thread, no more than the
+   * specified number at a time. Before Java 21 it falls back to a pool of that number of threads.
+   *
+   * @param maxConcurrency the maximum number of Commands executing at a time
+   * @return the dispatcher
+   * @see #virtual()
+   */
+  public static SimpleCommandDispatcher virtual(int maxConcurrency) {
+    checkArgument(maxConcurrency > 0, "Max concurrency %s is not positive.", maxConcurrency);
+    ExecutorService executorService = newVirtualThreadExecutor(maxConcurrency);
+    ConcurrencyLimitedExecutor limitedExecutor =
+        new ConcurrencyLimitedExecutor("commandDispatcher", executorService, maxConcurrency);
+    return new SimpleCommandDispatcher(limitedExecutor, () -> {
+      limitedExecutor.close();
+      executorService.shutdown();
+    });
   }
 
   public static CommandDispatcher sync() {
-    return new SimpleCommandDispatcher(new EventBus("commandDispatcher"));
+    return new SimpleCommandDispatcher(null);
   }
 
-  private final EventBus eventBus;
+  private final EventBus eventBus = new EventBus(this::handleException);
 
-  SimpleCommandDispatcher(EventBus eventBus) {
-    this.eventBus = eventBus;
+  /**
+   * The Executor to execute the Commands on, or {@code null} to execute them on the caller.
+   */
+  private final Executor executor;
+  private final Runnable shutdown;
+  private final Timer dispatchTimer = Metrics.global().timer("commandDispatcher.dispatch");
+
+  /**
+   * The Commands being posted on the current thread.
+   */
+  private final ThreadLocal<Posting> postings = ThreadLocal.withInitial(Posting::new);
+
+  SimpleCommandDispatcher(Executor executor) {
+    this(executor, () -> {
+    });
+  }
+
+  SimpleCommandDispatcher(Executor executor, Runnable shutdown) {
+    this.executor = executor;
+    this.shutdown = shutdown;
   }
 
   @Override
@@ -60,8 +194,159 @@ public class SimpleCommandDispatcher implements CommandDispatcher {
 
   @Override
   public void dispatch(Command... commands) {
-    Arrays.stream(commands)
-        .forEach(eventBus::post);
+    long start = dispatchTimer.start();
+    for (Command command : commands) {
+      if (executor == null) {
+        post(command, null);
+      } else {
+        executor.execute(() -> post(command, null));
+      }
+    }
+    dispatchTimer.stop(start);
+  }
+
+  /**
+   * Dispatches the Command like {@link #dispatch(Command...)}, the future completes once its
+   * CommandExecutors have executed it.
+   */
+  @Override
+  public <R> CompletableFuture<R> dispatchAsync(Command command) {
+    CompletableFuture<R> result = new CompletableFuture<>();
+    if (executor == null) {
+      complete(command, result);
+    } else {
+      try {
+        executor.execute(() -> complete(command, result));
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Shuts down the Executor the dispatcher created, the Commands already dispatched are still
+   * executed.
+   */
+  @Override
+  public void close() {
+    shutdown.run();
+  }
+
+  /**
+   * Posts the Command and completes the future once it's executed, unless it's already done
+   * (cancelled or timed out).
+   */
+  private <R> void complete(Command command, CompletableFuture<R> result) {
+    if (result.isDone()) {
+      return;
+    }
+    if (postings.get().executionOf(command) != null) {
+      result.completeExceptionally(new IllegalStateException(
+          command + " is already waiting to be executed on this thread."));
+      return;
+    }
+    post(command, result);
+  }
+
+  /**
+   * Posts the Command to the EventBus. The EventBus queues the Commands posted while it's
+   * executing one on the same thread, they have all been executed once the outermost post
+   * returns, which is when the futures of the thread complete.
+   *
+   * @param result to complete once the Command is executed, or {@code null}
+   */
+  private void post(Command command, CompletableFuture<?> result) {
+    Posting posting = postings.get();
+    if (result != null) {
+      posting.executions.add(new Execution(command, result));
+    }
+    posting.depth++;
+    Throwable failure = null;
+    try {
+      eventBus.post(command);
+    } catch (RuntimeException | Error e) {
+      failure = e;
+      throw e;
+    } finally {
+      if (--posting.depth == 0) {
+        for (Execution execution : posting.executions) {
+          if (failure == null) {
+            execution.result.complete(null);
+          } else {
+            execution.result.completeExceptionally(failure);
+          }
+        }
+        posting.executions.clear();
+      }
+    }
+  }
+
+  /**
+   * Fails the future of the Command if it was dispatched by {@code dispatchAsync}, logs the
+   * failure otherwise, the way the EventBus does by default.
+   */
+  private void handleException(Throwable exception, SubscriberExceptionContext context) {
+    Execution execution = postings.get().executionOf(context.getEvent());
+    if (execution != null) {
+      execution.result.completeExceptionally(exception);
+    } else {
+      logger.error("Failed to execute {} with {}.", context.getEvent(),
+          context.getSubscriberMethod(), exception);
+    }
+  }
+
+  /**
+   * {@code Executors.newVirtualThreadPerTaskExecutor()}, which is only there since Java 21, or a
+   * pool of the specified number of threads, which time out when idle.
+   */
+  private static ExecutorService newVirtualThreadExecutor(int fallbackThreads) {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException e) {
+      logger.warn("Virtual threads are not available, falling back to a pool of {} threads.",
+          fallbackThreads);
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(fallbackThreads, fallbackThreads,
+          60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+    }
+  }
+
+  /**
+   * The Commands being posted on a thread: how deep the posts are nested, and the ones dispatched
+   * by {@code dispatchAsync} in the order the EventBus executes them.
+   */
+  private static final class Posting {
+
+    private final List<Execution> executions = Lists.newArrayList();
+    private int depth;
+
+    private Execution executionOf(Object command) {
+      for (Execution execution : executions) {
+        if (execution.command == command) {
+          return execution;
+        }
+      }
+      return null;
+    }
+
+  }
+
+  /**
+   * A Command waiting to be executed, or being executed, and its future.
+   */
+  private static final class Execution {
+
+    private final Command command;
+    private final CompletableFuture<?> result;
+
+    private Execution(Command command, CompletableFuture<?> result) {
+      this.command = command;
+      this.result = result;
+    }
+
   }
 
 }
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.command.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.basil.twentytwenty.command.AggregateCommand;
+import org.basil.twentytwenty.command.CommandExecutor;
+import org.basil.twentytwenty.concurrent.BoundedExecutor;
+import org.basil.twentytwenty.concurrent.OverflowPolicy;
+import org.basil.twentytwenty.domain.Id;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class MailboxCommandDispatcherTest {
+
+  private ExecutorService executorService;
+  private MailboxCommandDispatcher commandDispatcher;
+
+  @Before
+  public void setUp() {
+    executorService = Executors.newFixedThreadPool(4);
+    commandDispatcher = MailboxCommandDispatcher.create(executorService, 50,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @After
+  public void tearDown() {
+    commandDispatcher.close();
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void testCommandsOfAnAggregateExecuteOneAtATimeInOrder() throws InterruptedException {
+    CountingExecutor countingExecutor = new CountingExecutor(64 * 1_000);
+    commandDispatcher.register(countingExecutor);
+
+    Id.Uuid[] aggregateIds = new Id.Uuid[64];
+    for (int i = 0; i < aggregateIds.length; i++) {
+      aggregateIds[i] = new Id.Uuid();
+    }
+    Thread[] dispatchers = new Thread[4];
+    for (int d = 0; d < dispatchers.length; d++) {
+      int owner = d;
+      dispatchers[d] = new Thread(() -> {
+        for (int sequence = 1; sequence <= 1_000; sequence++) {
+          for (int i = owner; i < aggregateIds.length; i += dispatchers.length) {
+            commandDispatcher.dispatch(new Increment(aggregateIds[i], sequence));
+          }
+        }
+      });
+      dispatchers[d].start();
+    }
+    for (Thread dispatcher : dispatchers) {
+      dispatcher.join();
+    }
+
+    assertThat(countingExecutor.done.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(countingExecutor.overlapping.get(), is(0));
+    assertThat(countingExecutor.outOfOrder.get(), is(0));
+    for (Id.Uuid aggregateId : aggregateIds) {
+      assertThat(countingExecutor.sequences.get(aggregateId), is(1_000));
+    }
+  }
+
+  @Test
+  public void testIdleMailboxesArePassivated() throws InterruptedException {
+    CountingExecutor countingExecutor = new CountingExecutor(2);
+    commandDispatcher.register(countingExecutor);
+    Id.Uuid aggregateId = new Id.Uuid();
+
+    commandDispatcher.dispatch(new Increment(aggregateId, 1));
+    for (int i = 0; i < 100 && commandDispatcher.getMailboxCount() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(commandDispatcher.getMailboxCount(), is(0));
+
+    commandDispatcher.dispatch(new Increment(aggregateId, 2));
+    assertThat(countingExecutor.done.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(countingExecutor.sequences.get(aggregateId), is(2));
+  }
+
+  @Test
+  public void testDispatchAsyncCompletesInTurn() throws Exception {
+    CountingExecutor countingExecutor = new CountingExecutor(100);
+    commandDispatcher.register(countingExecutor);
+    Id.Uuid aggregateId = new Id.Uuid();
+
+    CompletableFuture<?>[] results = new CompletableFuture<?>[100];
+    for (int i = 0; i < results.length; i++) {
+      results[i] = commandDispatcher.dispatchAsync(new Increment(aggregateId, i + 1));
+    }
+    CompletableFuture.allOf(results).get(10, TimeUnit.SECONDS);
+
+    assertThat(countingExecutor.outOfOrder.get(), is(0));
+    assertThat(countingExecutor.sequences.get(aggregateId), is(100));
+  }
+
+  @Test
+  public void testMailboxKeepsDrainingAfterAnError() throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(2);
+    commandDispatcher.route(Increment.class, command -> {
+      if (command.sequence == 1) {
+        throw new AssertionError("Failed " + command.sequence + ".");
+      }
+      done.countDown();
+    });
+    Id.Uuid aggregateId = new Id.Uuid();
+
+    commandDispatcher.dispatch(new Increment(aggregateId, 1), new Increment(aggregateId, 2));
+    commandDispatcher.dispatch(new Increment(aggregateId, 3));
+
+    assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void testDefaultPoolIsShutDownOnClose() throws Exception {
+    MailboxCommandDispatcher defaultDispatcher = MailboxCommandDispatcher.create();
+    CountDownLatch done = new CountDownLatch(1);
+    AtomicBoolean common = new AtomicBoolean();
+    defaultDispatcher.route(Increment.class, command -> {
+      common.set(Thread.currentThread() instanceof ForkJoinWorkerThread);
+      done.countDown();
+    });
+
+    defaultDispatcher.dispatch(new Increment(new Id.Uuid(), 1));
+    assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(common.get(), is(false));
+    defaultDispatcher.close();
+
+    assertThat(defaultDispatcher.dispatchAsync(new Increment(new Id.Uuid(), 1))
+        .isCompletedExceptionally(), is(true));
+  }
+
+  @Test
+  public void testRejectedMailboxIsScheduledAgain() throws Exception {
+    AtomicBoolean rejecting = new AtomicBoolean(true);
+    Executor executor = task -> {
+      if (rejecting.get()) {
+        throw new RejectedExecutionException("Full.");
+      }
+      executorService.execute(task);
+    };
+    commandDispatcher.close();
+    commandDispatcher = MailboxCommandDispatcher.create(executor, 50, TimeUnit.MILLISECONDS);
+    CountingExecutor countingExecutor = new CountingExecutor(1);
+    commandDispatcher.register(countingExecutor);
+    Id.Uuid aggregateId = new Id.Uuid();
+
+    CompletableFuture<?> rejected = commandDispatcher.dispatchAsync(new Increment(aggregateId, 1));
+    try {
+      rejected.get(10, TimeUnit.SECONDS);
+      throw new AssertionError("The rejected command completed.");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause() instanceof RejectedExecutionException, is(true));
+    }
+    try {
+      commandDispatcher.dispatch(new Increment(aggregateId, 1));
+      throw new AssertionError("The rejected command was dispatched.");
+    } catch (RejectedExecutionException e) {
+      // Expected.
+    }
+
+    rejecting.set(false);
+    commandDispatcher.dispatchAsync(new Increment(aggregateId, 1)).get(10, TimeUnit.SECONDS);
+    assertThat(countingExecutor.sequences.get(aggregateId), is(1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDroppingBoundedExecutorIsRefused() {
+    BoundedExecutor executor = BoundedExecutor.create("test", 1, 1, OverflowPolicy.DROP);
+    executor.shutdown();
+    MailboxCommandDispatcher.create(executor, 50, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testFullFailingBoundedExecutor() throws Exception {
+    BoundedExecutor executor = BoundedExecutor.create("test", 1, 1, OverflowPolicy.FAIL);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      commandDispatcher.close();
+      commandDispatcher = MailboxCommandDispatcher.create(executor, 50, TimeUnit.MILLISECONDS);
+      CountingExecutor countingExecutor = new CountingExecutor(1);
+      commandDispatcher.register(countingExecutor);
+      Id.Uuid aggregateId = new Id.Uuid();
+      executor.execute(() -> await(release));
+      executor.execute(() -> await(release));
+
+      CompletableFuture<?> rejected =
+          commandDispatcher.dispatchAsync(new Increment(aggregateId, 1));
+      assertThat(rejected.isCompletedExceptionally(), is(true));
+
+      release.countDown();
+      for (int i = 0; i < 1_000 && executor.getQueueDepth() > 0; i++) {
+        Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+      }
+      commandDispatcher.dispatchAsync(new Increment(aggregateId, 1)).get(10, TimeUnit.SECONDS);
+      assertThat(countingExecutor.sequences.get(aggregateId), is(1));
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFullBlockingBoundedExecutorKeepsDraining() throws Exception {
+    BoundedExecutor executor = BoundedExecutor.create("test", 1, 1, OverflowPolicy.BLOCK);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      commandDispatcher.close();
+      commandDispatcher = MailboxCommandDispatcher.create(executor, 50, TimeUnit.MILLISECONDS);
+      CountingExecutor countingExecutor = new CountingExecutor(2 * 1_000);
+      commandDispatcher.register(countingExecutor);
+      Id.Uuid first = new Id.Uuid();
+      Id.Uuid second = new Id.Uuid();
+      // Holds the first mailbox until the second one is queued, so it can't yield to it.
+      commandDispatcher.route(Hold.class, command -> {
+        for (int i = 0; i < 1_000 && executor.getQueueDepth() == 0; i++) {
+          Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        }
+      });
+      executor.execute(() -> await(release));
+      commandDispatcher.dispatch(new Hold(first));
+      for (int sequence = 1; sequence <= 1_000; sequence++) {
+        commandDispatcher.dispatch(new Increment(first, sequence));
+      }
+      Thread dispatcher = new Thread(() -> {
+        for (int sequence = 1; sequence <= 1_000; sequence++) {
+          commandDispatcher.dispatch(new Increment(second, sequence));
+        }
+      });
+      dispatcher.start();
+      while (dispatcher.getState() != Thread.State.WAITING) {
+        Thread.sleep(1);
+      }
+      release.countDown();
+
+      assertThat(countingExecutor.done.await(10, TimeUnit.SECONDS), is(true));
+      assertThat(countingExecutor.outOfOrder.get(), is(0));
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  static class Hold implements AggregateCommand<Id.Uuid> {
+
+    private final Id.Uuid aggregateId;
+
+    Hold(Id.Uuid aggregateId) {
+      this.aggregateId = aggregateId;
+    }
+
+    @Override
+    public Id.Uuid getAggregateId() {
+      return aggregateId;
+    }
+
+  }
+
+  static class Increment implements AggregateCommand<Id.Uuid> {
+
+    private final Id.Uuid aggregateId;
+    private final int sequence;
+
+    Increment(Id.Uuid aggregateId, int sequence) {
+      this.aggregateId = aggregateId;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public Id.Uuid getAggregateId() {
+      return aggregateId;
+    }
+
+  }
+
+  static class CountingExecutor implements CommandExecutor<Increment> {
+
+    private final Map<Id.Uuid, Integer> sequences = new ConcurrentHashMap<>();
+    private final Map<Id.Uuid, Boolean> executing = new ConcurrentHashMap<>();
+    private final AtomicInteger overlapping = new AtomicInteger();
+    private final AtomicInteger outOfOrder = new AtomicInteger();
+    private final CountDownLatch done;
+
+    CountingExecutor(int commands) {
+      done = new CountDownLatch(commands);
+    }
+
+    @Override
+    public void execute(Increment command) {
+      if (executing.put(command.aggregateId, true) != null) {
+        overlapping.incrementAndGet();
+      }
+      // Not atomic on purpose, the mailbox is what keeps it right.
+      int last = sequences.getOrDefault(command.aggregateId, 0);
+      if (command.sequence != last + 1) {
+        outOfOrder.incrementAndGet();
+      }
+      sequences.put(command.aggregateId, command.sequence);
+      executing.remove(command.aggregateId);
+      done.countDown();
+    }
+
+  }
+
+}
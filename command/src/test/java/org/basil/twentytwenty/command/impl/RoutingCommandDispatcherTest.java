@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.command.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.basil.twentytwenty.command.CallableCommandExecutor;
+import org.basil.twentytwenty.command.Command;
+import org.basil.twentytwenty.command.CommandExecutor;
+import org.basil.twentytwenty.command.item.Item;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class RoutingCommandDispatcherTest {
+
+  private RoutingCommandDispatcher commandDispatcher;
+  private List<String> executed;
+
+  @Before
+  public void setUp() {
+    commandDispatcher = RoutingCommandDispatcher.sync();
+    executed = Lists.newArrayList();
+  }
+
+  @Test
+  public void testNoRoute() {
+    commandDispatcher.dispatch(new Item.CreateItem("test"));
+
+    assertThat(executed.isEmpty(), is(true));
+  }
+
+  @Test
+  public void testRouteByTypeArgument() {
+    commandDispatcher.register(new CreateItemExecutor());
+
+    commandDispatcher.dispatch(new Item.CreateItem("test"),
+        new Item.RenameItem(new Item("test"), "new-test"));
+
+    assertThat(executed, is(Lists.newArrayList("create test")));
+  }
+
+  @Test
+  public void testMostSpecificRouteWins() {
+    commandDispatcher.register(new CreateItemExecutor());
+    commandDispatcher.route(Item.Command.class, command -> executed.add("item command"));
+
+    commandDispatcher.dispatch(new Item.CreateItem("test"),
+        new Item.RenameItem(new Item("test"), "new-test"));
+
+    assertThat(executed, is(Lists.newArrayList("create test", "item command")));
+  }
+
+  @Test
+  public void testUnregister() {
+    CreateItemExecutor createItemExecutor = new CreateItemExecutor();
+    commandDispatcher.register(createItemExecutor);
+    commandDispatcher.dispatch(new Item.CreateItem("test"));
+
+    commandDispatcher.unregister(createItemExecutor);
+    commandDispatcher.dispatch(new Item.CreateItem("other"));
+
+    assertThat(executed, is(Lists.newArrayList("create test")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateRoute() {
+    commandDispatcher.register(new CreateItemExecutor());
+
+    commandDispatcher.register(new CreateItemExecutor());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testExecutorWithoutTypeArgument() {
+    CommandExecutor<Item.CreateItem> lambda = command -> executed.add("lambda");
+
+    commandDispatcher.register(lambda);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testAmbiguousRoute() {
+    commandDispatcher.route(Audited.class, command -> executed.add("audited"));
+    commandDispatcher.route(Item.Command.class, command -> executed.add("item command"));
+
+    commandDispatcher.dispatch(new AuditedCreateItem());
+  }
+
+  @Test
+  public void testDispatchAsyncResult() throws Exception {
+    commandDispatcher.route(Item.CreateItem.class,
+        (CallableCommandExecutor<Item.CreateItem, Item>) command -> new Item(command.getName()));
+
+    CompletableFuture<Item> item = commandDispatcher.dispatchAsync(new Item.CreateItem("test"));
+
+    assertThat(item.get().getName(), is("test"));
+  }
+
+  @Test
+  public void testDispatchAsyncFailure() throws InterruptedException {
+    commandDispatcher.route(Item.CreateItem.class, command -> {
+      throw new IllegalArgumentException(command.getName());
+    });
+
+    CompletableFuture<Void> result = commandDispatcher.dispatchAsync(new Item.CreateItem("test"));
+
+    assertThat(causeOf(result) instanceof IllegalArgumentException, is(true));
+    assertThat(causeOf(commandDispatcher.dispatchAsync(new Item.RenameItem(null, "test")))
+        instanceof IllegalStateException, is(true));
+  }
+
+  @Test
+  public void testRejectedDispatchAsyncFails() throws InterruptedException {
+    commandDispatcher = RoutingCommandDispatcher.async(task -> {
+      throw new RejectedExecutionException();
+    });
+    commandDispatcher.register(new CreateItemExecutor());
+
+    CompletableFuture<Void> result = commandDispatcher.dispatchAsync(new Item.CreateItem("test"));
+
+    assertThat(causeOf(result) instanceof RejectedExecutionException, is(true));
+  }
+
+  @Test
+  public void testCancelledCommandIsSkipped() {
+    List<Runnable> tasks = Lists.newArrayList();
+    commandDispatcher = RoutingCommandDispatcher.async(tasks::add);
+    commandDispatcher.register(new CreateItemExecutor());
+
+    commandDispatcher.dispatchAsync(new Item.CreateItem("test")).cancel(false);
+    commandDispatcher.dispatchAsync(new Item.CreateItem("other"));
+    tasks.forEach(Runnable::run);
+
+    assertThat(executed, is(Lists.newArrayList("create other")));
+  }
+
+  @Test
+  public void testDispatchAsyncTimeout() throws InterruptedException {
+    commandDispatcher = RoutingCommandDispatcher.async(task -> {
+    });
+    commandDispatcher.register(new CreateItemExecutor());
+
+    CompletableFuture<Void> result =
+        commandDispatcher.dispatchAsync(new Item.CreateItem("test"), 10, TimeUnit.MILLISECONDS);
+
+    assertThat(causeOf(result) instanceof TimeoutException, is(true));
+  }
+
+  private static Throwable causeOf(CompletableFuture<?> result) throws InterruptedException {
+    try {
+      result.get();
+      return null;
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+  }
+
+  interface Audited extends Command {
+  }
+
+  static class AuditedCreateItem implements Item.Command, Audited {
+  }
+
+  class CreateItemExecutor implements CommandExecutor<Item.CreateItem> {
+
+    @Override
+    public void execute(Item.CreateItem command) {
+      executed.add("create " + command.getName());
+    }
+
+  }
+
+}
@@ -17,11 +17,27 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.assertThat;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.basil.twentytwenty.command.CommandDispatcher;
+import org.basil.twentytwenty.command.CommandExecutor;
+import org.basil.twentytwenty.command.item.Item;
 import org.basil.twentytwenty.command.item.ItemManager;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.Uninterruptibles;
+
 public class SimpleCommandDispatcherTest {
 
   private ItemManager itemManager;
@@ -82,4 +98,165 @@ public class SimpleCommandDispatcherTest {
     assertThat(itemManager.getItem().getName(), is("new-test"));
   }
 
+  @Test
+  public void testVirtualDispatchingRunsBlockingExecutorsConcurrently()
+      throws InterruptedException {
+    commandDispatcher = SimpleCommandDispatcher.virtual();
+    BlockingExecutor blockingExecutor = new BlockingExecutor(new CountDownLatch(100));
+    commandDispatcher.register(blockingExecutor);
+
+    for (int i = 0; i < 100; i++) {
+      commandDispatcher.dispatch(new Item.CreateItem("test-" + i));
+    }
+
+    // Every Command blocks until all of them are executing.
+    assertThat(blockingExecutor.allExecuting.await(10, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void testConcurrencyLimit() throws InterruptedException {
+    commandDispatcher = SimpleCommandDispatcher.virtual(3);
+    BlockingExecutor blockingExecutor = new BlockingExecutor(new CountDownLatch(0));
+    commandDispatcher.register(blockingExecutor);
+
+    for (int i = 0; i < 20; i++) {
+      commandDispatcher.dispatch(new Item.CreateItem("test-" + i));
+    }
+
+    assertThat(blockingExecutor.finished.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(blockingExecutor.maxExecuting.get(), is(3));
+  }
+
+  @Test
+  public void testConcurrencyLimitOnPlatformThreads() throws InterruptedException {
+    AtomicInteger threads = new AtomicInteger();
+    ExecutorService executorService = Executors.newCachedThreadPool(task -> {
+      threads.incrementAndGet();
+      return new Thread(task);
+    });
+    commandDispatcher = SimpleCommandDispatcher.async(executorService, 3);
+    BlockingExecutor blockingExecutor = new BlockingExecutor(new CountDownLatch(0));
+    commandDispatcher.register(blockingExecutor);
+
+    for (int i = 0; i < 20; i++) {
+      commandDispatcher.dispatch(new Item.CreateItem("test-" + i));
+    }
+
+    assertThat(blockingExecutor.finished.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(blockingExecutor.maxExecuting.get(), is(3));
+    // The Commands waiting for their turn take no thread.
+    assertThat(threads.get() <= 3, is(true));
+    executorService.shutdown();
+  }
+
+  @Test
+  public void testDispatchAsyncCompletesOnceExecuted() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger executed = new AtomicInteger();
+    commandDispatcher = SimpleCommandDispatcher.virtual();
+    commandDispatcher.register(new CommandExecutor<Item.CreateItem>() {
+
+      @Subscribe
+      @AllowConcurrentEvents
+      @Override
+      public void execute(Item.CreateItem command) {
+        Uninterruptibles.awaitUninterruptibly(release, 10, TimeUnit.SECONDS);
+        if (command.getName().equals("fail")) {
+          throw new IllegalArgumentException(command.getName());
+        }
+        executed.incrementAndGet();
+      }
+
+    });
+
+    CompletableFuture<Object> result = commandDispatcher.dispatchAsync(new Item.CreateItem("ok"));
+    CompletableFuture<Object> failure =
+        commandDispatcher.dispatchAsync(new Item.CreateItem("fail"));
+    assertThat(result.isDone(), is(false));
+    release.countDown();
+
+    result.get(10, TimeUnit.SECONDS);
+    assertThat(executed.get(), is(1));
+    try {
+      failure.get(10, TimeUnit.SECONDS);
+      throw new AssertionError("The failed command completed.");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause() instanceof IllegalArgumentException, is(true));
+    }
+  }
+
+  @Test
+  public void testDispatchAsyncFailsOnTheCaller() {
+    commandDispatcher.register(new CommandExecutor<Item.CreateItem>() {
+
+      @Subscribe
+      @Override
+      public void execute(Item.CreateItem command) {
+        throw new IllegalStateException(command.getName());
+      }
+
+    });
+
+    CompletableFuture<Object> failure =
+        commandDispatcher.dispatchAsync(new Item.CreateItem("fail"));
+
+    assertThat(failure.isCompletedExceptionally(), is(true));
+  }
+
+  @Test
+  public void testNestedDispatchAsyncCompletesOnceExecuted() {
+    AtomicReference<CompletableFuture<Object>> nested = new AtomicReference<>();
+    AtomicBoolean doneWhileQueued = new AtomicBoolean();
+    AtomicInteger executed = new AtomicInteger();
+    commandDispatcher.register(new CommandExecutor<Item.CreateItem>() {
+
+      @Subscribe
+      @Override
+      public void execute(Item.CreateItem command) {
+        if (command.getName().equals("outer")) {
+          // Queued by the EventBus until this returns.
+          nested.set(commandDispatcher.dispatchAsync(new Item.CreateItem("nested")));
+          doneWhileQueued.set(nested.get().isDone());
+        } else {
+          executed.incrementAndGet();
+          throw new IllegalArgumentException(command.getName());
+        }
+      }
+
+    });
+
+    CompletableFuture<Object> outer = commandDispatcher.dispatchAsync(new Item.CreateItem("outer"));
+
+    assertThat(doneWhileQueued.get(), is(false));
+    assertThat(executed.get(), is(1));
+    assertThat(outer.isCompletedExceptionally(), is(false));
+    assertThat(outer.isDone(), is(true));
+    assertThat(nested.get().isCompletedExceptionally(), is(true));
+  }
+
+  static class BlockingExecutor implements CommandExecutor<Item.CreateItem> {
+
+    private final CountDownLatch allExecuting;
+    private final CountDownLatch finished = new CountDownLatch(20);
+    private final AtomicInteger executing = new AtomicInteger();
+    private final AtomicInteger maxExecuting = new AtomicInteger();
+
+    BlockingExecutor(CountDownLatch allExecuting) {
+      this.allExecuting = allExecuting;
+    }
+
+    @Subscribe
+    @AllowConcurrentEvents
+    @Override
+    public void execute(Item.CreateItem command) {
+      maxExecuting.accumulateAndGet(executing.incrementAndGet(), Math::max);
+      allExecuting.countDown();
+      Uninterruptibles.awaitUninterruptibly(allExecuting, 10, TimeUnit.SECONDS);
+      Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+      executing.decrementAndGet();
+      finished.countDown();
+    }
+
+  }
+
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.concurrent;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.basil.twentytwenty.metrics.Gauge;
+import org.basil.twentytwenty.metrics.Metrics;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * An {@link Executor} with a bounded queue, the {@link OverflowPolicy} decides what happens to a
+ * task when the queue is full. The queue depth and the number of overflowing tasks are exposed so
+ * an overload can be watched, the queue depth and the tasks running are also reported to the
+ * global {@link Metrics} as the gauges {@code <name>-<n>.queueDepth} and
+ * {@code <name>-<n>.inFlight}, named after {@link Metrics#instanceName(String)}, until the
+ * executor is shut down.
+ */
+public class BoundedExecutor implements Executor {
+
+  /**
+   * Creates an executor with the specified number of daemon threads.
+   *
+   * @param name of the threads
+   * @param threads number of threads, 1 executes the tasks in order
+   * @param capacity of the queue
+   * @param overflowPolicy applying when the queue is full
+   * @return the executor
+   */
+  public static BoundedExecutor create(String name, int threads, int capacity,
+      OverflowPolicy overflowPolicy) {
+    checkArgument(threads > 0, "Thread count %s is not positive.", threads);
+    checkArgument(capacity > 0, "Capacity %s is not positive.", capacity);
+    return new BoundedExecutor(name, threads, capacity, overflowPolicy);
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final BlockingQueue<Runnable> queue;
+  private final OverflowPolicy overflowPolicy;
+  private final Gauge queueDepth;
+  private final Gauge inFlight;
+
+  private final AtomicLong blockedCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong callerRunsCount = new AtomicLong();
+
+  BoundedExecutor(String name, int threads, int capacity, OverflowPolicy overflowPolicy) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.overflowPolicy = overflowPolicy;
+    this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue,
+        new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build(),
+        (task, executor) -> overflow(task));
+    String instanceName = Metrics.instanceName(name);
+    this.queueDepth = Metrics.global().gauge(instanceName + ".queueDepth", queue::size);
+    this.inFlight = Metrics.global().gauge(instanceName + ".inFlight", executor::getActiveCount);
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    executor.execute(task);
+  }
+
+  /**
+   * Queues the task if there is room, whatever the {@link OverflowPolicy}: it never blocks, drops
+   * or runs the task on the caller. Meant for tasks that reschedule themselves from a thread of
+   * this executor, which must not wait for the queue it's draining.
+   *
+   * @param task to execute
+   * @return {@code false} if the queue is full and the task not queued
+   * @throws RejectedExecutionException if the executor is shut down
+   */
+  public boolean tryExecute(Runnable task) {
+    if (executor.isShutdown()) {
+      rejectedCount.incrementAndGet();
+      throw new RejectedExecutionException("The executor is shut down.");
+    }
+    executor.prestartAllCoreThreads();
+    if (!queue.offer(task)) {
+      return false;
+    }
+    if (executor.isShutdown() && queue.remove(task)) {
+      rejectedCount.incrementAndGet();
+      throw new RejectedExecutionException("The executor is shut down.");
+    }
+    return true;
+  }
+
+  public int getCapacity() {
+    return queue.size() + queue.remainingCapacity();
+  }
+
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * Returns the number of callers that had to wait for room under {@link OverflowPolicy#BLOCK}.
+   */
+  public long getBlockedCount() {
+    return blockedCount.get();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  public long getCallerRunsCount() {
+    return callerRunsCount.get();
+  }
+
+  /**
+   * Stops taking tasks, the queued ones are still executed.
+   */
+  public void shutdown() {
+    executor.shutdown();
+    queueDepth.close();
+    inFlight.close();
+  }
+
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+
+  private void overflow(Runnable task) {
+    if (executor.isShutdown()) {
+      rejectedCount.incrementAndGet();
+      throw new RejectedExecutionException("The executor is shut down.");
+    }
+    switch (overflowPolicy) {
+      case BLOCK:
+        blockedCount.incrementAndGet();
+        Uninterruptibles.putUninterruptibly(queue, task);
+        // Shut down while waiting, the threads may be gone by now and never take it.
+        if (executor.isShutdown() && queue.remove(task)) {
+          rejectedCount.incrementAndGet();
+          throw new RejectedExecutionException("The executor is shut down.");
+        }
+        break;
+      case FAIL:
+        rejectedCount.incrementAndGet();
+        throw new RejectedExecutionException("The queue is full at " + getCapacity() + " tasks.");
+      case DROP:
+        droppedCount.incrementAndGet();
+        break;
+      case CALLER_RUNS:
+        callerRunsCount.incrementAndGet();
+        task.run();
+        break;
+      default:
+        throw new AssertionError(overflowPolicy);
+    }
+  }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.concurrent;
+
+/**
+ * What a {@link BoundedExecutor} does with a task when its queue is full.
+ */
+public enum OverflowPolicy {
+
+  /**
+   * The caller waits until there is room in the queue.
+   */
+  BLOCK,
+
+  /**
+   * The task is rejected with a {@link java.util.concurrent.RejectedExecutionException}.
+   */
+  FAIL,
+
+  /**
+   * The task is silently dropped.
+   */
+  DROP,
+
+  /**
+   * The task runs on the caller's thread, which slows the caller down by as much as it loads the
+   * executor. The task may run ahead of the queued ones.
+   */
+  CALLER_RUNS
+
+}
@@ -13,14 +13,13 @@
  */
 package org.basil.twentytwenty.domain;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.Serializable;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 
 /**
@@ -37,6 +36,10 @@ import com.google.common.collect.Lists;
  * Root</em> and will be saved to an <em>Event Store</em> when the <em>Aggregate Root</em> is saved
  * to a <em>Repository</em>.</p>
  *
+ * <p>The version of the <em>Aggregate Root</em> is the number of committed <em>Domain Events</em>
+ * applied to it, so the events of an <em>Aggregate</em> are numbered 1, 2, 3 and so on. Use
+ * {@link #nextVersion()} for the version of a new event.</p>
+ *
  * <p>Derived from Greg Young's <em>Aggregate Root</em> implementation.</p>
  *
  * @see <a href="https://github.com/gregoryyoung/m-r/blob/master/SimpleCQRS/Domain.cs">Greg Young's
@@ -46,6 +49,7 @@ public class AggregateRoot<ID extends Id.Uuid> {
 
   protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+  private final ApplyMethods applyMethods = ApplyMethods.of(getClass());
   private final List<DomainEvent<?>> changes = Lists.newArrayList();
 
   protected ID id;
@@ -68,11 +72,67 @@ public class AggregateRoot<ID extends Id.Uuid> {
   }
 
   public void markChangesAsCommitted() {
+    version += changes.size();
     changes.clear();
   }
 
   public void loadFromHistory(List<DomainEvent<?>> historicalChanges) {
-    historicalChanges.forEach(change -> applyChange(change, false));
+    for (DomainEvent<?> change : historicalChanges) {
+      applyChange(change, false);
+      version++;
+    }
+  }
+
+  /**
+   * Loads the history as it's pulled from the {@link Stream}, without holding all of it.
+   *
+   * @param historicalChanges to load, in version order
+   */
+  public void loadFromHistory(Stream<? extends DomainEvent<?>> historicalChanges) {
+    historicalChanges.forEachOrdered(change -> {
+      applyChange(change, false);
+      version++;
+    });
+  }
+
+  /**
+   * Returns the state to take a snapshot of, or {@code null} if this <em>Aggregate Root</em> does
+   * not support snapshots. Override along with {@link #restoreSnapshotState(Serializable)}.
+   *
+   * @return the state to take a snapshot of
+   */
+  public Serializable getSnapshotState() {
+    return null;
+  }
+
+  /**
+   * Restores this <em>Aggregate Root</em> from a snapshot, the events after the version of the
+   * snapshot are then loaded by {@link #loadFromHistory(List)}.
+   *
+   * @param state of the snapshot
+   * @param version of the snapshot
+   */
+  public void loadFromSnapshot(Serializable state, int version) {
+    restoreSnapshotState(state);
+    this.version = version;
+  }
+
+  /**
+   * Override to restore the state returned by {@link #getSnapshotState()}.
+   *
+   * @param state of the snapshot
+   */
+  protected void restoreSnapshotState(Serializable state) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Returns the version of the next new event.
+   *
+   * @return the version of the next new event
+   */
+  protected int nextVersion() {
+    return version + changes.size() + 1;
   }
 
   protected void applyChange(DomainEvent<?> event) {
@@ -87,18 +147,11 @@ public class AggregateRoot<ID extends Id.Uuid> {
   }
 
   /**
-   * The Java version of this.AsDynamic().Apply(@event).
+   * The Java version of this.AsDynamic().Apply(@event), dispatched through a table of the apply
+   * methods built once per class.
    */
   private void apply(DomainEvent<?> event) {
-    try {
-      Method applyMethod = getClass().getDeclaredMethod("apply", event.getClass());
-      applyMethod.setAccessible(true);
-      applyMethod.invoke(this, event);
-    } catch (NoSuchMethodException e) {
-      logger.warn("apply({} event) does not exist.", event.getClass().getSimpleName());
-    } catch (IllegalAccessException | InvocationTargetException e) {
-      Throwables.throwIfUnchecked(e);
-    }
+    applyMethods.apply(this, event);
   }
 
 }
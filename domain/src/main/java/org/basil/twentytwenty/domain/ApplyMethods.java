@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.domain;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+
+/**
+ * The dispatch table of the {@code apply} methods of an {@link AggregateRoot} class.
+ *
+ * <p>The table is built once per class: every {@code apply} method taking a single
+ * {@link DomainEvent} declared by the class or its superclasses is compiled into an
+ * {@link ApplyMethod}, keyed by the event class it takes. The event classes are numbered as
+ * they're seen, so applying an event takes a single {@link ClassValue} lookup of the number of
+ * its class and an array load, the entry being filled in the first time the class is seen. An
+ * event class without an {@code apply} method gets a no-op entry, so a missing method costs no
+ * more than an existing one.</p>
+ */
+final class ApplyMethods {
+
+  private static final ApplyMethod NO_APPLY_METHOD = (aggregateRoot, event) -> {
+  };
+
+  private static final MethodType APPLY_METHOD_TYPE =
+      MethodType.methodType(void.class, Object.class, Object.class);
+
+  /**
+   * {@code MethodHandles.privateLookupIn}, which is only there since Java 9.
+   */
+  private static final MethodHandle PRIVATE_LOOKUP_IN = privateLookupIn();
+
+  private static final ClassValue<ApplyMethods> APPLY_METHODS = new ClassValue<ApplyMethods>() {
+    @Override
+    protected ApplyMethods computeValue(Class<?> aggregateType) {
+      return new ApplyMethods(aggregateType);
+    }
+  };
+
+  private static final AtomicInteger EVENT_TYPE_COUNT = new AtomicInteger();
+
+  private static final ClassValue<Integer> EVENT_TYPE_NUMBERS = new ClassValue<Integer>() {
+    @Override
+    protected Integer computeValue(Class<?> eventType) {
+      return EVENT_TYPE_COUNT.getAndIncrement();
+    }
+  };
+
+  static ApplyMethods of(Class<?> aggregateType) {
+    return APPLY_METHODS.get(aggregateType);
+  }
+
+  private final Logger logger;
+
+  /**
+   * The compiled apply methods by the event class they take, only read once built.
+   */
+  private final Map<Class<?>, ApplyMethod> applyMethods = Maps.newHashMap();
+
+  /**
+   * The apply methods by the number of the event class, replaced when an entry is filled in so
+   * lookups need no locking.
+   */
+  private volatile ApplyMethod[] table = new ApplyMethod[0];
+
+  private ApplyMethods(Class<?> aggregateType) {
+    logger = LoggerFactory.getLogger(aggregateType);
+
+    for (Class<?> type = aggregateType; type != AggregateRoot.class && type != Object.class;
+        type = type.getSuperclass()) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (isApplyMethod(method)) {
+          // The subclass' apply method overrides (or hides) the one of its superclass.
+          applyMethods.putIfAbsent(method.getParameterTypes()[0], compile(method));
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies the event to the {@code Aggregate Root} by invoking its {@code apply} method.
+   */
+  void apply(AggregateRoot<?> aggregateRoot, DomainEvent<?> event) {
+    int number = EVENT_TYPE_NUMBERS.get(event.getClass());
+    ApplyMethod[] table = this.table;
+    ApplyMethod applyMethod = number < table.length ? table[number] : null;
+    if (applyMethod == null) {
+      applyMethod = fillIn(event.getClass(), number);
+    }
+    applyMethod.apply(aggregateRoot, event);
+  }
+
+  /**
+   * Fills in the entry of an event class seen for the first time.
+   */
+  private synchronized ApplyMethod fillIn(Class<?> eventType, int number) {
+    ApplyMethod[] table = this.table;
+    if (number < table.length && table[number] != null) {
+      return table[number];
+    }
+    ApplyMethod applyMethod = applyMethods.get(eventType);
+    if (applyMethod == null) {
+      logger.warn("apply({} event) does not exist.", eventType.getSimpleName());
+      applyMethod = NO_APPLY_METHOD;
+    }
+    table = Arrays.copyOf(table, Math.max(table.length, number + 1));
+    table[number] = applyMethod;
+    this.table = table;
+    return applyMethod;
+  }
+
+  /**
+   * Turns the apply method into an {@link ApplyMethod} generated by the
+   * {@link LambdaMetafactory}, or a {@link MethodHandle} invoking it before Java 9.
+   */
+  private static ApplyMethod compile(Method method) {
+    method.setAccessible(true);
+    try {
+      MethodHandle methodHandle = MethodHandles.lookup().unreflect(method);
+      if (PRIVATE_LOOKUP_IN == null) {
+        MethodHandle applyMethod = methodHandle.asType(APPLY_METHOD_TYPE);
+        return (aggregateRoot, event) -> {
+          try {
+            applyMethod.invokeExact(aggregateRoot, event);
+          } catch (Throwable t) {
+            Throwables.throwIfUnchecked(t);
+            throw new IllegalStateException(t);
+          }
+        };
+      }
+      MethodHandles.Lookup lookup = (MethodHandles.Lookup) PRIVATE_LOOKUP_IN
+          .invokeExact(method.getDeclaringClass(), MethodHandles.lookup());
+      return (ApplyMethod) LambdaMetafactory.metafactory(lookup, "apply",
+          MethodType.methodType(ApplyMethod.class), APPLY_METHOD_TYPE,
+          lookup.unreflect(method), methodHandle.type())
+          .getTarget()
+          .invokeExact();
+    } catch (Throwable t) {
+      throw new IllegalStateException("Unable to compile " + method + ".", t);
+    }
+  }
+
+  private static MethodHandle privateLookupIn() {
+    try {
+      return MethodHandles.lookup().findStatic(MethodHandles.class, "privateLookupIn",
+          MethodType.methodType(MethodHandles.Lookup.class, Class.class,
+              MethodHandles.Lookup.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  private static boolean isApplyMethod(Method method) {
+    return method.getName().equals("apply")
+        && !Modifier.isStatic(method.getModifiers())
+        && method.getParameterCount() == 1
+        && DomainEvent.class.isAssignableFrom(method.getParameterTypes()[0]);
+  }
+
+  /**
+   * An apply method bound to nothing, taking the {@code Aggregate Root} and the event. Public so
+   * the generated implementations, which live next to the {@code Aggregate Root}, can access it.
+   */
+  @FunctionalInterface
+  public interface ApplyMethod {
+
+    void apply(Object aggregateRoot, Object event);
+
+  }
+
+}
@@ -13,20 +13,31 @@
  */
 package org.basil.twentytwenty.domain;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.UUID;
 import java.util.function.Supplier;
 
 /**
- * ID
+ * ID, serializable so it can be carried by {@link DomainEvent}s.
+ *
+ * <p>IDs are compared and hashed on every event and every index lookup. {@link Order} and
+ * {@link Uuid} therefore keep primitive fields and a precomputed hash instead of a wrapped object,
+ * and can be written to and read from a {@link ByteBuffer} without creating one.</p>
  *
  * @param <T> type of the ID object
  */
-public abstract class Id<T> {
+public abstract class Id<T> implements Serializable {
 
   /**
-   * The wrapped ID object.
+   * The wrapped ID object, {@code null} for {@link Order} and {@link Uuid} which keep primitive
+   * fields instead. Private so no subclass reads it, they use {@link #getValue()}.
    */
-  protected final T id;
+  private final T id;
 
   /**
    * Constructs the ID object by the default way in respect of its type.
@@ -62,6 +73,15 @@ public abstract class Id<T> {
     this.id = id;
   }
 
+  /**
+   * Returns the ID object, created on the fly by {@link Order} and {@link Uuid}.
+   *
+   * @return the ID object
+   */
+  public T getValue() {
+    return id;
+  }
+
   /**
    * Override to allow to generate a default ID.
    *
@@ -86,13 +106,13 @@ public abstract class Id<T> {
 
   @Override
   public boolean equals(Object o) {
-    if (o == null) {
-      return false;
+    if (o == this) {
+      return true;
     }
-    if (!o.getClass().equals(getClass())) {
+    if (o == null || o.getClass() != getClass()) {
       return false;
     }
-    return getClass().cast(o).id.equals(id);
+    return ((Id<?>) o).id.equals(id);
   }
 
   @Override
@@ -105,21 +125,50 @@ public abstract class Id<T> {
    */
   public static class Order extends Id<Long> {
 
+    private final long value;
+
     public Order() {
-      super(new Long(0));
+      this(0L);
     }
 
     public Order(String id) {
-      super(id);
+      this(Long.parseLong(id));
     }
 
     public Order(Long id) {
-      super(id);
+      this(id.longValue());
+    }
+
+    public Order(long value) {
+      super((Long) null);
+      this.value = value;
+    }
+
+    /**
+     * Reads the ID as written by {@link #writeTo(ByteBuffer)}.
+     *
+     * @param buffer to read the ID from
+     */
+    public Order(ByteBuffer buffer) {
+      this(buffer.getLong());
+    }
+
+    public long longValue() {
+      return value;
+    }
+
+    @Override
+    public Long getValue() {
+      return value;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+      buffer.putLong(value);
     }
 
     @Override
     protected Long getDefault() {
-      return Long.valueOf(0);
+      return 0L;
     }
 
     @Override
@@ -127,6 +176,27 @@ public abstract class Id<T> {
       return Long.parseLong(string);
     }
 
+    @Override
+    public int hashCode() {
+      return Long.hashCode(value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      }
+      if (o == null || o.getClass() != getClass()) {
+        return false;
+      }
+      return ((Order) o).value == value;
+    }
+
+    @Override
+    public String toString() {
+      return Long.toString(value);
+    }
+
   }
 
   /**
@@ -155,29 +225,89 @@ public abstract class Id<T> {
   }
 
   /**
-   * Universally unique identifier.
+   * Universally unique identifier, kept as its two halves. New ones are generated by the
+   * {@link UuidGenerator} set by {@link #setGenerator(UuidGenerator)}, random by default. Set
+   * {@link UuidGenerator#timeOrdered()} so the IDs of new {@code Aggregate}s cluster together in
+   * ordered indexes, if it's fine for them to reveal when they were created.
    */
   public static class Uuid extends Id<UUID> {
 
+    private static volatile UuidGenerator generator = UuidGenerator.random();
+
+    /**
+     * Sets the generator of the new IDs, for every {@code Uuid} created from then on.
+     *
+     * @param generator of the new IDs
+     */
+    public static void setGenerator(UuidGenerator generator) {
+      Uuid.generator = checkNotNull(generator);
+    }
+
+    private final long mostSignificantBits;
+    private final long leastSignificantBits;
+
+    /**
+     * Same as {@link UUID#hashCode()}, so IDs spread the same as before. Not serialized, but
+     * computed again by {@link #readObject(ObjectInputStream)}.
+     */
+    private transient int hash;
+
     public Uuid() {
-      super();
+      this(generator.generate());
     }
 
     public Uuid(String string) {
-      super(string);
+      this(UUID.fromString(string));
     }
 
     public Uuid(Supplier<UUID> idSupplier) {
-      super(idSupplier);
+      this(idSupplier.get());
     }
 
     public Uuid(UUID id) {
-      super(id);
+      this(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    public Uuid(long mostSignificantBits, long leastSignificantBits) {
+      super((UUID) null);
+      this.mostSignificantBits = mostSignificantBits;
+      this.leastSignificantBits = leastSignificantBits;
+      this.hash = hash(mostSignificantBits, leastSignificantBits);
+    }
+
+    /**
+     * Reads the ID as written by {@link #writeTo(ByteBuffer)}.
+     *
+     * @param buffer to read the ID from
+     */
+    public Uuid(ByteBuffer buffer) {
+      this(buffer.getLong(), buffer.getLong());
+    }
+
+    public long getMostSignificantBits() {
+      return mostSignificantBits;
+    }
+
+    public long getLeastSignificantBits() {
+      return leastSignificantBits;
+    }
+
+    public UUID toUuid() {
+      return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+
+    @Override
+    public UUID getValue() {
+      return toUuid();
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+      buffer.putLong(mostSignificantBits).putLong(leastSignificantBits);
     }
 
     @Override
     protected UUID getDefault() {
-      return UUID.randomUUID();
+      return generator.generate();
     }
 
     @Override
@@ -185,6 +315,40 @@ public abstract class Id<T> {
       return UUID.fromString(string);
     }
 
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      }
+      if (o == null || o.getClass() != getClass()) {
+        return false;
+      }
+      Uuid other = (Uuid) o;
+      return other.hash == hash
+          && other.mostSignificantBits == mostSignificantBits
+          && other.leastSignificantBits == leastSignificantBits;
+    }
+
+    @Override
+    public String toString() {
+      return toUuid().toString();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      hash = hash(mostSignificantBits, leastSignificantBits);
+    }
+
+    private static int hash(long mostSignificantBits, long leastSignificantBits) {
+      long bits = mostSignificantBits ^ leastSignificantBits;
+      return (int) (bits >> 32) ^ (int) bits;
+    }
+
   }
 
 }
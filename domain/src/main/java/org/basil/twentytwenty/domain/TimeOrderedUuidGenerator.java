@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.domain;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates version 7 UUIDs: the milliseconds since the epoch in the top 48 bits, then a 12-bit
+ * counter and 62 random bits.
+ *
+ * <p>Each thread keeps its own counter and draws from {@link ThreadLocalRandom}, so threads
+ * generating at once share nothing. The counter starts at a random value in the lower half of its
+ * range each millisecond and counts up, so the UUIDs of a thread are strictly increasing; when it
+ * runs out the thread moves on to the next millisecond early. UUIDs of the same millisecond from
+ * different threads are only told apart by their random bits, which are not suitable for IDs
+ * that must not be guessable.</p>
+ *
+ * @see <a href="https://www.rfc-editor.org/rfc/rfc9562#name-uuid-version-7">RFC 9562 UUID
+ *      Version 7</a>
+ */
+final class TimeOrderedUuidGenerator implements UuidGenerator {
+
+  static final TimeOrderedUuidGenerator INSTANCE = new TimeOrderedUuidGenerator();
+
+  private static final int COUNTER_BITS = 12;
+  private static final int COUNTER_MAX = (1 << COUNTER_BITS) - 1;
+
+  private static final long VERSION = 7L << COUNTER_BITS;
+  private static final long VARIANT = 0x8000000000000000L;
+  private static final long RANDOM_MASK = 0x3FFFFFFFFFFFFFFFL;
+
+  private static final ThreadLocal<State> STATES = ThreadLocal.withInitial(State::new);
+
+  private TimeOrderedUuidGenerator() {
+  }
+
+  @Override
+  public UUID generate() {
+    State state = STATES.get();
+    long millis = System.currentTimeMillis();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (millis > state.millis) {
+      state.millis = millis;
+      state.counter = random.nextInt(COUNTER_MAX >> 1);
+    } else if (++state.counter > COUNTER_MAX) {
+      // Out of counter, or the clock went back: borrow the next millisecond.
+      state.millis++;
+      state.counter = random.nextInt(COUNTER_MAX >> 1);
+    }
+    long mostSignificantBits = state.millis << 16 | VERSION | state.counter;
+    long leastSignificantBits = VARIANT | random.nextLong() & RANDOM_MASK;
+    return new UUID(mostSignificantBits, leastSignificantBits);
+  }
+
+  private static class State {
+
+    private long millis;
+    private int counter;
+
+  }
+
+}
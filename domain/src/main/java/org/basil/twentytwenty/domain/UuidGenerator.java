@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.domain;
+
+import java.util.UUID;
+
+/**
+ * Generates the UUIDs of new {@link Id.Uuid}s, see {@link Id.Uuid#setGenerator(UuidGenerator)}.
+ */
+@FunctionalInterface
+public interface UuidGenerator {
+
+  /**
+   * Random (version 4) UUIDs from {@link UUID#randomUUID()}, which draws on a shared
+   * {@code SecureRandom}. Use it when the IDs must not be guessable.
+   *
+   * @return the generator
+   */
+  static UuidGenerator random() {
+    return UUID::randomUUID;
+  }
+
+  /**
+   * Time-ordered (version 7) UUIDs, see {@link TimeOrderedUuidGenerator}.
+   *
+   * @return the generator
+   */
+  static UuidGenerator timeOrdered() {
+    return TimeOrderedUuidGenerator.INSTANCE;
+  }
+
+  /**
+   * Generates a new UUID.
+   *
+   * @return the new UUID
+   */
+  UUID generate();
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics keeping a {@link Histogram} per timer and sampling the gauges when they are read, for
+ * tests, diagnostics and exporting to whatever a deployment uses.
+ */
+public class InMemoryMetrics implements Metrics {
+
+  private final ConcurrentMap<String, Histogram> timers = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+  InMemoryMetrics() {
+  }
+
+  @Override
+  public Histogram timer(String name) {
+    return timers.computeIfAbsent(name, n -> new Histogram());
+  }
+
+  @Override
+  public Gauge gauge(String name, LongSupplier value) {
+    gauges.put(name, value);
+    // Leaves alone a gauge that replaced this one.
+    return () -> gauges.remove(name, value);
+  }
+
+  /**
+   * Returns the timers by name, in name order.
+   */
+  public Map<String, Histogram> getTimers() {
+    return new TreeMap<>(timers);
+  }
+
+  /**
+   * Samples the gauges, returns their values by name, in name order.
+   */
+  public Map<String, Long> getGauges() {
+    Map<String, Long> values = new TreeMap<>();
+    gauges.forEach((name, value) -> values.put(name, value.getAsLong()));
+    return values;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder report = new StringBuilder();
+    getTimers().forEach((name, timer) ->
+        report.append(name).append(' ').append(timer).append('\n'));
+    getGauges().forEach((name, value) ->
+        report.append(name).append(' ').append(value).append('\n'));
+    return report.toString();
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.metrics;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The metrics SPI the dispatchers, publishers and stores report to.
+ *
+ * <p>Components look their timers up once, when they are created, from the {@link #global()}
+ * metrics unless they are given others, so install the metrics with {@link #setGlobal(Metrics)}
+ * before creating them. A hot path then costs two {@link System#nanoTime()} calls and a
+ * {@link Timer#record(long)}, or nothing at all with the {@link #noop()} metrics, the default.</p>
+ *
+ * <p>Metric names are built when a metric is looked up, never when it's recorded. They are dotted,
+ * such as {@code eventStore.save} or {@code eventHandler.com.example.Handler}. The gauges of a
+ * component instance are named after its {@link #instanceName(String)}, so two instances don't
+ * replace each other's, and are closed with the instance.</p>
+ */
+public interface Metrics {
+
+  /**
+   * Returns the metrics that record nothing.
+   *
+   * @return the no-op metrics
+   */
+  static Metrics noop() {
+    return NoopMetrics.INSTANCE;
+  }
+
+  /**
+   * Returns new metrics keeping histograms and gauges in memory.
+   *
+   * @return the in-memory metrics
+   */
+  static InMemoryMetrics inMemory() {
+    return new InMemoryMetrics();
+  }
+
+  /**
+   * Returns the metrics the components report to unless they are given others.
+   *
+   * @return the global metrics
+   */
+  static Metrics global() {
+    return NoopMetrics.global;
+  }
+
+  /**
+   * Sets the global metrics, the components created from then on report to them.
+   *
+   * @param metrics to report to
+   */
+  static void setGlobal(Metrics metrics) {
+    NoopMetrics.global = checkNotNull(metrics);
+  }
+
+  /**
+   * Returns the specified name suffixed with a number unique to it in this JVM, {@code name-1},
+   * {@code name-2} and so on, to name the gauges of an instance among others of the same name.
+   *
+   * @param name shared by the instances
+   * @return the name of an instance
+   */
+  static String instanceName(String name) {
+    return name + '-' + NoopMetrics.INSTANCES.computeIfAbsent(name, n -> new AtomicLong())
+        .incrementAndGet();
+  }
+
+  /**
+   * Returns the timer of the specified name, the same one for the same name.
+   *
+   * @param name of the timer
+   * @return the timer
+   */
+  Timer timer(String name);
+
+  /**
+   * Registers a gauge sampled when the metrics are read, replacing the one of the same name. The
+   * gauge holds on to whatever the supplier refers to until it's closed.
+   *
+   * @param name of the gauge
+   * @param value to sample
+   * @return the gauge, to close when what it samples goes away
+   */
+  Gauge gauge(String name, LongSupplier value);
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics that record nothing, their timer doesn't even read the clock. Also holds the global
+ * metrics and the instance counts of {@link Metrics#instanceName(String)}.
+ */
+final class NoopMetrics implements Metrics {
+
+  static final NoopMetrics INSTANCE = new NoopMetrics();
+
+  static volatile Metrics global = INSTANCE;
+
+  static final ConcurrentMap<String, AtomicLong> INSTANCES = new ConcurrentHashMap<>();
+
+  private static final Timer NOOP_TIMER = new Timer() {
+
+    @Override
+    public void record(long nanos) {
+    }
+
+    @Override
+    public long start() {
+      return 0;
+    }
+
+    @Override
+    public void stop(long start) {
+    }
+
+  };
+
+  private static final Gauge NOOP_GAUGE = () -> {
+  };
+
+  private NoopMetrics() {
+  }
+
+  @Override
+  public Timer timer(String name) {
+    return NOOP_TIMER;
+  }
+
+  @Override
+  public Gauge gauge(String name, LongSupplier value) {
+    return NOOP_GAUGE;
+  }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.metrics;
+
+/**
+ * Records the durations of an operation.
+ *
+ * <pre>
+ * long start = timer.start();
+ * ...
+ * timer.stop(start);
+ * </pre>
+ */
+public interface Timer {
+
+  /**
+   * Records a duration.
+   *
+   * @param nanos the duration in nanoseconds
+   */
+  void record(long nanos);
+
+  /**
+   * Starts timing.
+   *
+   * @return the start to pass to {@link #stop(long)}
+   */
+  default long start() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Records the time since the start.
+   *
+   * @param start as returned by {@link #start()}
+   */
+  default void stop(long start) {
+    record(System.nanoTime() - start);
+  }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.concurrent;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.basil.twentytwenty.metrics.InMemoryMetrics;
+import org.basil.twentytwenty.metrics.Metrics;
+import org.junit.After;
+import org.junit.Test;
+
+public class BoundedExecutorTest {
+
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final AtomicInteger executed = new AtomicInteger();
+  private BoundedExecutor executor;
+
+  @After
+  public void tearDown() throws InterruptedException {
+    release.countDown();
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testFail() {
+    fill(OverflowPolicy.FAIL);
+
+    try {
+      executor.execute(executed::incrementAndGet);
+      fail();
+    } catch (RejectedExecutionException e) {
+      // Expected.
+    }
+
+    assertThat(executor.getRejectedCount(), is(1L));
+    assertThat(executor.getQueueDepth(), is(2));
+  }
+
+  @Test
+  public void testDrop() throws InterruptedException {
+    fill(OverflowPolicy.DROP);
+
+    executor.execute(executed::incrementAndGet);
+    release.countDown();
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+
+    assertThat(executor.getDroppedCount(), is(1L));
+    assertThat(executed.get(), is(2));
+  }
+
+  @Test
+  public void testCallerRuns() {
+    fill(OverflowPolicy.CALLER_RUNS);
+
+    executor.execute(executed::incrementAndGet);
+
+    assertThat(executor.getCallerRunsCount(), is(1L));
+    assertThat(executed.get(), is(1));
+  }
+
+  @Test
+  public void testBlock() throws InterruptedException {
+    fill(OverflowPolicy.BLOCK);
+
+    Thread caller = new Thread(() -> executor.execute(executed::incrementAndGet));
+    caller.start();
+    caller.join(100);
+    assertThat(caller.isAlive(), is(true));
+
+    release.countDown();
+    caller.join();
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+
+    assertThat(executor.getBlockedCount(), is(1L));
+    assertThat(executed.get(), is(3));
+  }
+
+  @Test
+  public void testGaugesUntilShutdown() {
+    InMemoryMetrics metrics = Metrics.inMemory();
+    Metrics.setGlobal(metrics);
+    BoundedExecutor other;
+    try {
+      executor = BoundedExecutor.create("gauged", 1, 2, OverflowPolicy.FAIL);
+      other = BoundedExecutor.create("gauged", 1, 2, OverflowPolicy.FAIL);
+    } finally {
+      Metrics.setGlobal(Metrics.noop());
+    }
+    assertThat(metrics.getGauges().size(), is(4));
+
+    executor.shutdown();
+    other.shutdown();
+    assertThat(metrics.getGauges().isEmpty(), is(true));
+  }
+
+  /**
+   * Occupies the only thread until released and fills the queue of 2.
+   */
+  private void fill(OverflowPolicy overflowPolicy) {
+    executor = BoundedExecutor.create("test", 1, 2, overflowPolicy);
+    CountDownLatch started = new CountDownLatch(1);
+    executor.execute(() -> {
+      started.countDown();
+      awaitRelease();
+    });
+    awaitRelease(started);
+    executor.execute(executed::incrementAndGet);
+    executor.execute(executed::incrementAndGet);
+  }
+
+  private void awaitRelease() {
+    awaitRelease(release);
+  }
+
+  private static void awaitRelease(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.domain;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class ApplyMethodsTest {
+
+  private final Id.Uuid id = new Id.Uuid();
+
+  @Test
+  public void testPrivateApplyMethod() {
+    Item item = new Item();
+
+    item.applyChange(new Created(id, 1));
+
+    assertThat(item.applied, is(Lists.newArrayList("item created")));
+  }
+
+  @Test
+  public void testSuperclassApplyMethods() {
+    SpecialItem item = new SpecialItem();
+
+    item.applyChange(new Created(id, 1));
+    item.applyChange(new Moved(id, 2));
+
+    assertThat(item.applied, is(Lists.newArrayList("item created", "item moved")));
+  }
+
+  @Test
+  public void testOverridingApplyMethod() {
+    Item item = new Item();
+    SpecialItem specialItem = new SpecialItem();
+
+    item.applyChange(new Renamed(id, 1));
+    specialItem.applyChange(new Renamed(id, 1));
+
+    assertThat(item.applied, is(Lists.newArrayList("item renamed")));
+    assertThat(specialItem.applied, is(Lists.newArrayList("special item renamed")));
+  }
+
+  @Test
+  public void testMissingApplyMethodIsANoOp() {
+    Item item = new Item();
+
+    // Only warned about, the event is still a change.
+    item.applyChange(new Deleted(id, 1));
+    item.applyChange(new Deleted(id, 2));
+
+    assertThat(item.applied.isEmpty(), is(true));
+    assertThat(item.getUncommittedChanges().size(), is(2));
+  }
+
+  @Test
+  public void testExceptionPropagates() {
+    Item item = new Item();
+    Failed failed = new Failed(id, 1);
+
+    try {
+      item.applyChange(failed);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e, is(sameInstance(failed.exception)));
+    }
+    assertThat(item.hasUncommittedChanges(), is(false));
+  }
+
+  static class Item extends AggregateRoot<Id.Uuid> {
+
+    final List<String> applied = Lists.newArrayList();
+
+    private void apply(Created event) {
+      applied.add("item created");
+    }
+
+    void apply(Renamed event) {
+      applied.add("item renamed");
+    }
+
+    protected void apply(Moved event) {
+      applied.add("item moved");
+    }
+
+    private void apply(Failed event) {
+      throw event.exception;
+    }
+
+  }
+
+  static class SpecialItem extends Item {
+
+    @Override
+    void apply(Renamed event) {
+      applied.add("special item renamed");
+    }
+
+  }
+
+  abstract static class Event implements DomainEvent<Id.Uuid> {
+
+    private final Id.Uuid id;
+    private final int version;
+
+    Event(Id.Uuid id, int version) {
+      this.id = id;
+      this.version = version;
+    }
+
+    @Override
+    public Id.Uuid getId() {
+      return id;
+    }
+
+    @Override
+    public int getVersion() {
+      return version;
+    }
+
+  }
+
+  static class Created extends Event {
+
+    Created(Id.Uuid id, int version) {
+      super(id, version);
+    }
+
+  }
+
+  static class Renamed extends Event {
+
+    Renamed(Id.Uuid id, int version) {
+      super(id, version);
+    }
+
+  }
+
+  static class Moved extends Event {
+
+    Moved(Id.Uuid id, int version) {
+      super(id, version);
+    }
+
+  }
+
+  static class Deleted extends Event {
+
+    Deleted(Id.Uuid id, int version) {
+      super(id, version);
+    }
+
+  }
+
+  static class Failed extends Event {
+
+    final transient IllegalStateException exception = new IllegalStateException("Failed.");
+
+    Failed(Id.Uuid id, int version) {
+      super(id, version);
+    }
+
+  }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.domain;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class IdTest {
+
+  @Test
+  public void testUuidKeepsTheUuid() {
+    UUID uuid = UUID.randomUUID();
+    Id.Uuid id = new Id.Uuid(uuid);
+
+    assertThat(id.toUuid(), is(uuid));
+    assertThat(id.toString(), is(uuid.toString()));
+    assertThat(id.hashCode(), is(uuid.hashCode()));
+    assertThat(new Id.Uuid(uuid.toString()), is(id));
+  }
+
+  @Test
+  public void testUuidEqualsOnlySameClass() {
+    Id.Uuid id = new Id.Uuid();
+    Id.Uuid other = new Id.Uuid(id.getMostSignificantBits(), id.getLeastSignificantBits()) {
+    };
+
+    assertThat(id.equals(new Id.Uuid(id.toUuid())), is(true));
+    assertThat(id.equals(other), is(false));
+    assertThat(id.equals(new Id.Uuid()), is(false));
+  }
+
+  @Test
+  public void testWriteToAndReadFromByteBuffer() {
+    Id.Uuid uuid = new Id.Uuid();
+    Id.Order order = new Id.Order(42L);
+    ByteBuffer buffer = ByteBuffer.allocate(24);
+    uuid.writeTo(buffer);
+    order.writeTo(buffer);
+    buffer.flip();
+
+    assertThat(new Id.Uuid(buffer), is(uuid));
+    assertThat(new Id.Order(buffer), is(order));
+  }
+
+  @Test
+  public void testOrder() {
+    assertThat(new Id.Order().longValue(), is(0L));
+    assertThat(new Id.Order("7"), is(new Id.Order(7L)));
+    assertThat(new Id.Order(Long.valueOf(7)).hashCode(), is(Long.hashCode(7)));
+    assertThat(new Id.Order(7L).toString(), is("7"));
+  }
+
+  @Test
+  public void testGetValue() {
+    UUID uuid = UUID.randomUUID();
+
+    assertThat(new Id.Uuid(uuid).getValue(), is(uuid));
+    assertThat(new Id.Order(7L).getValue(), is(7L));
+    assertThat(new Id.Token("token").getValue(), is("token"));
+  }
+
+  @Test
+  public void testSerialization() throws IOException, ClassNotFoundException {
+    Id.Uuid uuid = new Id.Uuid();
+    Id.Order order = new Id.Order(42L);
+
+    assertThat(deserialize(serialize(uuid)), is(uuid));
+    assertThat(deserialize(serialize(order)), is(order));
+    assertThat(deserialize(serialize(uuid)).hashCode(), is(uuid.hashCode()));
+  }
+
+  private static byte[] serialize(Object object) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeObject(object);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+    try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return input.readObject();
+    }
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.domain;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+public class UuidGeneratorTest {
+
+  @Test
+  public void testTimeOrderedVersionAndTime() throws InterruptedException {
+    // On a fresh thread, one that generated a burst may run a few milliseconds ahead.
+    UUID[] uuid = new UUID[1];
+    long before = System.currentTimeMillis();
+    Thread thread = new Thread(() -> uuid[0] = UuidGenerator.timeOrdered().generate());
+    thread.start();
+    thread.join();
+
+    assertThat(uuid[0].version(), is(7));
+    assertThat(uuid[0].variant(), is(2));
+    long millis = uuid[0].getMostSignificantBits() >>> 16;
+    assertTrue(millis >= before && millis <= System.currentTimeMillis());
+  }
+
+  @Test
+  public void testTimeOrderedIncreasesWithinThread() {
+    UuidGenerator generator = UuidGenerator.timeOrdered();
+    UUID previous = generator.generate();
+    for (int i = 0; i < 100_000; i++) {
+      UUID next = generator.generate();
+      assertTrue(Long.compareUnsigned(next.getMostSignificantBits(),
+          previous.getMostSignificantBits()) > 0);
+      previous = next;
+    }
+  }
+
+  @Test
+  public void testTimeOrderedUniqueAcrossThreads() throws InterruptedException {
+    Set<UUID> uuids = ConcurrentHashMap.newKeySet();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        for (int j = 0; j < 25_000; j++) {
+          uuids.add(UuidGenerator.timeOrdered().generate());
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(uuids.size(), is(100_000));
+  }
+
+  @Test
+  public void testIdIsRandomByDefault() {
+    assertThat(new Id.Uuid().toUuid().version(), is(4));
+  }
+
+  @Test
+  public void testIdUsesGenerator() {
+    UUID uuid = UUID.randomUUID();
+    Id.Uuid.setGenerator(() -> uuid);
+    try {
+      assertThat(new Id.Uuid().toUuid(), is(uuid));
+    } finally {
+      Id.Uuid.setGenerator(UuidGenerator.random());
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+  @Test
+  public void testPercentiles() {
+    Histogram histogram = new Histogram();
+    for (long i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000);
+    }
+
+    assertThat(histogram.getCount(), is(1000L));
+    assertThat(histogram.getMax(), is(1_000_000L));
+    assertThat(histogram.getMean(), is(500_500.0));
+    assertThat(within(histogram.getPercentile(50), 500_000), is(true));
+    assertThat(within(histogram.getPercentile(99), 990_000), is(true));
+    assertThat(histogram.getPercentile(100), is(1_000_000L));
+  }
+
+  @Test
+  public void testEmpty() {
+    Histogram histogram = new Histogram();
+
+    assertThat(histogram.getCount(), is(0L));
+    assertThat(histogram.getMean(), is(0.0));
+    assertThat(histogram.getPercentile(99), is(0L));
+  }
+
+  @Test
+  public void testBucketsCoverEveryValue() {
+    long[] values = {0, 1, 7, 8, 9, 15, 16, 1000, 1L << 40, Long.MAX_VALUE};
+    for (long value : values) {
+      int bucket = Histogram.bucketOf(value);
+      assertThat(Histogram.upperBoundOf(bucket) >= value, is(true));
+      assertThat(bucket == 0 || Histogram.upperBoundOf(bucket - 1) < value, is(true));
+    }
+  }
+
+  @Test
+  public void testInMemoryMetrics() {
+    InMemoryMetrics metrics = Metrics.inMemory();
+    metrics.timer("save").record(10);
+    metrics.timer("save").record(20);
+    long[] depth = {3};
+    metrics.gauge("queueDepth", () -> depth[0]);
+    depth[0] = 5;
+
+    assertThat(metrics.getTimers().get("save").getCount(), is(2L));
+    assertThat(metrics.getGauges().get("queueDepth"), is(5L));
+  }
+
+  @Test
+  public void testClosedGaugeIsRemoved() {
+    InMemoryMetrics metrics = Metrics.inMemory();
+    Gauge replaced = metrics.gauge("queueDepth", () -> 1);
+    metrics.gauge("queueDepth", () -> 2);
+    replaced.close();
+    assertThat(metrics.getGauges().get("queueDepth"), is(2L));
+
+    Gauge other = metrics.gauge("inFlight", () -> 3);
+    other.close();
+    other.close();
+    assertThat(metrics.getGauges().containsKey("inFlight"), is(false));
+  }
+
+  @Test
+  public void testInstanceNames() {
+    String first = Metrics.instanceName("testInstanceNames");
+    String second = Metrics.instanceName("testInstanceNames");
+
+    assertThat(first, is("testInstanceNames-1"));
+    assertThat(second, is("testInstanceNames-2"));
+  }
+
+  @Test
+  public void testNoop() {
+    Timer timer = Metrics.noop().timer("save");
+    timer.stop(timer.start());
+
+    assertThat(timer.start(), is(0L));
+  }
+
+  private static boolean within(long actual, long expected) {
+    return Math.abs(actual - expected) <= expected / 8;
+  }
+
+}
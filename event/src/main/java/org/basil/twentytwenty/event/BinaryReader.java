@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Reads the binary form written by a {@link BinaryWriter} straight from a {@link ByteBuffer},
+ * which may be a view of a mapped file. A reader is meant to be reset and reused, so its scratch
+ * space for strings is reused too.
+ */
+public final class BinaryReader {
+
+  private ByteBuffer buffer;
+  private byte[] scratch = new byte[64];
+
+  public BinaryReader() {
+  }
+
+  public BinaryReader(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Starts reading the specified buffer, from its position to its limit.
+   *
+   * @param buffer to read
+   * @return this reader
+   */
+  public BinaryReader reset(ByteBuffer buffer) {
+    this.buffer = buffer;
+    return this;
+  }
+
+  public int remaining() {
+    return buffer.remaining();
+  }
+
+  public int readByte() {
+    return buffer.get();
+  }
+
+  public boolean readBoolean() {
+    return buffer.get() != 0;
+  }
+
+  public int readInt() {
+    return buffer.getInt();
+  }
+
+  public long readLong() {
+    return buffer.getLong();
+  }
+
+  public int readVarInt() {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IllegalStateException("Malformed variable-length int.");
+  }
+
+  public byte[] readBytes() {
+    byte[] bytes = new byte[readVarInt()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  public String readString() {
+    int length = readVarInt() - 1;
+    if (length < 0) {
+      return null;
+    }
+    if (buffer.hasArray()) {
+      String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+          StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+      return value;
+    }
+    if (length > scratch.length) {
+      scratch = new byte[Math.max(scratch.length << 1, length)];
+    }
+    buffer.get(scratch, 0, length);
+    return new String(scratch, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads an {@code Id.Uuid} written natively, wrap it in the ID type of the event. Reading the two
+   * halves with {@link #readLong()} instead and passing them to the ID's constructor saves the
+   * {@link UUID}.
+   *
+   * @return the UUID
+   */
+  public UUID readUuid() {
+    return new UUID(buffer.getLong(), buffer.getLong());
+  }
+
+  /**
+   * Reads an {@code Id.Order} written natively, wrap it in the ID type of the event.
+   *
+   * @return the order
+   */
+  public long readOrder() {
+    return buffer.getLong();
+  }
+
+  /**
+   * Reads an {@code Id.Token} written natively, wrap it in the ID type of the event.
+   *
+   * @return the token
+   */
+  public String readToken() {
+    return readString();
+  }
+
+  /**
+   * Returns an {@link InputStream} reading from this reader, for codecs built on streams.
+   *
+   * @return the input stream
+   */
+  public InputStream asInputStream() {
+    return new InputStream() {
+
+      @Override
+      public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) {
+        if (!buffer.hasRemaining()) {
+          return -1;
+        }
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+      }
+
+      @Override
+      public int available() {
+        return buffer.remaining();
+      }
+
+    };
+  }
+
+}
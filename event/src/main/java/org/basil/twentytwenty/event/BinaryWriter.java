@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.basil.twentytwenty.domain.Id;
+
+/**
+ * Writes the binary form of events into a growable buffer, which is meant to be reset and reused
+ * rather than allocated per event. Numbers are big-endian, IDs are written natively.
+ */
+public final class BinaryWriter {
+
+  private byte[] buffer;
+  private int size;
+
+  public BinaryWriter() {
+    this(256);
+  }
+
+  public BinaryWriter(int initialCapacity) {
+    buffer = new byte[initialCapacity];
+  }
+
+  /**
+   * Discards everything written so far, keeping the buffer.
+   *
+   * @return this writer
+   */
+  public BinaryWriter reset() {
+    size = 0;
+    return this;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, size);
+  }
+
+  public void writeTo(ByteBuffer target) {
+    target.put(buffer, 0, size);
+  }
+
+  public void writeByte(int value) {
+    ensureCapacity(1);
+    buffer[size++] = (byte) value;
+  }
+
+  public void writeBoolean(boolean value) {
+    writeByte(value ? 1 : 0);
+  }
+
+  public void writeInt(int value) {
+    ensureCapacity(4);
+    buffer[size++] = (byte) (value >>> 24);
+    buffer[size++] = (byte) (value >>> 16);
+    buffer[size++] = (byte) (value >>> 8);
+    buffer[size++] = (byte) value;
+  }
+
+  public void writeLong(long value) {
+    writeInt((int) (value >>> 32));
+    writeInt((int) value);
+  }
+
+  /**
+   * Writes a non-negative int in 1 to 5 bytes, the smaller the value the fewer the bytes.
+   *
+   * @param value to write
+   */
+  public void writeVarInt(int value) {
+    ensureCapacity(5);
+    while ((value & ~0x7F) != 0) {
+      buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[size++] = (byte) value;
+  }
+
+  public void writeBytes(byte[] bytes) {
+    writeVarInt(bytes.length);
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, size, bytes.length);
+    size += bytes.length;
+  }
+
+  /**
+   * Writes a string, which may be {@code null}, as UTF-8 without an intermediate byte array.
+   *
+   * @param value to write
+   */
+  public void writeString(String value) {
+    if (value == null) {
+      writeVarInt(0);
+      return;
+    }
+    int length = value.length();
+    int utf8Length = 0;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        utf8Length++;
+      } else if (c < 0x800) {
+        utf8Length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        utf8Length += 4;
+        i++;
+      } else {
+        utf8Length += 3;
+      }
+    }
+    writeVarInt(utf8Length + 1);
+    ensureCapacity(utf8Length);
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer[size++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[size++] = (byte) (0xC0 | (c >> 6));
+        buffer[size++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else {
+        // A lone surrogate is written as is, the way String.getBytes would replace it is lossy.
+        buffer[size++] = (byte) (0xE0 | (c >> 12));
+        buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[size++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  public void writeUuid(Id.Uuid id) {
+    writeLong(id.getMostSignificantBits());
+    writeLong(id.getLeastSignificantBits());
+  }
+
+  public void writeOrder(Id.Order id) {
+    writeLong(id.longValue());
+  }
+
+  public void writeToken(Id.Token id) {
+    writeString(id.toString());
+  }
+
+  /**
+   * Returns an {@link OutputStream} writing into this writer, for codecs built on streams.
+   *
+   * @return the output stream
+   */
+  public OutputStream asOutputStream() {
+    return new OutputStream() {
+
+      @Override
+      public void write(int b) {
+        writeByte(b);
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+      }
+
+    };
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (size + bytes > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + bytes));
+    }
+  }
+
+}
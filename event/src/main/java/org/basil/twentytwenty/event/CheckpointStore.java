@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event;
+
+/**
+ * The checkpoint store interface, keeping the position up to which each {@link Projection} has
+ * projected the global log.
+ */
+public interface CheckpointStore {
+
+  /**
+   * Loads the checkpoint of the named projection.
+   *
+   * @param name of the projection
+   * @return the position of the next event to project, {@code 0} if there is no checkpoint
+   */
+  long load(String name);
+
+  /**
+   * Saves the checkpoint of the named projection.
+   *
+   * @param name of the projection
+   * @param position of the next event to project
+   */
+  void save(String name, long position);
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event;
+
+import org.basil.twentytwenty.domain.Id;
+
+/**
+ * Thrown when events are appended to an {@code Aggregate} that has moved past the expected
+ * version, meaning someone else has appended to it in the meantime.
+ */
+public class ConcurrencyException extends RuntimeException {
+
+  private final Id<?> aggregateId;
+  private final int expectedVersion;
+  private final int actualVersion;
+
+  public ConcurrencyException(Id<?> aggregateId, int expectedVersion, int actualVersion) {
+    super("Expected " + aggregateId + " at version " + expectedVersion + " but it is at version "
+        + actualVersion + ".");
+    this.aggregateId = aggregateId;
+    this.expectedVersion = expectedVersion;
+    this.actualVersion = actualVersion;
+  }
+
+  public Id<?> getAggregateId() {
+    return aggregateId;
+  }
+
+  public int getExpectedVersion() {
+    return expectedVersion;
+  }
+
+  public int getActualVersion() {
+    return actualVersion;
+  }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+
+/**
+ * Turns events into bytes and back, for the event stores that keep events outside the heap.
+ */
+public interface EventCodec {
+
+  /**
+   * Encodes the specified event.
+   *
+   * @param event to encode
+   * @param writer to write the bytes to
+   */
+  void encode(DomainEvent<?> event, BinaryWriter writer);
+
+  /**
+   * Decodes an event.
+   *
+   * @param reader to read the bytes from
+   * @return the event
+   */
+  DomainEvent<?> decode(BinaryReader reader);
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.domain.Id;
+
+/**
+ * An event along with its position in the global log of an {@link EventStore}, the order in
+ * which the events of all the {@code Aggregate}s were appended. Positions start at 0 and have no
+ * gaps.
+ *
+ * <p>The envelope also tells the type, the {@code Aggregate}'s ID and the version of the event.
+ * A store reading the events from outside the heap fills these in from the record header and
+ * decodes the event itself only when {@link #getEvent()} is first called, so a reader looking for
+ * a few types of events skips the rest without decoding them.</p>
+ *
+ * @param <E> type of the event
+ */
+public class EventEnvelope<E extends DomainEvent<?>> {
+
+  public static <E extends DomainEvent<?>> EventEnvelope<E> of(long position, E event) {
+    return new EventEnvelope<>(position, event);
+  }
+
+  private final long position;
+  private final Id<?> aggregateId;
+  private final int version;
+  private final Class<?> eventType;
+  private final E event;
+
+  protected EventEnvelope(long position, E event) {
+    this(position, event.getId(), event.getVersion(), event.getClass(), event);
+  }
+
+  /**
+   * Creates the envelope of an event that is not decoded yet, the subclass decodes it in
+   * {@link #getEvent()}.
+   *
+   * @param position of the event in the global log
+   * @param aggregateId the ID of the {@code Aggregate}
+   * @param version of the event
+   * @param eventType the class of the event
+   */
+  protected EventEnvelope(long position, Id<?> aggregateId, int version, Class<?> eventType) {
+    this(position, aggregateId, version, eventType, null);
+  }
+
+  private EventEnvelope(long position, Id<?> aggregateId, int version, Class<?> eventType,
+      E event) {
+    this.position = position;
+    this.aggregateId = aggregateId;
+    this.version = version;
+    this.eventType = eventType;
+    this.event = event;
+  }
+
+  public long getPosition() {
+    return position;
+  }
+
+  public Id<?> getAggregateId() {
+    return aggregateId;
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  public Class<?> getEventType() {
+    return eventType;
+  }
+
+  /**
+   * Returns whether the event is of the specified type or one of its subtypes, without decoding
+   * it.
+   *
+   * @param type of events
+   * @return {@code true} if the event is one
+   */
+  public boolean isOf(Class<?> type) {
+    return type.isAssignableFrom(eventType);
+  }
+
+  public E getEvent() {
+    return event;
+  }
+
+  @Override
+  public String toString() {
+    return position + ":" + getEvent();
+  }
+
+}
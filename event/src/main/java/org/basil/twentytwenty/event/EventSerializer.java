@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+
+/**
+ * Writes and reads the fields of one type of event, registered to a binary {@link EventCodec}
+ * under a numeric type ID.
+ *
+ * @param <E> the type of events
+ */
+public interface EventSerializer<E extends DomainEvent<?>> {
+
+  /**
+   * Writes the fields of the specified event.
+   *
+   * @param event to write
+   * @param writer to write to
+   */
+  void write(E event, BinaryWriter writer);
+
+  /**
+   * Reads the fields written by {@link #write(DomainEvent, BinaryWriter)} into a new event.
+   *
+   * @param reader to read from
+   * @return the event
+   */
+  E read(BinaryReader reader);
+
+}
@@ -17,9 +17,18 @@ import org.basil.twentytwenty.domain.DomainEvent;
 import org.basil.twentytwenty.domain.Id;
 
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * The ({@code Aggregate}) event store interface.
+ *
+ * <p>The events of an {@code Aggregate} are kept in the order they are saved, which is expected to
+ * be their version order, the first event being version 1.</p>
+ *
+ * <p>A store may also keep a global log of the events of all the {@code Aggregate}s in the order
+ * they were appended, each event taking the next position, to be read with
+ * {@link #readAll(long)} or followed with {@link #subscribe(long, Consumer)}.</p>
  */
 public interface EventStore {
 
@@ -39,14 +48,104 @@ public interface EventStore {
    */
   <E extends DomainEvent> void save(Iterable<E> events);
 
+  /**
+   * Appends the specified events to the {@code Aggregate} of the specified ID, if the
+   * {@code Aggregate} is still at the expected version. Appends to different {@code Aggregate}s
+   * don't block each other.
+   *
+   * @param <E> type of the events
+   * @param <ID> type of the {@code Aggregate}'s ID
+   * @param aggregateId of the {@code Aggregate}
+   * @param expectedVersion of the {@code Aggregate}, 0 for a new one
+   * @param events to append, all of them from the {@code Aggregate}
+   * @throws ConcurrencyException if the {@code Aggregate} is not at the expected version
+   */
+  <E extends DomainEvent, ID extends Id> void append(ID aggregateId, int expectedVersion,
+      Iterable<E> events);
+
   /**
    * Finds the events from the {@code Aggregate} of the specified ID.
    *
-   * @param <E> type pf the events
+   * @param <E> type of the events
    * @param <ID> type of the {@code Aggregate}'s ID
    * @param aggregateId of the {@code Aggregate}
    * @return a {@link List} of events
    */
   <E extends DomainEvent, ID extends Id> List<E> find(ID aggregateId);
 
+  /**
+   * Finds the events from the {@code Aggregate} of the specified ID, starting from the specified
+   * version.
+   *
+   * @param <E> type of the events
+   * @param <ID> type of the {@code Aggregate}'s ID
+   * @param aggregateId of the {@code Aggregate}
+   * @param fromVersion of the first event to find
+   * @return a {@link List} of events
+   */
+  <E extends DomainEvent, ID extends Id> List<E> find(ID aggregateId, int fromVersion);
+
+  /**
+   * Reads the events from the {@code Aggregate} of the specified ID, from and to the specified
+   * versions, both inclusive. The events are pulled from the store as the {@link Stream} is
+   * consumed, so a long history can be read in constant memory and a partial read costs only the
+   * events it reads.
+   *
+   * <p>By default the events are found by {@link #find(Id, int)} first, the stores that can read
+   * them lazily override it.</p>
+   *
+   * @param <E> type of the events
+   * @param <ID> type of the {@code Aggregate}'s ID
+   * @param aggregateId of the {@code Aggregate}
+   * @param fromVersion of the first event to read
+   * @param toVersion of the last event to read, {@link Integer#MAX_VALUE} for the latest
+   * @return a {@link Stream} of events
+   */
+  default <E extends DomainEvent, ID extends Id> Stream<E> read(ID aggregateId, int fromVersion,
+      int toVersion) {
+    int from = Math.max(fromVersion, 1);
+    if (toVersion < from) {
+      return Stream.empty();
+    }
+    List<E> events = find(aggregateId, from);
+    return events.stream().limit((long) toVersion - from + 1);
+  }
+
+  /**
+   * Returns the position the next appended event will take in the global log, which is the number
+   * of events in the store.
+   *
+   * @return the head position of the global log
+   * @throws UnsupportedOperationException if the store does not keep a global log
+   */
+  default long getHeadPosition() {
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " has no global log.");
+  }
+
+  /**
+   * Reads the events of all the {@code Aggregate}s from the specified position of the global log
+   * up to its head, pulled from the store as the {@link Stream} is consumed.
+   *
+   * @param fromPosition of the first event to read
+   * @return a {@link Stream} of events along with their positions
+   * @throws UnsupportedOperationException if the store does not keep a global log
+   */
+  default Stream<EventEnvelope<?>> readAll(long fromPosition) {
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " has no global log.");
+  }
+
+  /**
+   * Subscribes to the global log from the specified position. The subscriber is called on a
+   * thread of the subscription, and the subscription stops if the subscriber throws.
+   *
+   * @param fromPosition of the first event to deliver, 0 for the whole history
+   * @param subscriber to deliver the events to
+   * @return the subscription
+   * @throws UnsupportedOperationException if the store does not keep a global log
+   */
+  default EventSubscription subscribe(long fromPosition,
+      Consumer<? super EventEnvelope<?>> subscriber) {
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " has no global log.");
+  }
+
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event;
+
+/**
+ * A subscription to the global log of an {@link EventStore}, delivering the events from a
+ * position onwards: first the history as fast as it can be read, then the new events as they are
+ * appended. Every event is delivered once, in position order.
+ */
+public interface EventSubscription extends AutoCloseable {
+
+  /**
+   * Returns the position of the next event to deliver.
+   *
+   * @return the position of the next event to deliver
+   */
+  long getPosition();
+
+  /**
+   * Returns whether the subscription has caught up with the head of the log and waits for new
+   * events.
+   *
+   * @return whether the subscription is live
+   */
+  boolean isLive();
+
+  /**
+   * Stops delivering events, an event being delivered is delivered in full.
+   */
+  @Override
+  void close();
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event;
+
+import java.util.List;
+
+/**
+ * A read model built from the global log of an {@link EventStore}, run by a projection engine
+ * which remembers how far it got in a {@link CheckpointStore}.
+ *
+ * <p>The events are handed over in batches, in position order. A batch is only checkpointed
+ * after it's projected, so a batch may be projected again after a crash and projecting has to be
+ * idempotent. A rebuild hands over the batches of different {@code Aggregate}s from several
+ * threads at once, the events of each {@code Aggregate} still come in order.</p>
+ */
+public interface Projection {
+
+  /**
+   * Returns the name of the projection, its checkpoint is saved under it.
+   *
+   * @return the name of the projection
+   */
+  String getName();
+
+  /**
+   * Projects a batch of events.
+   *
+   * @param batch of events, in position order
+   */
+  void project(List<EventEnvelope<?>> batch);
+
+  /**
+   * Drops the read model before it's rebuilt from the start of the log. Does nothing by default.
+   */
+  default void reset() {
+  }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event;
+
+import java.io.Serializable;
+
+import org.basil.twentytwenty.domain.Id;
+
+/**
+ * A snapshot of the state of an {@code Aggregate} at a certain version, so the {@code Aggregate}
+ * can be loaded without replaying the events up to that version.
+ */
+public class Snapshot implements Serializable {
+
+  private final Id<?> aggregateId;
+  private final int version;
+  private final Serializable state;
+
+  public Snapshot(Id<?> aggregateId, int version, Serializable state) {
+    this.aggregateId = aggregateId;
+    this.version = version;
+    this.state = state;
+  }
+
+  public Id<?> getAggregateId() {
+    return aggregateId;
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  public Serializable getState() {
+    return state;
+  }
+
+}
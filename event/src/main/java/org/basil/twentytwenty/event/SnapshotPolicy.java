@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when to take a snapshot of an {@code Aggregate}, this is asked every time an
+ * {@code Aggregate} is loaded.
+ */
+public interface SnapshotPolicy {
+
+  /**
+   * Never takes snapshots.
+   *
+   * @return the policy
+   */
+  static SnapshotPolicy never() {
+    return (eventsSinceSnapshot, replayNanos) -> false;
+  }
+
+  /**
+   * Takes a snapshot once the specified number of events are replayed after the last snapshot.
+   *
+   * @param events since the last snapshot
+   * @return the policy
+   */
+  static SnapshotPolicy everyEvents(int events) {
+    return (eventsSinceSnapshot, replayNanos) -> eventsSinceSnapshot >= events;
+  }
+
+  /**
+   * Takes a snapshot once replaying the events after the last snapshot takes longer than the
+   * specified duration.
+   *
+   * @param duration of the replay
+   * @param unit of the duration
+   * @return the policy
+   */
+  static SnapshotPolicy replayExceeds(long duration, TimeUnit unit) {
+    long nanos = unit.toNanos(duration);
+    return (eventsSinceSnapshot, replayNanos) -> replayNanos > nanos;
+  }
+
+  /**
+   * Returns whether a snapshot should be taken.
+   *
+   * @param eventsSinceSnapshot the number of events replayed after the last snapshot
+   * @param replayNanos the time it took to replay them
+   * @return {@code true} if a snapshot should be taken
+   */
+  boolean shouldSnapshot(int eventsSinceSnapshot, long replayNanos);
+
+  /**
+   * Returns a policy that takes a snapshot when either this or the other policy would.
+   *
+   * @param other policy
+   * @return the combined policy
+   */
+  default SnapshotPolicy or(SnapshotPolicy other) {
+    return (eventsSinceSnapshot, replayNanos) ->
+        shouldSnapshot(eventsSinceSnapshot, replayNanos)
+            || other.shouldSnapshot(eventsSinceSnapshot, replayNanos);
+  }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event;
+
+import java.util.Optional;
+
+import org.basil.twentytwenty.domain.Id;
+
+/**
+ * The ({@code Aggregate}) snapshot store interface.
+ */
+public interface SnapshotStore {
+
+  /**
+   * Saves the specified snapshot.
+   *
+   * @param snapshot to save
+   */
+  void save(Snapshot snapshot);
+
+  /**
+   * Finds the newest snapshot of the {@code Aggregate} of the specified ID.
+   *
+   * @param <ID> type of the {@code Aggregate}'s ID
+   * @param aggregateId of the {@code Aggregate}
+   * @return the newest snapshot, if there is one
+   */
+  <ID extends Id<?>> Optional<Snapshot> findLatest(ID aggregateId);
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells the subscriptions of an event store when the head of its global log moves. Advancing
+ * costs a volatile write, and a lock only if somebody is waiting.
+ */
+final class AppendNotifier {
+
+  private volatile long head;
+  private volatile int waiters;
+
+  AppendNotifier(long head) {
+    this.head = head;
+  }
+
+  long getHead() {
+    return head;
+  }
+
+  /**
+   * Moves the head, the events below it must be readable by then.
+   */
+  void advance(long head) {
+    this.head = head;
+    if (waiters > 0) {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Wakes up everybody waiting, to check whether they should stop.
+   */
+  synchronized void wakeUp() {
+    notifyAll();
+  }
+
+  /**
+   * Waits until the head is beyond the specified position, the timeout elapses or somebody wakes
+   * the waiters up.
+   *
+   * @return whether the head is beyond the position
+   */
+  boolean awaitBeyond(long position, long timeout, TimeUnit unit) throws InterruptedException {
+    if (head > position) {
+      return true;
+    }
+    synchronized (this) {
+      waiters++;
+      try {
+        if (head <= position) {
+          unit.timedWait(this, timeout);
+        }
+        return head > position;
+      } finally {
+        waiters--;
+      }
+    }
+  }
+
+}
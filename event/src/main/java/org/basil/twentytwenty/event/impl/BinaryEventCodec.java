@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.event.BinaryReader;
+import org.basil.twentytwenty.event.BinaryWriter;
+import org.basil.twentytwenty.event.EventCodec;
+
+/**
+ * Encodes an event as its type ID followed by the fields its {@code EventSerializer} writes, so
+ * there are no class descriptors and no reflection on either side.
+ */
+public class BinaryEventCodec implements EventCodec {
+
+  public static BinaryEventCodec of(EventTypeRegistry registry) {
+    return new BinaryEventCodec(registry);
+  }
+
+  private final EventTypeRegistry registry;
+
+  BinaryEventCodec(EventTypeRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public void encode(DomainEvent<?> event, BinaryWriter writer) {
+    EventTypeRegistry.Registration<DomainEvent<?>> registration = registry.get(event.getClass());
+    writer.writeVarInt(registration.typeId);
+    registration.serializer.write(event, writer);
+  }
+
+  @Override
+  public DomainEvent<?> decode(BinaryReader reader) {
+    return registry.get(reader.readVarInt()).serializer.read(reader);
+  }
+
+}
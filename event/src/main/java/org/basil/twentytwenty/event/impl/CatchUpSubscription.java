@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.basil.twentytwenty.event.EventEnvelope;
+import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.EventSubscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * An {@link EventSubscription} reading the global log of an event store on its own thread.
+ *
+ * <p>The subscription reads everything up to the head, then waits for the head to move and reads
+ * again from where it stopped. Catching up and following the live events are the same read from
+ * the next position, so there is nothing to switch over and no event can be missed or delivered
+ * twice.</p>
+ */
+final class CatchUpSubscription implements EventSubscription {
+
+  private static final long POLL_MILLIS = 100;
+
+  private static final Logger logger = LoggerFactory.getLogger(CatchUpSubscription.class);
+
+  static EventSubscription start(EventStore eventStore, AppendNotifier appendNotifier,
+      long fromPosition, Consumer<? super EventEnvelope<?>> subscriber) {
+    CatchUpSubscription subscription =
+        new CatchUpSubscription(eventStore, appendNotifier, fromPosition, subscriber);
+    subscription.reader.start();
+    return subscription;
+  }
+
+  private final EventStore eventStore;
+  private final AppendNotifier appendNotifier;
+  private final Consumer<? super EventEnvelope<?>> subscriber;
+  private final Thread reader;
+
+  private volatile long position;
+  private volatile boolean live;
+  private volatile boolean closed;
+
+  private CatchUpSubscription(EventStore eventStore, AppendNotifier appendNotifier,
+      long fromPosition, Consumer<? super EventEnvelope<?>> subscriber) {
+    this.eventStore = eventStore;
+    this.appendNotifier = appendNotifier;
+    this.position = Math.max(fromPosition, 0);
+    this.subscriber = subscriber;
+    this.reader = new Thread(this::read, "eventSubscription-" + fromPosition);
+    this.reader.setDaemon(true);
+  }
+
+  @Override
+  public long getPosition() {
+    return position;
+  }
+
+  @Override
+  public boolean isLive() {
+    return live;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    if (Thread.currentThread() != reader) {
+      // Not interrupted, the subscriber may be writing to a FileChannel an interrupt would close.
+      appendNotifier.wakeUp();
+      Uninterruptibles.joinUninterruptibly(reader);
+    }
+  }
+
+  private void read() {
+    try {
+      while (!closed) {
+        if (position < appendNotifier.getHead()) {
+          live = false;
+          deliverUpToHead();
+        } else {
+          live = true;
+          appendNotifier.awaitBeyond(position, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      logger.error("Subscription stopped at position {}.", position, e);
+      closed = true;
+    }
+  }
+
+  private void deliverUpToHead() {
+    try (Stream<EventEnvelope<?>> envelopes = eventStore.readAll(position)) {
+      Iterator<EventEnvelope<?>> iterator = envelopes.iterator();
+      while (!closed && iterator.hasNext()) {
+        EventEnvelope<?> envelope = iterator.next();
+        subscriber.accept(envelope);
+        position = envelope.getPosition() + 1;
+      }
+    }
+  }
+
+}
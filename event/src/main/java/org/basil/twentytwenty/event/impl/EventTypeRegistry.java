@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.event.EventSerializer;
+
+/**
+ * The event types known to a {@link BinaryEventCodec}, each with a numeric type ID that is
+ * written in place of its class name. A type ID must never be reused for another type once events
+ * are written with it.
+ */
+public class EventTypeRegistry {
+
+  private static final int MAX_TYPE_ID = 0xFFFF;
+
+  public static EventTypeRegistry create() {
+    return new EventTypeRegistry();
+  }
+
+  private final Map<Class<?>, Registration<?>> byType = new ConcurrentHashMap<>();
+
+  /**
+   * Indexed by type ID, replaced on every registration so reads need no locking.
+   */
+  private volatile Registration<?>[] byTypeId = new Registration<?>[16];
+
+  EventTypeRegistry() {
+  }
+
+  /**
+   * Registers the serializer of an event type under the specified type ID.
+   *
+   * @param typeId written in place of the class name, small IDs take fewer bytes
+   * @param type of the events
+   * @param serializer of the events
+   * @return this registry
+   */
+  public synchronized <E extends DomainEvent<?>> EventTypeRegistry register(int typeId,
+      Class<E> type, EventSerializer<E> serializer) {
+    checkArgument(typeId >= 0 && typeId <= MAX_TYPE_ID, "Type ID %s is out of range.", typeId);
+    checkArgument(!byType.containsKey(type), "%s is already registered.", type);
+    Registration<?>[] registrations = byTypeId;
+    checkArgument(typeId >= registrations.length || registrations[typeId] == null,
+        "Type ID %s is already taken by %s.", typeId,
+        typeId < registrations.length && registrations[typeId] != null
+            ? registrations[typeId].type : null);
+
+    Registration<E> registration = new Registration<>(typeId, type, serializer);
+    registrations = Arrays.copyOf(registrations, Math.max(registrations.length, typeId + 1));
+    registrations[typeId] = registration;
+    byType.put(type, registration);
+    byTypeId = registrations;
+    return this;
+  }
+
+  @SuppressWarnings("unchecked")
+  <E extends DomainEvent<?>> Registration<E> get(Class<?> type) {
+    Registration<E> registration = (Registration<E>) byType.get(type);
+    checkArgument(registration != null, "%s is not registered.", type);
+    return registration;
+  }
+
+  Registration<?> get(int typeId) {
+    Registration<?>[] registrations = byTypeId;
+    checkArgument(typeId >= 0 && typeId < registrations.length && registrations[typeId] != null,
+        "Type ID %s is not registered.", typeId);
+    return registrations[typeId];
+  }
+
+  static final class Registration<E extends DomainEvent<?>> {
+
+    final int typeId;
+    final Class<E> type;
+    final EventSerializer<E> serializer;
+
+    Registration(int typeId, Class<E> type, EventSerializer<E> serializer) {
+      this.typeId = typeId;
+      this.type = type;
+      this.serializer = serializer;
+    }
+
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Pattern;
+
+import org.basil.twentytwenty.event.CheckpointStore;
+
+/**
+ * A durable checkpoint store keeping each checkpoint in a file of its own.
+ *
+ * <p>A checkpoint is written to a temporary file, forced to the disk and then moved over the
+ * previous one, so a crash leaves either the old or the new checkpoint behind and never a torn
+ * one.</p>
+ */
+public class FileCheckpointStore implements CheckpointStore {
+
+  static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+  private static final Pattern NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+  public static CheckpointStore open(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    return new FileCheckpointStore(directory);
+  }
+
+  private final Path directory;
+
+  FileCheckpointStore(Path directory) {
+    this.directory = directory;
+  }
+
+  @Override
+  public long load(String name) {
+    try {
+      byte[] bytes = Files.readAllBytes(file(name));
+      return ByteBuffer.wrap(bytes).getLong();
+    } catch (NoSuchFileException e) {
+      return 0;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void save(String name, long position) {
+    Path file = file(name);
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, position);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(false);
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Path file(String name) {
+    checkArgument(NAME.matcher(name).matches(), "%s is not a valid checkpoint name.", name);
+    return directory.resolve(name + CHECKPOINT_SUFFIX);
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.event.EventHandler;
+import org.basil.twentytwenty.metrics.Metrics;
+import org.basil.twentytwenty.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.reflect.TypeToken;
+
+/**
+ * The {@link EventHandler}s registered to a publisher, looked up by the class of the event.
+ *
+ * <p>The type of events a handler takes is resolved from its type argument once, when it's
+ * registered, a handler without one (a lambda for instance) takes every event. The handlers of an
+ * event class are then cached until the next registration, so dispatching an event is a map
+ * lookup and a loop over an array.</p>
+ *
+ * <p>Every handler is timed, reported to the global {@link Metrics} as
+ * {@code eventHandler.<handler class>}.</p>
+ */
+final class HandlerRegistry {
+
+  private final Logger logger = LoggerFactory.getLogger(HandlerRegistry.class);
+
+  private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+  /**
+   * Replaced on every registration, so a lookup racing it can't cache stale handlers for good.
+   */
+  private volatile ConcurrentMap<Class<?>, Registration[]> handlersByEventType =
+      new ConcurrentHashMap<>();
+
+  synchronized void register(EventHandler<?> eventHandler) {
+    registrations.add(new Registration(eventHandler, eventTypeOf(eventHandler)));
+    handlersByEventType = new ConcurrentHashMap<>();
+  }
+
+  synchronized void unregister(EventHandler<?> eventHandler) {
+    registrations.removeIf(registration -> registration.eventHandler == eventHandler);
+    handlersByEventType = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Hands the event to every handler taking it. A failing handler is logged and doesn't keep the
+   * event from the others.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  void dispatch(DomainEvent<?> event) {
+    for (Registration registration : handlersOf(event.getClass())) {
+      long start = registration.timer.start();
+      try {
+        ((EventHandler) registration.eventHandler).handle(event);
+      } catch (RuntimeException e) {
+        logger.error("{} failed to handle {}.", registration.eventHandler, event, e);
+      } finally {
+        registration.timer.stop(start);
+      }
+    }
+  }
+
+  private Registration[] handlersOf(Class<?> eventType) {
+    return handlersByEventType.computeIfAbsent(eventType, type -> registrations.stream()
+        .filter(registration -> registration.eventType.isAssignableFrom(type))
+        .toArray(Registration[]::new));
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Class<?> eventTypeOf(EventHandler<?> eventHandler) {
+    Type type = TypeToken.of(eventHandler.getClass()).getSupertype((Class) EventHandler.class)
+        .getType();
+    if (type instanceof ParameterizedType) {
+      return TypeToken.of(((ParameterizedType) type).getActualTypeArguments()[0]).getRawType();
+    }
+    return DomainEvent.class;
+  }
+
+  private static final class Registration {
+
+    private final EventHandler<?> eventHandler;
+    private final Class<?> eventType;
+    private final Timer timer;
+
+    private Registration(EventHandler<?> eventHandler, Class<?> eventType) {
+      this.eventHandler = eventHandler;
+      this.eventType = eventType;
+      this.timer = Metrics.global().timer("eventHandler." + eventHandler.getClass().getName());
+    }
+
+  }
+
+}
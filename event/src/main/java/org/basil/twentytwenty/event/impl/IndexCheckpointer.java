@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.impl.SegmentedFileEventStore.Head;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Saves the index checkpoints of a {@link SegmentedFileEventStore} off its writer thread.
+ *
+ * <p>The writer hands over a {@link Delta} of what changed since its last checkpoint: the types
+ * and the {@code Aggregate}s numbered since, and the heads of the {@code Aggregate}s that got
+ * events. The deltas are appended to an index log, and the checkpoint file, small and of a fixed
+ * size, is moved over the previous one to tell how much of the log is valid. Once the log holds
+ * more than {@value #COMPACTION_FACTOR} heads per {@code Aggregate}, it's compacted into a new
+ * generation holding a single head per {@code Aggregate}, so the cost of a checkpoint is bounded
+ * by what changed, and the log by the number of {@code Aggregate}s.</p>
+ *
+ * <p>A checkpoint covers events which are on the disk already, the position index is forced
+ * before the checkpoint file is written, and the directory is forced once it's moved. A failed
+ * checkpoint is not fatal, its delta is merged into the next one.</p>
+ */
+final class IndexCheckpointer implements Closeable {
+
+  static final String CHECKPOINT_FILE = "index.checkpoint";
+
+  private static final String LOG_FILE_FORMAT = "index.%d.log";
+  private static final String LOG_FILE_GLOB = "index.*.log";
+  private static final int CHECKPOINT_FORMAT = 3;
+  private static final int COMPACTION_FACTOR = 4;
+
+  private final Logger logger = LoggerFactory.getLogger(IndexCheckpointer.class);
+
+  private final Path directory;
+  private final PositionIndex positionIndex;
+  private final ExecutorService executor;
+
+  /*
+   * The state of the saved checkpoint, only touched by the executor once the store is open.
+   */
+  private long generation = -1;
+  private long logLength;
+  private int logHeads;
+  private int aggregateCount;
+  private long savedPosition;
+
+  /**
+   * The deltas handed over since the saved checkpoint, if the last one failed.
+   */
+  private Delta unsaved;
+
+  IndexCheckpointer(Path directory, PositionIndex positionIndex) {
+    this.directory = directory;
+    this.positionIndex = positionIndex;
+    this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("indexCheckpointer-" + directory.getFileName() + "-%d")
+        .setDaemon(true)
+        .build());
+  }
+
+  /**
+   * Reads the saved checkpoint, without resuming from it.
+   *
+   * @return the checkpoint, or {@code null} if there is none
+   * @throws IOException if the checkpoint or its log can't be read
+   * @throws ClassNotFoundException if a type or an {@code Aggregate} ID can't be read
+   */
+  Checkpoint load() throws IOException, ClassNotFoundException {
+    Path file = directory.resolve(CHECKPOINT_FILE);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    Checkpoint checkpoint;
+    try (ObjectInputStream input =
+        new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (input.readInt() != CHECKPOINT_FORMAT) {
+        throw new IOException("Unknown index checkpoint format.");
+      }
+      checkpoint = new Checkpoint(input.readLong(), input.readLong(), input.readLong(),
+          input.readLong(), input.readInt());
+    }
+    checkpoint.index = readLog(checkpoint.generation, checkpoint.logLength);
+    return checkpoint;
+  }
+
+  /**
+   * Appends the next deltas to the log of the checkpoint.
+   */
+  void resume(Checkpoint checkpoint) {
+    generation = checkpoint.generation;
+    logLength = checkpoint.logLength;
+    logHeads = checkpoint.logHeads;
+    aggregateCount = checkpoint.index.aggregateCount();
+    savedPosition = checkpoint.position;
+  }
+
+  /**
+   * Saves a checkpoint asynchronously.
+   *
+   * @param position the position of the next event, all the events before it must be on the disk
+   * @param tailAddress the address the records after the checkpoint start at
+   * @param delta what changed since the last checkpoint handed over
+   */
+  void save(long position, long tailAddress, Delta delta) {
+    executor.execute(() -> write(position, tailAddress, delta));
+  }
+
+  /**
+   * Waits for the checkpoints handed over to be saved.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    while (!Uninterruptibles.awaitTerminationUninterruptibly(executor, 1, TimeUnit.MINUTES)) {
+      logger.warn("Still waiting for the index checkpoints of {}.", directory);
+    }
+  }
+
+  private void write(long position, long tailAddress, Delta delta) {
+    if (unsaved != null) {
+      unsaved.merge(delta);
+      delta = unsaved;
+    }
+    unsaved = delta;
+    aggregateCount = Math.max(aggregateCount, delta.aggregateCount());
+    try {
+      positionIndex.force(savedPosition / SegmentedFileEventStore.POSITION_INTERVAL);
+      boolean compact = generation < 0
+          || logHeads + delta.heads.size() > COMPACTION_FACTOR * aggregateCount;
+      long nextGeneration = generation;
+      long nextLength;
+      int nextHeads;
+      if (compact) {
+        Delta index = generation < 0 ? new Delta() : readLog(generation, logLength);
+        index.merge(delta);
+        nextGeneration = generation + 1;
+        nextLength = append(nextGeneration, 0, index);
+        nextHeads = index.heads.size();
+      } else {
+        nextLength = append(generation, logLength, delta);
+        nextHeads = logHeads + delta.heads.size();
+      }
+      writeCheckpoint(new Checkpoint(position, tailAddress, nextGeneration, nextLength,
+          nextHeads));
+      if (compact) {
+        deleteOtherLogs(nextGeneration);
+      }
+      generation = nextGeneration;
+      logLength = nextLength;
+      logHeads = nextHeads;
+      savedPosition = position;
+      unsaved = null;
+    } catch (IOException | ClassNotFoundException | RuntimeException e) {
+      logger.warn("Failed to checkpoint the index of {}.", directory, e);
+    }
+  }
+
+  /**
+   * Writes a delta at the specified offset of a log, past its valid length if the last append
+   * failed.
+   *
+   * @return the valid length of the log once the delta is appended
+   */
+  private long append(long generation, long offset, Delta delta) throws IOException {
+    byte[] bytes = delta.toByteArray();
+    ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+    frame.putInt(bytes.length).put(bytes).flip();
+    try (FileChannel channel = FileChannel.open(logFile(generation),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      long position = offset;
+      while (frame.hasRemaining()) {
+        position += channel.write(frame, position);
+      }
+      channel.truncate(position);
+      channel.force(false);
+      return position;
+    }
+  }
+
+  private void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+    Path file = directory.resolve(CHECKPOINT_FILE);
+    Path temporary = file.resolveSibling(CHECKPOINT_FILE + ".tmp");
+    try (FileOutputStream stream = new FileOutputStream(temporary.toFile());
+        ObjectOutputStream output = new ObjectOutputStream(stream)) {
+      output.writeInt(CHECKPOINT_FORMAT);
+      output.writeLong(checkpoint.position);
+      output.writeLong(checkpoint.tailAddress);
+      output.writeLong(checkpoint.generation);
+      output.writeLong(checkpoint.logLength);
+      output.writeInt(checkpoint.logHeads);
+      output.flush();
+      stream.getFD().sync();
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    // The move itself is only durable once the directory is forced.
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+  }
+
+  private Delta readLog(long generation, long length) throws IOException, ClassNotFoundException {
+    Delta index = new Delta();
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile(generation))))) {
+      for (long read = 0; read < length; ) {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        index.merge(Delta.fromByteArray(bytes));
+        read += Integer.BYTES + bytes.length;
+      }
+    } catch (EOFException e) {
+      throw new IOException("Index log " + logFile(generation) + " is shorter than " + length
+          + " bytes.", e);
+    }
+    return index;
+  }
+
+  /**
+   * Deletes the logs of the previous generations, or left behind by a failed compaction.
+   */
+  private void deleteOtherLogs(long generation) throws IOException {
+    Path current = logFile(generation);
+    try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, LOG_FILE_GLOB)) {
+      for (Path log : logs) {
+        if (!log.equals(current)) {
+          Files.delete(log);
+        }
+      }
+    }
+  }
+
+  private Path logFile(long generation) {
+    return directory.resolve(String.format(LOG_FILE_FORMAT, generation));
+  }
+
+  /**
+   * A saved checkpoint, and the index it holds once loaded.
+   */
+  static final class Checkpoint {
+
+    final long position;
+    final long tailAddress;
+    private final long generation;
+    private final long logLength;
+    private final int logHeads;
+    private Delta index;
+
+    private Checkpoint(long position, long tailAddress, long generation, long logLength,
+        int logHeads) {
+      this.position = position;
+      this.tailAddress = tailAddress;
+      this.generation = generation;
+      this.logLength = logLength;
+      this.logHeads = logHeads;
+    }
+
+    Delta getIndex() {
+      return index;
+    }
+
+  }
+
+  /**
+   * The types and the {@code Aggregate}s by number, and the heads of the {@code Aggregate}s by
+   * their number, later ones replacing earlier ones when merged.
+   */
+  static final class Delta {
+
+    final Map<Integer, Class<?>> types = Maps.newHashMap();
+    final Map<Integer, Id> aggregates = Maps.newHashMap();
+    final Map<Integer, Head> heads = Maps.newHashMap();
+
+    void merge(Delta later) {
+      types.putAll(later.types);
+      aggregates.putAll(later.aggregates);
+      heads.putAll(later.heads);
+    }
+
+    private int aggregateCount() {
+      return aggregates.keySet().stream().mapToInt(number -> number + 1).max().orElse(0);
+    }
+
+    private byte[] toByteArray() throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+        for (Map.Entry<Integer, Class<?>> type : types.entrySet()) {
+          output.writeInt(type.getKey());
+          output.writeObject(type.getValue());
+        }
+        output.writeInt(-1);
+        for (Map.Entry<Integer, Id> aggregate : aggregates.entrySet()) {
+          output.writeInt(aggregate.getKey());
+          output.writeObject(aggregate.getValue());
+        }
+        output.writeInt(-1);
+        for (Head head : heads.values()) {
+          output.writeInt(head.number);
+          output.writeLong(head.address);
+          output.writeInt(head.count);
+        }
+        output.writeInt(-1);
+      }
+      return bytes.toByteArray();
+    }
+
+    private static Delta fromByteArray(byte[] bytes) throws IOException, ClassNotFoundException {
+      Delta delta = new Delta();
+      try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+        for (int number = input.readInt(); number >= 0; number = input.readInt()) {
+          delta.types.put(number, (Class<?>) input.readObject());
+        }
+        for (int number = input.readInt(); number >= 0; number = input.readInt()) {
+          delta.aggregates.put(number, (Id) input.readObject());
+        }
+        for (int number = input.readInt(); number >= 0; number = input.readInt()) {
+          delta.heads.put(number, new Head(number, input.readLong(), input.readInt()));
+        }
+      }
+      return delta;
+    }
+
+  }
+
+}
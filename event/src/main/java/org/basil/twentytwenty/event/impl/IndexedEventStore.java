@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.ConcurrencyException;
+import org.basil.twentytwenty.event.EventEnvelope;
+import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.EventSubscription;
+import org.basil.twentytwenty.metrics.Metrics;
+import org.basil.twentytwenty.metrics.Timer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * An in-memory event store that keeps an append-only stream per {@code Aggregate}.
+ *
+ * <p>Unlike {@link SimpleEventStore}, finding the events of an {@code Aggregate} does not scan the
+ * whole store. The streams are indexed by the {@code Aggregate}'s ID, so {@link #find(Id)} only
+ * costs as much as the events of that {@code Aggregate}, and the events are returned in the order
+ * they were appended, which is the version order.</p>
+ *
+ * <p>Each stream guards itself, appends to different {@code Aggregate}s only meet briefly to take
+ * their positions in the global log, which is kept as one more stream. Saving a batch of events
+ * appends the events of each {@code Aggregate} at once.</p>
+ */
+public class IndexedEventStore implements EventStore {
+
+  public static EventStore inMemory() {
+    return new IndexedEventStore(new ConcurrentHashMap<>());
+  }
+
+  private static final int ANY_VERSION = -1;
+
+  private final ConcurrentMap<Id, EventStream> streams;
+  private final EventStream log = new EventStream();
+  private final AppendNotifier appendNotifier = new AppendNotifier(0);
+  private final Timer saveTimer = Metrics.global().timer("eventStore.save");
+  private final Timer findTimer = Metrics.global().timer("eventStore.find");
+
+  IndexedEventStore(ConcurrentMap<Id, EventStream> streams) {
+    this.streams = streams;
+  }
+
+  @Override
+  public <E extends DomainEvent> void save(E event) {
+    append(event.getId(), ANY_VERSION, Collections.singletonList(event));
+  }
+
+  @Override
+  public <E extends DomainEvent> void save(Iterable<E> events) {
+    Map<Id, List<DomainEvent>> batches = Maps.newLinkedHashMap();
+    events.forEach(event ->
+        batches.computeIfAbsent(event.getId(), id -> Lists.newArrayList()).add(event));
+    batches.forEach((aggregateId, batch) -> append(aggregateId, ANY_VERSION, batch));
+  }
+
+  @Override
+  public <E extends DomainEvent, ID extends Id> void append(ID aggregateId, int expectedVersion,
+      Iterable<E> events) {
+    List<DomainEvent> batch = Lists.newArrayList();
+    events.forEach(event -> {
+      checkArgument(event.getId().equals(aggregateId), "%s is not from %s.", event, aggregateId);
+      batch.add(event);
+    });
+    append(aggregateId, expectedVersion, batch);
+  }
+
+  @Override
+  public <E extends DomainEvent, ID extends Id> List<E> find(ID aggregateId) {
+    return find(aggregateId, 1);
+  }
+
+  @Override
+  public <E extends DomainEvent, ID extends Id> List<E> find(ID aggregateId, int fromVersion) {
+    EventStream stream = streams.get(aggregateId);
+    if (stream == null) {
+      return Lists.newArrayList();
+    }
+    long start = findTimer.start();
+    List<E> found = stream.toList(fromVersion);
+    findTimer.stop(start);
+    return found;
+  }
+
+  @Override
+  public <E extends DomainEvent, ID extends Id> Stream<E> read(ID aggregateId, int fromVersion,
+      int toVersion) {
+    EventStream stream = streams.get(aggregateId);
+    if (stream == null) {
+      return Stream.empty();
+    }
+    return stream.read(fromVersion, toVersion);
+  }
+
+  @Override
+  public long getHeadPosition() {
+    return appendNotifier.getHead();
+  }
+
+  @Override
+  public Stream<EventEnvelope<?>> readAll(long fromPosition) {
+    return log.envelopes(fromPosition);
+  }
+
+  @Override
+  public EventSubscription subscribe(long fromPosition,
+      Consumer<? super EventEnvelope<?>> subscriber) {
+    return CatchUpSubscription.start(this, appendNotifier, fromPosition, subscriber);
+  }
+
+  /**
+   * Appends the batch to the stream of the {@code Aggregate} and to the global log. The positions
+   * are taken while the stream is locked, so the global log has the events of an
+   * {@code Aggregate} in version order too.
+   */
+  private void append(Id aggregateId, int expectedVersion, List<DomainEvent> batch) {
+    EventStream stream = streams.computeIfAbsent(aggregateId, id -> new EventStream());
+    long start = saveTimer.start();
+    synchronized (stream) {
+      int actualVersion = stream.size();
+      if (expectedVersion != ANY_VERSION && actualVersion != expectedVersion) {
+        throw new ConcurrencyException(aggregateId, expectedVersion, actualVersion);
+      }
+      // The stream first, so a subscriber handed an event can already find it.
+      stream.append(batch);
+      synchronized (log) {
+        log.append(batch);
+        appendNotifier.advance(log.size());
+      }
+    }
+    saveTimer.stop(start);
+  }
+
+  /**
+   * The append-only event stream of a single {@code Aggregate}.
+   */
+  static class EventStream {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private DomainEvent[] events = new DomainEvent[INITIAL_CAPACITY];
+    private int size;
+
+    synchronized int size() {
+      return size;
+    }
+
+    synchronized void append(List<DomainEvent> batch) {
+      if (size + batch.size() > events.length) {
+        events = Arrays.copyOf(events, Math.max(size << 1, size + batch.size()));
+      }
+      for (DomainEvent event : batch) {
+        events[size++] = event;
+      }
+    }
+
+    /**
+     * Streams the events straight from the array, the events below the size never change and a
+     * grown stream gets a new array.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <E extends DomainEvent> Stream<E> read(int fromVersion, int toVersion) {
+      int from = Math.max(fromVersion - 1, 0);
+      int to = Math.min(toVersion, size);
+      if (to <= from) {
+        return Stream.empty();
+      }
+      return (Stream<E>) Arrays.stream(events, from, to);
+    }
+
+    /**
+     * Streams the events along with their indexes, which are their positions in the global log.
+     */
+    synchronized Stream<EventEnvelope<?>> envelopes(long fromPosition) {
+      DomainEvent[] events = this.events;
+      return IntStream.range((int) Math.min(Math.max(fromPosition, 0), size), size)
+          .mapToObj(position -> EventEnvelope.of(position, events[position]));
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized <E extends DomainEvent> List<E> toList(int fromVersion) {
+      int from = Math.max(fromVersion - 1, 0);
+      List<E> list = Lists.newArrayListWithCapacity(Math.max(size - from, 0));
+      for (int i = from; i < size; i++) {
+        list.add((E) events[i]);
+      }
+      return list;
+    }
+
+  }
+
+}
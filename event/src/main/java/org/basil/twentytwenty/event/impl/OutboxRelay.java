@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.event.CheckpointStore;
+import org.basil.twentytwenty.event.EventEnvelope;
+import org.basil.twentytwenty.event.EventPublisher;
+import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.Projection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Publishes the events appended to an {@link EventStore}, which serves as the outbox of a
+ * {@link SimpleRepository} created with {@code SimpleRepository.outbox}.
+ *
+ * <p>The relay follows the global log from its checkpoint on a thread of its own, as a projection
+ * of a {@link ProjectionEngine}, and publishes whatever was appended meanwhile in one call per
+ * batch. The checkpoint is saved only once a batch is published, and a failed publish is retried
+ * until it succeeds or the relay is closed, so every event is published at least once: the
+ * events published after the last checkpoint are published again when the relay is restarted,
+ * and the handlers have to be idempotent.</p>
+ *
+ * <p>That only holds if the events are handled by the time {@link EventPublisher#publish} returns,
+ * as with {@link SimpleEventPublisher#sync()}. An asynchronous publisher, as a
+ * {@link RingBufferEventPublisher}, returns once the events are queued, the relay checkpoints them
+ * then, and those still queued when the process dies are never published.</p>
+ */
+public class OutboxRelay implements Closeable {
+
+  public static final String NAME = "outboxRelay";
+
+  private static final long MIN_BACKOFF_MILLIS = 10;
+  private static final long MAX_BACKOFF_MILLIS = 5_000;
+
+  /**
+   * Starts relaying the events appended to the store after the checkpoint.
+   *
+   * @param eventStore to read the events from
+   * @param eventPublisher to publish the events to, synchronously for at-least-once delivery
+   * @param checkpointStore to save the position of the relay to
+   * @return the relay
+   * @throws IllegalArgumentException if the store has no global log, as a
+   *     {@link ShardedEventStore}
+   */
+  public static OutboxRelay start(EventStore eventStore, EventPublisher eventPublisher,
+      CheckpointStore checkpointStore) {
+    return start(eventStore, eventPublisher, checkpointStore,
+        ProjectionEngine.DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Starts relaying the events appended to the store after the checkpoint.
+   *
+   * @param eventStore to read the events from
+   * @param eventPublisher to publish the events to, synchronously for at-least-once delivery
+   * @param checkpointStore to save the position of the relay to
+   * @param batchSize the maximum number of events published in one call
+   * @return the relay
+   * @throws IllegalArgumentException if the store has no global log, as a
+   *     {@link ShardedEventStore}
+   */
+  public static OutboxRelay start(EventStore eventStore, EventPublisher eventPublisher,
+      CheckpointStore checkpointStore, int batchSize) {
+    OutboxRelay relay = new OutboxRelay(eventPublisher,
+        ProjectionEngine.create(eventStore, checkpointStore, batchSize));
+    relay.engine.start(relay.new Relay());
+    return relay;
+  }
+
+  private final Logger logger = LoggerFactory.getLogger(OutboxRelay.class);
+
+  private final EventPublisher eventPublisher;
+  private final ProjectionEngine engine;
+  private volatile boolean closed;
+
+  OutboxRelay(EventPublisher eventPublisher, ProjectionEngine engine) {
+    this.eventPublisher = eventPublisher;
+    this.engine = engine;
+  }
+
+  /**
+   * Returns how many appended events are not published yet.
+   */
+  public long getLag() {
+    return engine.getLag(NAME);
+  }
+
+  /**
+   * Stops the relay once the batch being published is published and checkpointed, or given up
+   * on if publishing it keeps failing.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    engine.close();
+  }
+
+  private void publish(List<EventEnvelope<?>> batch) {
+    DomainEvent<?>[] events = new DomainEvent<?>[batch.size()];
+    for (int i = 0; i < events.length; i++) {
+      events[i] = batch.get(i).getEvent();
+    }
+    long backoffMillis = MIN_BACKOFF_MILLIS;
+    while (true) {
+      try {
+        eventPublisher.publish(events);
+        return;
+      } catch (RuntimeException e) {
+        if (closed) {
+          throw e;
+        }
+        logger.warn("Failed to publish the events from position {}, retrying in {} ms.",
+            batch.get(0).getPosition(), backoffMillis, e);
+        Uninterruptibles.sleepUninterruptibly(backoffMillis, TimeUnit.MILLISECONDS);
+        backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+      }
+    }
+  }
+
+  /**
+   * The relay as seen by the engine, kept private so the relay itself is not a projection.
+   */
+  private class Relay implements Projection {
+
+    @Override
+    public String getName() {
+      return NAME;
+    }
+
+    @Override
+    public void project(List<EventEnvelope<?>> batch) {
+      publish(batch);
+    }
+
+  }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.EventHandler;
+import org.basil.twentytwenty.event.EventPublisher;
+
+/**
+ * An asynchronous {@link EventPublisher} spreading the events over partitions by the ID of their
+ * {@code Aggregate}, each partition being a {@link RingBufferEventPublisher} with its own consumer
+ * thread.
+ *
+ * <p>All the events of an {@code Aggregate} go through the same partition, so they reach the
+ * handlers in the order they are published, while the events of different {@code Aggregate}s are
+ * handled in parallel. A handler is registered to every partition and must be thread-safe.</p>
+ */
+public class PartitionedEventPublisher implements EventPublisher, Closeable {
+
+  public static PartitionedEventPublisher create() {
+    return create(Runtime.getRuntime().availableProcessors());
+  }
+
+  public static PartitionedEventPublisher create(int partitionCount) {
+    return create(partitionCount, RingBufferEventPublisher.DEFAULT_BUFFER_SIZE,
+        RingBufferEventPublisher.WaitStrategy.BLOCKING);
+  }
+
+  /**
+   * Creates a publisher and starts the consumer threads of its partitions.
+   *
+   * @param partitionCount number of partitions
+   * @param bufferSize number of slots per partition, a power of 2
+   * @param waitStrategy of the consumers when there's nothing to handle
+   * @return the publisher
+   */
+  public static PartitionedEventPublisher create(int partitionCount, int bufferSize,
+      RingBufferEventPublisher.WaitStrategy waitStrategy) {
+    checkArgument(partitionCount > 0, "Partition count %s is not positive.", partitionCount);
+    RingBufferEventPublisher[] partitions = new RingBufferEventPublisher[partitionCount];
+    for (int i = 0; i < partitionCount; i++) {
+      partitions[i] = new RingBufferEventPublisher(bufferSize, waitStrategy,
+          "eventPublisher-" + i);
+    }
+    for (RingBufferEventPublisher partition : partitions) {
+      RingBufferEventPublisher.start(partition);
+    }
+    return new PartitionedEventPublisher(partitions);
+  }
+
+  private final RingBufferEventPublisher[] partitions;
+
+  PartitionedEventPublisher(RingBufferEventPublisher[] partitions) {
+    this.partitions = partitions;
+  }
+
+  public int getPartitionCount() {
+    return partitions.length;
+  }
+
+  @Override
+  public <T extends EventHandler<?>> void register(T... eventHandlers) {
+    for (RingBufferEventPublisher partition : partitions) {
+      partition.register(eventHandlers);
+    }
+  }
+
+  @Override
+  public <T extends EventHandler<?>> void unregister(T... eventHandlers) {
+    for (RingBufferEventPublisher partition : partitions) {
+      partition.unregister(eventHandlers);
+    }
+  }
+
+  /**
+   * Publishes the events to the partitions of their {@code Aggregate}s. The events usually come
+   * from a single {@code Aggregate}, they are then handed over together.
+   */
+  @Override
+  public <E extends DomainEvent<?>> void publish(E... events) {
+    if (events.length == 0) {
+      return;
+    }
+    int partition = partitionOf(events[0]);
+    boolean samePartition = true;
+    for (int i = 1; i < events.length && samePartition; i++) {
+      samePartition = partitionOf(events[i]) == partition;
+    }
+    if (samePartition) {
+      partitions[partition].publish(events);
+      return;
+    }
+    for (E event : events) {
+      partitions[partitionOf(event)].publish(event);
+    }
+  }
+
+  @Override
+  public void close() {
+    for (RingBufferEventPublisher partition : partitions) {
+      partition.close();
+    }
+  }
+
+  int partitionOf(DomainEvent<?> event) {
+    return partitionOf(event.getId(), partitions.length);
+  }
+
+  /**
+   * Maps the {@code Aggregate}'s ID to one of the partitions, the same way for every user of it.
+   * Nothing is kept by partition, unlike the shards of {@link ShardedEventStore#shardOf(Id, int)},
+   * so the spreading can be tuned.
+   */
+  static int partitionOf(Id<?> aggregateId, int partitionCount) {
+    // Spread the bits, so IDs with poor low bits still land on every partition.
+    int hash = aggregateId.hashCode() * 0x9E3779B9;
+    return Math.floorMod(hash ^ (hash >>> 16), partitionCount);
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped file of addresses by entry number, the sparse position index of a
+ * {@link SegmentedFileEventStore}.
+ *
+ * <p>The file is mapped in chunks of {@value #CHUNK_ENTRIES} entries as it grows, so the entries
+ * live in the page cache instead of the heap. A single writer sets the entries in order, readers
+ * only read the entries below the head the writer has published since.</p>
+ */
+final class PositionIndex implements Closeable {
+
+  static final int CHUNK_ENTRIES = 1 << 16;
+
+  private static final int CHUNK_BYTES = CHUNK_ENTRIES * Long.BYTES;
+
+  static PositionIndex open(Path file) throws IOException {
+    return new PositionIndex(FileChannel.open(file,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+  }
+
+  private final FileChannel channel;
+
+  /**
+   * The mapped chunks, replaced when one is added so reads need no locking.
+   */
+  private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+  private PositionIndex(FileChannel channel) throws IOException {
+    this.channel = channel;
+    long chunkCount = (channel.size() + CHUNK_BYTES - 1) / CHUNK_BYTES;
+    for (int i = 0; i < chunkCount; i++) {
+      addChunk();
+    }
+  }
+
+  long get(long entry) {
+    return chunks[(int) (entry / CHUNK_ENTRIES)]
+        .getLong((int) (entry % CHUNK_ENTRIES) * Long.BYTES);
+  }
+
+  /**
+   * Sets an entry, mapping a new chunk if it's beyond the mapped ones. Only called by the writer.
+   */
+  void set(long entry, long address) {
+    int chunk = (int) (entry / CHUNK_ENTRIES);
+    while (chunk >= chunks.length) {
+      try {
+        addChunk();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    chunks[chunk].putLong((int) (entry % CHUNK_ENTRIES) * Long.BYTES, address);
+  }
+
+  /**
+   * Forces the chunks from the one of the specified entry on to the disk.
+   */
+  void force(long fromEntry) {
+    MappedByteBuffer[] chunks = this.chunks;
+    for (int i = (int) (fromEntry / CHUNK_ENTRIES); i < chunks.length; i++) {
+      chunks[i].force();
+    }
+  }
+
+  private void addChunk() throws IOException {
+    MappedByteBuffer[] chunks = this.chunks;
+    MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE,
+        (long) chunks.length * CHUNK_BYTES, CHUNK_BYTES);
+    chunks = Arrays.copyOf(chunks, chunks.length + 1);
+    chunks[chunks.length - 1] = chunk;
+    this.chunks = chunks;
+  }
+
+  @Override
+  public void close() throws IOException {
+    force(0);
+    channel.close();
+  }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.basil.twentytwenty.event.CheckpointStore;
+import org.basil.twentytwenty.event.EventEnvelope;
+import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.EventSubscription;
+import org.basil.twentytwenty.event.Projection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Runs {@link Projection}s over the global log of an {@link EventStore}.
+ *
+ * <p>A started projection resumes from its checkpoint in the {@link CheckpointStore}. Its events
+ * are read by a subscription into a bounded queue and projected by a thread of its own in batches
+ * of whatever queued up, up to the batch size, so the batches grow as the projection falls behind
+ * and the checkpoint is saved once per batch.</p>
+ *
+ * <p>A rebuild projects the log from the start on several threads, the events are partitioned by
+ * {@code Aggregate} so the events of each one are still projected in order. The log is read in
+ * chunks and the next chunk is read while the partitions project the previous one, the checkpoint
+ * is saved once all of a chunk is projected.</p>
+ */
+public class ProjectionEngine implements Closeable {
+
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  private static final long POLL_MILLIS = 100;
+
+  /**
+   * Creates an engine projecting the global log of the store.
+   *
+   * @throws IllegalArgumentException if the store has no global log, as a
+   *     {@link ShardedEventStore}
+   */
+  public static ProjectionEngine create(EventStore eventStore, CheckpointStore checkpointStore) {
+    return create(eventStore, checkpointStore, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Creates an engine projecting the global log of the store.
+   *
+   * @throws IllegalArgumentException if the store has no global log, as a
+   *     {@link ShardedEventStore}
+   */
+  public static ProjectionEngine create(EventStore eventStore, CheckpointStore checkpointStore,
+      int batchSize) {
+    checkArgument(batchSize > 0, "Batch size %s is not positive.", batchSize);
+    checkGlobalLog(eventStore);
+    return new ProjectionEngine(eventStore, checkpointStore, batchSize);
+  }
+
+  /**
+   * Fails fast on a store without a global log, rather than once the projections start.
+   */
+  static void checkGlobalLog(EventStore eventStore) {
+    checkArgument(!(eventStore instanceof ShardedEventStore),
+        "A ShardedEventStore has no global log, each of its shards keeps its own.");
+    try {
+      eventStore.getHeadPosition();
+    } catch (UnsupportedOperationException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+  }
+
+  private final Logger logger = LoggerFactory.getLogger(ProjectionEngine.class);
+
+  private final EventStore eventStore;
+  private final CheckpointStore checkpointStore;
+  private final int batchSize;
+  private final ConcurrentMap<String, Runner> runners = new ConcurrentHashMap<>();
+
+  ProjectionEngine(EventStore eventStore, CheckpointStore checkpointStore, int batchSize) {
+    this.eventStore = eventStore;
+    this.checkpointStore = checkpointStore;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Starts the projection from its checkpoint. A projection throwing out of
+   * {@link Projection#project(List)} is stopped at the checkpoint before the failed batch and no
+   * longer started, so it can be started again once fixed.
+   *
+   * @param projection to start
+   */
+  public synchronized void start(Projection projection) {
+    checkState(!runners.containsKey(projection.getName()), "%s is already started.",
+        projection.getName());
+    Runner runner = new Runner(projection, checkpointStore.load(projection.getName()));
+    runners.put(projection.getName(), runner);
+    runner.start();
+  }
+
+  /**
+   * Stops the named projection, the batch being projected is projected and checkpointed first.
+   *
+   * @param name of the projection
+   */
+  public synchronized void stop(String name) {
+    Runner runner = runners.remove(name);
+    if (runner != null) {
+      runner.stop();
+    }
+  }
+
+  /**
+   * Resets the projection and projects the log up to its current head on the specified number of
+   * threads. A started projection is stopped for the rebuild and started again from the head
+   * afterwards.
+   *
+   * @param projection to rebuild
+   * @param partitions the number of threads to project on
+   * @return the position the projection was rebuilt up to
+   */
+  public synchronized long rebuild(Projection projection, int partitions) {
+    checkArgument(partitions > 0, "Partition count %s is not positive.", partitions);
+    String name = projection.getName();
+    boolean started = runners.containsKey(name);
+    stop(name);
+
+    projection.reset();
+    checkpointStore.save(name, 0);
+    long position = 0;
+    ExecutorService executor = Executors.newFixedThreadPool(partitions,
+        new ThreadFactoryBuilder().setNameFormat("projectionRebuild-" + name + "-%d")
+            .setDaemon(true).build());
+    try (Stream<EventEnvelope<?>> envelopes = eventStore.readAll(0)) {
+      Iterator<EventEnvelope<?>> iterator = envelopes.iterator();
+      List<Future<?>> projecting = Lists.newArrayList();
+      while (iterator.hasNext()) {
+        List<List<EventEnvelope<?>>> chunk = readChunk(iterator, partitions);
+        await(projecting);
+        checkpointStore.save(name, position);
+        position += submit(executor, projection, chunk, projecting);
+      }
+      await(projecting);
+      checkpointStore.save(name, position);
+    } finally {
+      executor.shutdownNow();
+    }
+    logger.info("Rebuilt {} up to position {}.", name, position);
+
+    if (started) {
+      start(projection);
+    }
+    return position;
+  }
+
+  /**
+   * Returns how many events the named projection is behind the head of the log.
+   *
+   * @param name of the projection
+   * @return the number of events the projection is behind
+   */
+  public long getLag(String name) {
+    Runner runner = runners.get(name);
+    long position = runner == null ? checkpointStore.load(name) : runner.position;
+    return Math.max(eventStore.getHeadPosition() - position, 0);
+  }
+
+  /**
+   * Returns the lag of every started projection, by name, the failed ones are left out.
+   */
+  public Map<String, Long> getLags() {
+    Map<String, Long> lags = Maps.newTreeMap();
+    runners.keySet().forEach(name -> lags.put(name, getLag(name)));
+    return lags;
+  }
+
+  @Override
+  public synchronized void close() {
+    Lists.newArrayList(runners.keySet()).forEach(this::stop);
+  }
+
+  /**
+   * Reads up to a batch per partition from the log, split into the partitions.
+   */
+  private List<List<EventEnvelope<?>>> readChunk(Iterator<EventEnvelope<?>> iterator,
+      int partitions) {
+    List<List<EventEnvelope<?>>> chunk = Lists.newArrayListWithCapacity(partitions);
+    for (int i = 0; i < partitions; i++) {
+      chunk.add(Lists.newArrayList());
+    }
+    for (int i = 0; i < batchSize * partitions && iterator.hasNext(); i++) {
+      EventEnvelope<?> envelope = iterator.next();
+      chunk.get(PartitionedEventPublisher.partitionOf(envelope.getAggregateId(), partitions))
+          .add(envelope);
+    }
+    return chunk;
+  }
+
+  /**
+   * Submits the non-empty partitions of the chunk, returns the number of events submitted.
+   */
+  private static int submit(ExecutorService executor, Projection projection,
+      List<List<EventEnvelope<?>>> chunk, List<Future<?>> projecting) {
+    int size = 0;
+    for (List<EventEnvelope<?>> batch : chunk) {
+      if (!batch.isEmpty()) {
+        projecting.add(executor.submit(() -> projection.project(batch)));
+        size += batch.size();
+      }
+    }
+    return size;
+  }
+
+  private static void await(List<Future<?>> projecting) {
+    try {
+      for (Future<?> future : projecting) {
+        Uninterruptibles.getUninterruptibly(future);
+      }
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      projecting.clear();
+    }
+  }
+
+  /**
+   * Projects the events of a started projection in batches on a thread of its own.
+   */
+  private class Runner {
+
+    private final Projection projection;
+    private final BlockingQueue<EventEnvelope<?>> queue;
+    private final Thread thread;
+
+    private volatile long position;
+    private volatile boolean stopped;
+    private EventSubscription subscription;
+
+    Runner(Projection projection, long position) {
+      this.projection = projection;
+      this.queue = new ArrayBlockingQueue<>(batchSize * 4);
+      this.position = position;
+      this.thread = new Thread(this::project, "projection-" + projection.getName());
+      this.thread.setDaemon(true);
+    }
+
+    void start() {
+      subscription = eventStore.subscribe(position, this::enqueue);
+      thread.start();
+    }
+
+    void stop() {
+      stopped = true;
+      subscription.close();
+      Uninterruptibles.joinUninterruptibly(thread);
+    }
+
+    /**
+     * Called by the subscription, waits for room but gives up once the runner is stopped.
+     */
+    private void enqueue(EventEnvelope<?> envelope) {
+      try {
+        while (!stopped) {
+          if (queue.offer(envelope, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void project() {
+      List<EventEnvelope<?>> batch = Lists.newArrayListWithCapacity(batchSize);
+      try {
+        while (!stopped) {
+          EventEnvelope<?> first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+          if (first == null) {
+            continue;
+          }
+          batch.add(first);
+          queue.drainTo(batch, batchSize - 1);
+          projection.project(batch);
+          position = batch.get(batch.size() - 1).getPosition() + 1;
+          checkpointStore.save(projection.getName(), position);
+          batch = Lists.newArrayListWithCapacity(batchSize);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (RuntimeException e) {
+        logger.error("Projection {} stopped at position {}.", projection.getName(), position, e);
+        stopped = true;
+        subscription.close();
+        runners.remove(projection.getName(), this);
+      }
+    }
+
+  }
+
+}
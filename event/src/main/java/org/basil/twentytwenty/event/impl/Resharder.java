@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.event.EventEnvelope;
+import org.basil.twentytwenty.event.EventStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Copies a {@link ShardedEventStore} to a new one with another shard count, offline: nothing may
+ * write to the source while it's copied. The target is swapped in for the source afterwards, by
+ * renaming the directories.
+ *
+ * <p>The log of each source shard is copied in order, and every {@code Aggregate} lives in a
+ * single shard, so the events of each {@code Aggregate} keep their order in the target.</p>
+ *
+ * <pre>
+ * java org.basil.twentytwenty.event.impl.Resharder &lt;source&gt; &lt;target&gt; &lt;shard count&gt;
+ * </pre>
+ */
+public class Resharder {
+
+  private static final Logger logger = LoggerFactory.getLogger(Resharder.class);
+
+  private static final int BATCH_SIZE = 1024;
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3) {
+      System.err.println("Usage: Resharder <source> <target> <shard count>");
+      System.exit(2);
+    }
+    long copied = reshard(Paths.get(args[0]), Paths.get(args[1]), Integer.parseInt(args[2]),
+        SegmentedFileEventStore::open);
+    System.out.println("Copied " + copied + " events.");
+  }
+
+  /**
+   * Copies the events of the source store to a new target store with the specified shard count.
+   *
+   * @param source the directory of the store to copy
+   * @param target the directory of the new store, must not hold a store yet
+   * @param shardCount the shard count of the new store
+   * @param shardOpener to open each shard of both stores, to set their codec for instance
+   * @return the number of events copied
+   * @throws IOException if a store can't be opened
+   */
+  public static long reshard(Path source, Path target, int shardCount,
+      ShardedEventStore.ShardOpener shardOpener) throws IOException {
+    checkArgument(!Files.exists(target.resolve(ShardedEventStore.SHARD_COUNT_FILE)),
+        "%s already holds a store.", target);
+    long copied = 0;
+    try (ShardedEventStore from = ShardedEventStore.open(source, shardOpener);
+        ShardedEventStore to = ShardedEventStore.open(target, shardCount, shardOpener)) {
+      List<EventStore> shards = from.getShards();
+      for (int i = 0; i < shards.size(); i++) {
+        long shardCopied = copy(shards.get(i), to);
+        logger.info("Copied {} events from shard {} of {}.", shardCopied, i, source);
+        copied += shardCopied;
+      }
+    }
+    return copied;
+  }
+
+  private static long copy(EventStore shard, EventStore target) {
+    long copied = 0;
+    List<DomainEvent<?>> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+    try (Stream<EventEnvelope<?>> envelopes = shard.readAll(0)) {
+      Iterator<EventEnvelope<?>> iterator = envelopes.iterator();
+      while (iterator.hasNext()) {
+        batch.add(iterator.next().getEvent());
+        if (batch.size() == BATCH_SIZE || !iterator.hasNext()) {
+          target.save(batch);
+          copied += batch.size();
+          batch.clear();
+        }
+      }
+    }
+    return copied;
+  }
+
+  private Resharder() {
+  }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.event.EventHandler;
+import org.basil.twentytwenty.event.EventPublisher;
+import org.basil.twentytwenty.metrics.Gauge;
+import org.basil.twentytwenty.metrics.Metrics;
+import org.basil.twentytwenty.metrics.Timer;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * An asynchronous {@link EventPublisher} passing events to a single consumer thread through a
+ * preallocated ring buffer.
+ *
+ * <p>Publishers claim slots with a single atomic add per {@link #publish(DomainEvent[])} call and
+ * mark each slot available with the round of the ring it was written in, so publishing allocates
+ * nothing. The consumer takes every available event in one go and frees their slots once the
+ * batch is handled. A publisher waits when the ring is full, which keeps a slow handler from
+ * piling events up on the heap.</p>
+ *
+ * <p>The events of a {@code publish} call are handled in order, and so are the calls made by a
+ * single thread.</p>
+ *
+ * <p>A handler publishing to the same publisher runs on the consumer, which can't wait for room
+ * in a ring only it frees. Its events skip the ring: they are queued on the consumer and handled
+ * right after the batch of the event being handled, before the next events of the ring. That
+ * queue is unbounded, a handler republishing every event it gets never lets the consumer move on.
+ * </p>
+ *
+ * <p>The depth of the ring is reported to the global {@link Metrics} as
+ * {@code <consumer name>-<n>.queueDepth}, named after {@link Metrics#instanceName(String)}, until
+ * the publisher is closed.</p>
+ */
+public class RingBufferEventPublisher implements EventPublisher, Closeable {
+
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private static final int SPIN_TRIES = 100;
+
+  public static RingBufferEventPublisher create() {
+    return create(DEFAULT_BUFFER_SIZE, WaitStrategy.BLOCKING);
+  }
+
+  /**
+   * Creates a publisher and starts its consumer thread.
+   *
+   * @param bufferSize number of slots, a power of 2
+   * @param waitStrategy of the consumer when there's nothing to handle
+   * @return the publisher
+   */
+  public static RingBufferEventPublisher create(int bufferSize, WaitStrategy waitStrategy) {
+    return start(new RingBufferEventPublisher(bufferSize, waitStrategy, "eventPublisher"));
+  }
+
+  static RingBufferEventPublisher start(RingBufferEventPublisher eventPublisher) {
+    eventPublisher.consumer.start();
+    return eventPublisher;
+  }
+
+  /**
+   * What the consumer does while the ring is empty, and the publishers while it's full, from the
+   * lowest latency to the lowest CPU usage.
+   */
+  public enum WaitStrategy {
+
+    /**
+     * Spins on the ring, burning a core for the lowest latency. Only use with a core to spare for
+     * the consumer.
+     */
+    BUSY_SPIN,
+
+    /**
+     * Spins for a while, then yields the CPU between tries.
+     */
+    YIELDING,
+
+    /**
+     * Spins, then yields for a while, then the consumer parks until a publisher wakes it up.
+     */
+    BLOCKING
+
+  }
+
+  private final HandlerRegistry handlers = new HandlerRegistry();
+
+  private final DomainEvent<?>[] slots;
+  private final int mask;
+  private final int roundShift;
+
+  /**
+   * The round of the ring each slot was last written in, a slot holds the event of sequence
+   * {@code s} once its round is {@code s >>> roundShift}.
+   */
+  private final AtomicIntegerArray rounds;
+  private final WaitStrategy waitStrategy;
+  private final Thread consumer;
+
+  /**
+   * The events published by the handlers, only touched by the consumer.
+   */
+  private final Queue<DomainEvent<?>> republished = new ArrayDeque<>();
+
+  /**
+   * The next sequence to claim.
+   */
+  private final AtomicLong claimed = new AtomicLong();
+
+  /**
+   * Every sequence below it is handled and its slot is free.
+   */
+  private volatile long consumed;
+  private final AtomicBoolean consumerParked = new AtomicBoolean();
+  private volatile boolean closed;
+  private final Timer publishTimer = Metrics.global().timer("eventPublisher.publish");
+  private final Gauge queueDepth;
+
+  RingBufferEventPublisher(int bufferSize, WaitStrategy waitStrategy, String consumerName) {
+    checkArgument(bufferSize > 0 && Integer.bitCount(bufferSize) == 1,
+        "Buffer size %s is not a power of 2.", bufferSize);
+    this.slots = new DomainEvent<?>[bufferSize];
+    this.mask = bufferSize - 1;
+    this.roundShift = Integer.numberOfTrailingZeros(bufferSize);
+    this.rounds = new AtomicIntegerArray(bufferSize);
+    for (int i = 0; i < bufferSize; i++) {
+      rounds.set(i, -1);
+    }
+    this.waitStrategy = waitStrategy;
+    this.consumer = new Thread(this::consume, consumerName);
+    this.consumer.setDaemon(true);
+    this.queueDepth = Metrics.global().gauge(Metrics.instanceName(consumerName) + ".queueDepth",
+        () -> claimed.get() - consumed);
+  }
+
+  @Override
+  public <T extends EventHandler<?>> void register(T... eventHandlers) {
+    for (T eventHandler : eventHandlers) {
+      handlers.register(eventHandler);
+    }
+  }
+
+  @Override
+  public <T extends EventHandler<?>> void unregister(T... eventHandlers) {
+    for (T eventHandler : eventHandlers) {
+      handlers.unregister(eventHandler);
+    }
+  }
+
+  @Override
+  public <E extends DomainEvent<?>> void publish(E... events) {
+    if (Thread.currentThread() == consumer) {
+      Collections.addAll(republished, events);
+      return;
+    }
+    checkState(!closed, "The event publisher is closed.");
+    long start = publishTimer.start();
+    int offset = 0;
+    while (offset < events.length) {
+      int count = Math.min(events.length - offset, slots.length);
+      long first = claimed.getAndAdd(count);
+      awaitRoom(first + count - slots.length);
+      for (int i = 0; i < count; i++) {
+        long sequence = first + i;
+        int index = (int) sequence & mask;
+        slots[index] = events[offset + i];
+        rounds.set(index, (int) (sequence >>> roundShift));
+      }
+      offset += count;
+      // Only the first publisher to see the consumer parked wakes it up.
+      if (consumerParked.get() && consumerParked.compareAndSet(true, false)) {
+        LockSupport.unpark(consumer);
+      }
+      if (closed) {
+        awaitHandled(first + count);
+      }
+    }
+    publishTimer.stop(start);
+  }
+
+  /**
+   * Stops the consumer once it has handled everything published before.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(consumer);
+    Uninterruptibles.joinUninterruptibly(consumer);
+    queueDepth.close();
+  }
+
+  /**
+   * Waits until the consumer has handled every sequence below the specified one, freeing their
+   * slots for the current round.
+   */
+  private void awaitRoom(long sequence) {
+    int tries = 0;
+    while (consumed < sequence) {
+      checkState(consumer.isAlive(), "The event publisher is closed.");
+      if (waitStrategy == WaitStrategy.BUSY_SPIN || tries++ < SPIN_TRIES) {
+        continue;
+      }
+      if (waitStrategy == WaitStrategy.YIELDING) {
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+      }
+    }
+  }
+
+  /**
+   * Waits until the consumer has handled every sequence below the specified one, after a close
+   * raced a claim. The consumer only stops once it has handled every claim it saw, so the events
+   * were either handled or the consumer stopped before the claim and they never will be.
+   */
+  private void awaitHandled(long sequence) {
+    while (consumed < sequence) {
+      if (!consumer.isAlive()) {
+        checkState(consumed >= sequence, "The event publisher is closed.");
+        return;
+      }
+      Thread.yield();
+    }
+  }
+
+  /**
+   * The consumer loop, handles the published events in batches until the publisher is closed.
+   */
+  private void consume() {
+    long next = 0;
+    int tries = 0;
+    while (true) {
+      long end = next;
+      while (isAvailable(end)) {
+        end++;
+      }
+      if (end == next) {
+        if (closed && claimed.get() == next) {
+          return;
+        }
+        tries = idle(next, tries);
+        continue;
+      }
+      tries = 0;
+      for (long sequence = next; sequence < end; sequence++) {
+        int index = (int) sequence & mask;
+        DomainEvent<?> event = slots[index];
+        slots[index] = null;
+        handlers.dispatch(event);
+      }
+      next = end;
+      consumed = next;
+      for (DomainEvent<?> event = republished.poll(); event != null;
+          event = republished.poll()) {
+        handlers.dispatch(event);
+      }
+    }
+  }
+
+  private boolean isAvailable(long sequence) {
+    return rounds.get((int) sequence & mask) == (int) (sequence >>> roundShift);
+  }
+
+  private int idle(long next, int tries) {
+    if (waitStrategy == WaitStrategy.BUSY_SPIN || tries < SPIN_TRIES) {
+      return tries + 1;
+    }
+    if (waitStrategy == WaitStrategy.YIELDING || tries < 2 * SPIN_TRIES) {
+      Thread.yield();
+      return tries + 1;
+    }
+    consumerParked.set(true);
+    // Check again after telling the publishers, one may have missed the flag.
+    if (!isAvailable(next) && !closed) {
+      LockSupport.park(this);
+    }
+    consumerParked.set(false);
+    return tries;
+  }
+
+}
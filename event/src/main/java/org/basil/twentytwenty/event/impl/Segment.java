@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed-size, memory-mapped segment file of a {@link SegmentedFileEventStore}.
+ *
+ * <p>A segment is a sequence of records, each laid out as
+ * {@code [length][checksum][position][payload]} where the length and the CRC32 checksum are 4-byte
+ * integers and the position of the event in the global log is an 8-byte one. The checksum covers
+ * the position and the payload. The unwritten part of a segment is zero-filled, so a zero length
+ * marks the end of the records.</p>
+ *
+ * <p>Records are written in batches that never span segments. The sign bit of the length is set
+ * on every record but the last one of a batch, so recovery can tell a complete batch from a torn
+ * one.</p>
+ */
+final class Segment implements Closeable {
+
+  static final int HEADER_SIZE = 16;
+
+  private static final int MORE_IN_BATCH = 0x80000000;
+
+  static Segment open(Path file, int number, int size) throws IOException {
+    FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    return new Segment(number, channel, buffer);
+  }
+
+  private final int number;
+  private final FileChannel channel;
+
+  /**
+   * The mapped buffer, its position and limit are never changed so it's safe to duplicate.
+   */
+  private final MappedByteBuffer buffer;
+  private final ByteBuffer writeBuffer;
+
+  private volatile int writePosition;
+
+  private Segment(int number, FileChannel channel, MappedByteBuffer buffer) {
+    this.number = number;
+    this.channel = channel;
+    this.buffer = buffer;
+    this.writeBuffer = buffer.duplicate();
+  }
+
+  int getNumber() {
+    return number;
+  }
+
+  int getWritePosition() {
+    return writePosition;
+  }
+
+  /**
+   * Returns whether there is room for the specified number of bytes of records, headers included.
+   */
+  boolean hasRoom(int recordBytes) {
+    return writePosition + recordBytes <= buffer.capacity();
+  }
+
+  /**
+   * Appends the payload as a new record, the caller must make sure there is room for it.
+   *
+   * @param payload to append
+   * @param position of the event in the global log
+   * @param endOfBatch whether this is the last record of its batch
+   * @return the offset of the record
+   */
+  int append(byte[] payload, long position, boolean endOfBatch) {
+    int offset = writePosition;
+    writeBuffer.putLong(offset + 8, position);
+    writeBuffer.position(offset + HEADER_SIZE);
+    writeBuffer.put(payload);
+    CRC32 checksum = new CRC32();
+    checksum.update(checksummed(offset, payload.length));
+    writeBuffer.putInt(offset + 4, (int) checksum.getValue());
+    // The length goes last, it marks the record valid.
+    writeBuffer.putInt(offset, endOfBatch ? payload.length : payload.length | MORE_IN_BATCH);
+    writePosition = offset + HEADER_SIZE + payload.length;
+    return offset;
+  }
+
+  /**
+   * Returns a read-only view of the payload of the record at the specified offset, without
+   * copying it out of the mapped file.
+   *
+   * @param offset of the record
+   * @return the payload view
+   */
+  ByteBuffer read(int offset) {
+    ByteBuffer payload = buffer.asReadOnlyBuffer();
+    int length = payload.getInt(offset) & ~MORE_IN_BATCH;
+    payload.limit(offset + HEADER_SIZE + length);
+    payload.position(offset + HEADER_SIZE);
+    return payload;
+  }
+
+  /**
+   * Returns an int of the payload of the record at the specified offset, without a view.
+   *
+   * @param offset of the record
+   * @param payloadOffset of the int in the payload
+   * @return the int
+   */
+  int readInt(int offset, int payloadOffset) {
+    return buffer.getInt(offset + HEADER_SIZE + payloadOffset);
+  }
+
+  /**
+   * Returns a long of the payload of the record at the specified offset, without a view.
+   *
+   * @param offset of the record
+   * @param payloadOffset of the long in the payload
+   * @return the long
+   */
+  long readLong(int offset, int payloadOffset) {
+    return buffer.getLong(offset + HEADER_SIZE + payloadOffset);
+  }
+
+  /**
+   * Scans the record at the specified offset during recovery.
+   *
+   * @param offset of the record
+   * @return the payload view, or {@code null} if there isn't a complete and intact record
+   */
+  ByteBuffer recover(int offset) {
+    if (offset + HEADER_SIZE > buffer.capacity()) {
+      return null;
+    }
+    int length = buffer.getInt(offset) & ~MORE_IN_BATCH;
+    if (length == 0 || offset + HEADER_SIZE + length > buffer.capacity()) {
+      return null;
+    }
+    CRC32 checksum = new CRC32();
+    checksum.update(checksummed(offset, length));
+    if ((int) checksum.getValue() != buffer.getInt(offset + 4)) {
+      return null;
+    }
+    return read(offset);
+  }
+
+  /**
+   * Returns the position in the global log of the record at the specified offset.
+   */
+  long position(int offset) {
+    return buffer.getLong(offset + 8);
+  }
+
+  /**
+   * Returns the offset right after the record at the specified offset, or {@code -1} if that
+   * record is the last one written to this segment.
+   */
+  int next(int offset) {
+    int next = offset + HEADER_SIZE + (buffer.getInt(offset) & ~MORE_IN_BATCH);
+    if (next + HEADER_SIZE > buffer.capacity() || buffer.getInt(next) == 0) {
+      return -1;
+    }
+    return next;
+  }
+
+  /**
+   * Returns whether the record at the specified offset is the last one of its batch.
+   */
+  boolean endsBatch(int offset) {
+    return (buffer.getInt(offset) & MORE_IN_BATCH) == 0;
+  }
+
+  /**
+   * Positions the writer at the specified offset and wipes whatever a torn write left behind it.
+   * The pages of a torn write reach the disk in any order, a zero header doesn't mean there's
+   * nothing after it, so the whole rest of the segment is looked at and only the bytes that aren't
+   * zero are written.
+   *
+   * @param offset to write the next record at
+   * @return {@code true} if there were leftovers to wipe
+   */
+  boolean truncate(int offset) {
+    writePosition = offset;
+    boolean wiped = false;
+    int position = offset;
+    for (; position < buffer.capacity() && position % Long.BYTES != 0; position++) {
+      wiped |= wipe(position);
+    }
+    for (; position + Long.BYTES <= buffer.capacity(); position += Long.BYTES) {
+      if (buffer.getLong(position) != 0L) {
+        writeBuffer.putLong(position, 0L);
+        wiped = true;
+      }
+    }
+    for (; position < buffer.capacity(); position++) {
+      wiped |= wipe(position);
+    }
+    return wiped;
+  }
+
+  private boolean wipe(int position) {
+    if (buffer.get(position) == 0) {
+      return false;
+    }
+    writeBuffer.put(position, (byte) 0);
+    return true;
+  }
+
+  private ByteBuffer checksummed(int offset, int length) {
+    ByteBuffer checksummed = buffer.asReadOnlyBuffer();
+    checksummed.limit(offset + HEADER_SIZE + length);
+    checksummed.position(offset + 8);
+    return checksummed;
+  }
+
+  void force() {
+    buffer.force();
+  }
+
+  @Override
+  public void close() throws IOException {
+    force();
+    channel.close();
+  }
+
+}
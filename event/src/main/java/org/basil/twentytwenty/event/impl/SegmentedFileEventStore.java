@@ -0,0 +1,1163 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.BinaryReader;
+import org.basil.twentytwenty.event.BinaryWriter;
+import org.basil.twentytwenty.event.ConcurrencyException;
+import org.basil.twentytwenty.event.EventCodec;
+import org.basil.twentytwenty.event.EventEnvelope;
+import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.EventSubscription;
+import org.basil.twentytwenty.metrics.Gauge;
+import org.basil.twentytwenty.metrics.Metrics;
+import org.basil.twentytwenty.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * A durable, append-only event store writing to fixed-size segment files.
+ *
+ * <p>Events are appended to the active segment until it's full, then a new segment is started.
+ * The segments are memory-mapped, events are decoded straight from the mapped files when read, so
+ * neither the events nor the segments are kept on the heap. Every record holds the location of
+ * the previous event of its {@code Aggregate}, so the heap only holds the number, the location of
+ * the last event and the event count of each {@code Aggregate}, whatever the number of events.
+ * The first read of an {@code Aggregate} walks its records back from the last one to learn where
+ * every {@value #VERSION_INTERVAL}th event is, from then on a read starts at most that many
+ * records away from its first event and goes forward.</p>
+ *
+ * <p>Every so many events, once they are forced to the disk, and when the store is closed, the
+ * writer hands what changed in the index since over to an {@link IndexCheckpointer}, which
+ * appends it to an index log off the writer thread. Opening the store loads the checkpoint and
+ * only scans the segments from where it left off, or all of them if there's no readable
+ * checkpoint.</p>
+ *
+ * <p>All writes go through a single writer thread. The events of a save or an append are written
+ * as one batch which either survives a crash as a whole or not at all. The writer takes every
+ * batch that queued up while it was busy and commits them as a group, the {@link FsyncPolicy}
+ * decides how often the segment is forced to the disk.</p>
+ *
+ * <p>A failure of the writer other than a {@link ConcurrencyException}, typically an I/O error,
+ * is fatal: the batches being written and the ones queued fail, and so does every save or append
+ * from then on. The batches that failed that way may still have reached the segments, like on a
+ * crash, reopening the store recovers what's on the disk.</p>
+ *
+ * <p>The writer numbers the events as it writes them, the number is the position of the event in
+ * the global log and is stored in the record header. Every {@value #POSITION_INTERVAL}th position
+ * is indexed in a memory-mapped {@link PositionIndex} file, so {@link #readAll(long)} finds its
+ * first event with a short hop from the nearest indexed one and then walks the records in order
+ * across the segments.</p>
+ *
+ * <p>Events are encoded by an {@link EventCodec}, Java serialization unless another one is
+ * specified to the {@link Builder}. The encoded event is preceded by an event header of the
+ * {@code Aggregate}, the version and the type of the event, the {@code Aggregate}s and the types
+ * being numbered by the store, and the location of the previous event of the
+ * {@code Aggregate}. {@link #readAll(long)} fills the envelopes in from the event headers
+ * and leaves the events to be decoded when they're asked for, and recovery only decodes an event
+ * to learn an {@code Aggregate} or a type it hasn't seen yet.</p>
+ *
+ * <p>Saves and appends, until the batch is committed, and finds are timed in the global
+ * {@link Metrics}, and the batches waiting for the writer are reported as
+ * {@code <writer name>-<n>.queueDepth}, named after {@link Metrics#instanceName(String)}, until the
+ * store is closed.</p>
+ */
+public class SegmentedFileEventStore implements EventStore, Closeable {
+
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  public static final int DEFAULT_INDEX_CHECKPOINT_INTERVAL = 100_000;
+
+  static final String SEGMENT_SUFFIX = ".segment";
+  static final String SEGMENT_FILE_FORMAT = "%020d" + SEGMENT_SUFFIX;
+  static final String INDEX_CHECKPOINT_FILE = IndexCheckpointer.CHECKPOINT_FILE;
+  static final String POSITION_INDEX_FILE = "positions.index";
+
+  private static final int ANY_VERSION = -1;
+  private static final long NO_ADDRESS = -1L;
+  private static final long[] NO_ADDRESSES = new long[0];
+  private static final int MAX_GROUP_SIZE = 1024;
+  static final int POSITION_INTERVAL = 256;
+  static final int VERSION_INTERVAL = 64;
+
+  /**
+   * The number of the {@code Aggregate}, the version and the number of the type of the event, then
+   * the address of the previous event of the {@code Aggregate}.
+   */
+  private static final int EVENT_HEADER_SIZE = 20;
+  private static final int PREVIOUS_ADDRESS_OFFSET = 12;
+
+  /**
+   * Reused per thread, so encoding and decoding allocate no buffers of their own.
+   */
+  private static final ThreadLocal<BinaryWriter> WRITERS =
+      ThreadLocal.withInitial(BinaryWriter::new);
+  private static final ThreadLocal<BinaryReader> READERS =
+      ThreadLocal.withInitial(BinaryReader::new);
+
+  /**
+   * Tells the writer to stop once it has committed everything queued before it.
+   */
+  private static final Batch CLOSE = new Batch(null, null, ANY_VERSION, Collections.emptyList());
+
+  public static SegmentedFileEventStore open(Path directory) throws IOException {
+    return builder(directory).open();
+  }
+
+  public static SegmentedFileEventStore open(Path directory, int segmentSize) throws IOException {
+    return builder(directory).segmentSize(segmentSize).open();
+  }
+
+  public static Builder builder(Path directory) {
+    return new Builder(directory);
+  }
+
+  /**
+   * When the written events are forced to the disk, from the most durable to the fastest.
+   */
+  public enum FsyncPolicy {
+
+    /**
+     * Every batch is forced before the next one is written.
+     */
+    PER_WRITE,
+
+    /**
+     * All the batches that queued up while the writer was busy are written and then forced once,
+     * the callers return only after their batches are forced.
+     */
+    PER_GROUP,
+
+    /**
+     * The callers return as soon as their batches are written, they are forced on an interval.
+     * The batches written after the last force are lost if the machine crashes.
+     */
+    INTERVAL
+
+  }
+
+  private final Logger logger = LoggerFactory.getLogger(SegmentedFileEventStore.class);
+
+  private final Path directory;
+  private final int segmentSize;
+  private final FsyncPolicy fsyncPolicy;
+  private final long fsyncIntervalNanos;
+  private final EventCodec codec;
+  private final int indexCheckpointInterval;
+
+  private final List<Segment> segments = new CopyOnWriteArrayList<>();
+  private final ConcurrentMap<Id, Head> index = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Id, VersionIndex> versionIndexes = new ConcurrentHashMap<>();
+  private final PositionIndex positionIndex;
+  private final IndexCheckpointer checkpointer;
+  private final AppendNotifier appendNotifier = new AppendNotifier(0);
+  private final Numbering<Id> aggregateIds = new Numbering<>();
+  private final Numbering<Class<?>> eventTypes = new Numbering<>();
+  private final BlockingQueue<Batch> batches = new LinkedBlockingQueue<>();
+  private final Thread writer;
+  private final Timer saveTimer = Metrics.global().timer("eventStore.save");
+  private final Timer findTimer = Metrics.global().timer("eventStore.find");
+  private final Gauge queueDepth;
+
+  private volatile Segment activeSegment;
+
+  /**
+   * The position of the next event, only touched by the writer once the store is open.
+   */
+  private long nextPosition;
+
+  /*
+   * What the last index checkpoint handed over covers, only touched by the writer as well: the
+   * position and the numbers of the types and the Aggregates up to which it goes, and the heads
+   * which changed since.
+   */
+  private long checkpointedPosition;
+  private int checkpointedTypes;
+  private int checkpointedAggregates;
+  private Map<Id, Head> changedHeads = Maps.newHashMap();
+  private volatile boolean closed;
+
+  /**
+   * Why the writer stopped, set along with failing the queued batches.
+   */
+  private volatile IllegalStateException failure;
+
+  SegmentedFileEventStore(Path directory, int segmentSize, FsyncPolicy fsyncPolicy,
+      long fsyncIntervalNanos, EventCodec codec, int indexCheckpointInterval,
+      PositionIndex positionIndex) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.fsyncPolicy = fsyncPolicy;
+    this.fsyncIntervalNanos = fsyncIntervalNanos;
+    this.codec = codec;
+    this.indexCheckpointInterval = indexCheckpointInterval;
+    this.positionIndex = positionIndex;
+    this.checkpointer = new IndexCheckpointer(directory, positionIndex);
+    this.writer = new Thread(this::write, "eventStoreWriter-" + directory.getFileName());
+    this.writer.setDaemon(true);
+    this.queueDepth = Metrics.global().gauge(Metrics.instanceName(writer.getName())
+        + ".queueDepth", () -> batches.size());
+  }
+
+  @Override
+  public <E extends DomainEvent> void save(E event) {
+    save(Collections.singletonList(event));
+  }
+
+  @Override
+  public <E extends DomainEvent> void save(Iterable<E> events) {
+    commit(new Batch(this, null, ANY_VERSION, events));
+  }
+
+  @Override
+  public <E extends DomainEvent, ID extends Id> void append(ID aggregateId, int expectedVersion,
+      Iterable<E> events) {
+    events.forEach(event ->
+        checkArgument(event.getId().equals(aggregateId), "%s is not from %s.", event, aggregateId));
+    commit(new Batch(this, aggregateId, expectedVersion, events));
+  }
+
+  @Override
+  public <E extends DomainEvent, ID extends Id> List<E> find(ID aggregateId) {
+    return find(aggregateId, 1);
+  }
+
+  @Override
+  public <E extends DomainEvent, ID extends Id> List<E> find(ID aggregateId, int fromVersion) {
+    long start = findTimer.start();
+    List<E> found = this.<E, ID>read(aggregateId, fromVersion, Integer.MAX_VALUE)
+        .collect(Collectors.toCollection(Lists::newArrayList));
+    findTimer.stop(start);
+    return found;
+  }
+
+  /**
+   * Reads the events one at a time from the mapped segments as the stream is consumed. The
+   * locations of every {@value #VERSION_INTERVAL}th event of the {@code Aggregate} are looked up
+   * in its {@link VersionIndex}, so the events are found a block at a time, walking the records
+   * back from the indexed event closing the block, starting with the block of the first event of
+   * the range.
+   */
+  @Override
+  public <E extends DomainEvent, ID extends Id> Stream<E> read(ID aggregateId, int fromVersion,
+      int toVersion) {
+    Head head = index.get(aggregateId);
+    int from = Math.max(fromVersion, 1);
+    int to = head == null ? 0 : Math.min(toVersion, head.count);
+    if (from > to) {
+      return Stream.empty();
+    }
+    long[] indexed = head.count < VERSION_INTERVAL ? NO_ADDRESSES
+        : versionIndexes.computeIfAbsent(aggregateId, id -> new VersionIndex()).covering(head);
+    PrimitiveIterator.OfLong addresses = new Addresses(head, indexed, from, to);
+    return StreamSupport.longStream(Spliterators.spliterator(addresses, to - from + 1,
+        Spliterator.ORDERED), false)
+        .mapToObj(this::read);
+  }
+
+  @Override
+  public long getHeadPosition() {
+    return appendNotifier.getHead();
+  }
+
+  /**
+   * Walks the records from the specified position up to the head as of the call. The envelopes
+   * are filled in from the event headers, an event is only decoded if its envelope is asked for
+   * it.
+   */
+  @Override
+  public Stream<EventEnvelope<?>> readAll(long fromPosition) {
+    checkArgument(fromPosition >= 0, "Position %s is negative.", fromPosition);
+    long head = appendNotifier.getHead();
+    if (fromPosition >= head) {
+      return Stream.empty();
+    }
+    Iterator<EventEnvelope<?>> records = new Records(fromPosition, head);
+    return StreamSupport.stream(Spliterators.spliterator(records, head - fromPosition,
+        Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  @Override
+  public EventSubscription subscribe(long fromPosition,
+      Consumer<? super EventEnvelope<?>> subscriber) {
+    return CatchUpSubscription.start(this, appendNotifier, fromPosition, subscriber);
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (batches) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      batches.add(CLOSE);
+    }
+    Uninterruptibles.joinUninterruptibly(writer);
+    checkpointer.close();
+    queueDepth.close();
+    for (Segment segment : segments) {
+      segment.close();
+    }
+    positionIndex.close();
+  }
+
+  /**
+   * Hands the batch over to the writer and waits until it's committed.
+   */
+  private void commit(Batch batch) {
+    if (batch.payloads.isEmpty()) {
+      return;
+    }
+    int batchSize = batch.size();
+    if (batchSize > segmentSize) {
+      throw new IllegalArgumentException("Batch of " + batchSize
+          + " bytes does not fit in a segment of " + segmentSize + " bytes.");
+    }
+    long start = saveTimer.start();
+    synchronized (batches) {
+      checkState(!closed, "The event store is closed.");
+      if (failure != null) {
+        throw failure;
+      }
+      batches.add(batch);
+    }
+    try {
+      Uninterruptibles.getUninterruptibly(batch.committed);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      saveTimer.stop(start);
+    }
+  }
+
+  /**
+   * The writer loop, commits the queued batches in groups until the store is closed or the writer
+   * fails.
+   */
+  private void write() {
+    List<Batch> group = Lists.newArrayListWithCapacity(MAX_GROUP_SIZE);
+    try {
+      write(group);
+    } catch (RuntimeException | Error e) {
+      logger.error("The writer of {} failed, no more events can be written.", directory, e);
+      fail(group, e);
+    }
+  }
+
+  private void write(List<Batch> group) {
+    long lastForce = System.nanoTime();
+    boolean dirty = false;
+    boolean closing = false;
+    while (!closing) {
+      Batch next = nextBatch(lastForce, dirty);
+      if (next != null) {
+        group.add(next);
+        batches.drainTo(group, MAX_GROUP_SIZE - 1);
+      }
+      closing = group.remove(CLOSE);
+
+      Map<Id, Head> pendingHeads = Maps.newHashMap();
+      for (Batch batch : group) {
+        try {
+          writeBatch(batch, pendingHeads);
+        } catch (ConcurrencyException e) {
+          batch.committed.setException(e);
+          continue;
+        }
+        // A failed force is fatal, the batch is in the segment already.
+        if (fsyncPolicy == FsyncPolicy.PER_WRITE) {
+          activeSegment.force();
+        }
+      }
+      dirty |= !group.isEmpty() && fsyncPolicy != FsyncPolicy.PER_WRITE;
+      if (dirty && (fsyncPolicy == FsyncPolicy.PER_GROUP
+          || System.nanoTime() - lastForce >= fsyncIntervalNanos)) {
+        activeSegment.force();
+        lastForce = System.nanoTime();
+        dirty = false;
+      }
+
+      for (Batch batch : group) {
+        if (batch.addresses != null) {
+          publish(batch.ids, batch.numbers, batch.addresses, batch.firstPosition);
+        }
+      }
+      // The head moves first, so a caller sees its events in the global log once it returns.
+      appendNotifier.advance(nextPosition);
+      for (Batch batch : group) {
+        if (batch.addresses != null) {
+          batch.committed.set(null);
+        }
+      }
+      group.clear();
+      if (!dirty && nextPosition - checkpointedPosition >= indexCheckpointInterval) {
+        checkpointIndex();
+      }
+    }
+    if (dirty) {
+      activeSegment.force();
+    }
+    if (nextPosition != checkpointedPosition) {
+      checkpointIndex();
+    }
+  }
+
+  /**
+   * Fails the batches of the group and the queued ones, and every batch committed from then on.
+   */
+  private void fail(List<Batch> group, Throwable cause) {
+    List<Batch> queued = Lists.newArrayList();
+    synchronized (batches) {
+      failure = new IllegalStateException("The event store failed, reopen it to recover.", cause);
+      batches.drainTo(queued);
+    }
+    for (Batch batch : Iterables.concat(group, queued)) {
+      if (batch != CLOSE) {
+        batch.committed.setException(failure);
+      }
+    }
+  }
+
+  /**
+   * Waits for the next batch, or until the next force is due under {@link FsyncPolicy#INTERVAL}
+   * if something is waiting to be forced.
+   */
+  private Batch nextBatch(long lastForce, boolean dirty) {
+    try {
+      if (fsyncPolicy == FsyncPolicy.INTERVAL && dirty) {
+        return batches.poll(lastForce + fsyncIntervalNanos - System.nanoTime(),
+            TimeUnit.NANOSECONDS);
+      }
+      return batches.take();
+    } catch (InterruptedException e) {
+      // Nobody but the JVM interrupts the writer, it stops on CLOSE.
+      return null;
+    }
+  }
+
+  /**
+   * Writes the batch, linking each event to the previous one of its {@code Aggregate}, which may
+   * be pending in the group.
+   *
+   * @param pendingHeads the heads of the {@code Aggregate}s written by the group and not published
+   *     yet, updated once the batch is written
+   */
+  private void writeBatch(Batch batch, Map<Id, Head> pendingHeads) {
+    if (batch.expectedVersion != ANY_VERSION) {
+      Head head = pendingHeads.getOrDefault(batch.aggregateId, index.get(batch.aggregateId));
+      int actualVersion = head == null ? 0 : head.count;
+      if (actualVersion != batch.expectedVersion) {
+        throw new ConcurrencyException(batch.aggregateId, batch.expectedVersion, actualVersion);
+      }
+    }
+
+    if (!activeSegment.hasRoom(batch.size())) {
+      activeSegment.force();
+      activeSegment = newSegment(activeSegment.getNumber() + 1);
+    }
+    int last = batch.payloads.size() - 1;
+    long[] addresses = new long[batch.payloads.size()];
+    Map<Id, Head> heads = Maps.newHashMap();
+    batch.firstPosition = nextPosition;
+    for (int i = 0; i <= last; i++) {
+      Id id = batch.ids.get(i);
+      Head head = heads.getOrDefault(id, pendingHeads.getOrDefault(id, index.get(id)));
+      byte[] payload = batch.payloads.get(i);
+      ByteBuffer.wrap(payload)
+          .putLong(PREVIOUS_ADDRESS_OFFSET, head == null ? NO_ADDRESS : head.address);
+      int offset = activeSegment.append(payload, nextPosition++, i == last);
+      addresses[i] = address(activeSegment.getNumber(), offset);
+      heads.put(id, Head.after(head, batch.numbers[i], addresses[i]));
+    }
+    batch.addresses = addresses;
+    pendingHeads.putAll(heads);
+  }
+
+  /**
+   * Makes the events of a committed batch readable, through the index and the indexed positions.
+   */
+  private void publish(List<Id> ids, int[] numbers, long[] addresses, long firstPosition) {
+    for (int i = 0; i < ids.size(); i++) {
+      Id id = ids.get(i);
+      Head head = Head.after(index.get(id), numbers[i], addresses[i]);
+      index.put(id, head);
+      changedHeads.put(id, head);
+      if ((firstPosition + i) % POSITION_INTERVAL == 0) {
+        positionIndex.set((firstPosition + i) / POSITION_INTERVAL, addresses[i]);
+      }
+    }
+  }
+
+  /**
+   * Returns the address of the previous event of the {@code Aggregate} of the event at the
+   * specified address, or {@link #NO_ADDRESS} if it's the first one.
+   */
+  private long previousAddress(long address) {
+    return segments.get(segmentNumber(address))
+        .readLong(segmentOffset(address), PREVIOUS_ADDRESS_OFFSET);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <E extends DomainEvent> E read(long address) {
+    Segment segment = segments.get(segmentNumber(address));
+    return (E) decode(segment.read(segmentOffset(address)));
+  }
+
+  /**
+   * Maps the existing segments, loads the index checkpoint and rebuilds the rest of the index
+   * from the records after it, then starts the writer. A torn batch at the end of the last segment
+   * is wiped, the next append overwrites it.
+   *
+   * @throws IOException if a segment is missing, the addresses in the index would be off
+   */
+  private void recover() throws IOException {
+    List<Path> files = Lists.newArrayList();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+      stream.forEach(files::add);
+    }
+    files.sort(null);
+    for (Path file : files) {
+      int number = segmentNumberOf(file);
+      if (number != segments.size()) {
+        throw new IOException("Segment " + segments.size() + " is missing, the next one is "
+            + file + ".");
+      }
+      segments.add(Segment.open(file, number, segmentSize));
+    }
+
+    long checkpointAddress = loadIndexCheckpoint();
+    int firstSegment = checkpointAddress < 0 ? 0 : segmentNumber(checkpointAddress);
+    for (int i = firstSegment; i < segments.size(); i++) {
+      Path file = files.get(i);
+      Segment segment = segments.get(i);
+
+      List<Id> batchIds = Lists.newArrayList();
+      List<Integer> batchNumbers = Lists.newArrayList();
+      List<Long> batchAddresses = Lists.newArrayList();
+      int offset = i == firstSegment && checkpointAddress >= 0
+          ? segmentOffset(checkpointAddress) : 0;
+      int batchOffset = offset;
+      ByteBuffer payload;
+      while ((payload = segment.recover(offset)) != null) {
+        long position = segment.position(offset);
+        if (position != nextPosition + batchIds.size()) {
+          throw new IOException("Expected position " + (nextPosition + batchIds.size())
+              + " but found " + position + " at offset " + offset + " of " + file + ".");
+        }
+        int length = payload.remaining();
+        int number = segment.readInt(offset, 0);
+        Id aggregateId = aggregateIds.get(number);
+        if (aggregateId == null || eventTypes.get(segment.readInt(offset, 8)) == null) {
+          DomainEvent<?> event = decode(payload);
+          aggregateId = event.getId();
+          aggregateIds.put(number, aggregateId);
+          eventTypes.put(segment.readInt(offset, 8), event.getClass());
+        }
+        batchIds.add(aggregateId);
+        batchNumbers.add(number);
+        batchAddresses.add(address(segment.getNumber(), offset));
+        if (segment.endsBatch(offset)) {
+          publish(batchIds, Ints.toArray(batchNumbers), Longs.toArray(batchAddresses),
+              nextPosition);
+          nextPosition += batchIds.size();
+          batchIds.clear();
+          batchNumbers.clear();
+          batchAddresses.clear();
+          batchOffset = offset + Segment.HEADER_SIZE + length;
+        }
+        offset += Segment.HEADER_SIZE + length;
+      }
+      if (segment.truncate(batchOffset)) {
+        logger.warn("Wiped a torn batch at offset {} of {}.", batchOffset, file);
+      }
+    }
+
+    activeSegment = segments.isEmpty() ? newSegment(0) : segments.get(segments.size() - 1);
+    appendNotifier.advance(nextPosition);
+    writer.start();
+  }
+
+  /**
+   * Loads the index checkpoint, if there's a readable one.
+   *
+   * @return the address the records after the checkpoint start at, or {@code -1} if there is no
+   *     checkpoint to start from
+   */
+  private long loadIndexCheckpoint() {
+    try {
+      IndexCheckpointer.Checkpoint checkpoint = checkpointer.load();
+      if (checkpoint == null) {
+        return -1;
+      }
+      if (segmentNumber(checkpoint.tailAddress) >= segments.size()) {
+        throw new IOException("Segment " + segmentNumber(checkpoint.tailAddress) + " is missing.");
+      }
+      IndexCheckpointer.Delta loaded = checkpoint.getIndex();
+      loaded.types.forEach(eventTypes::put);
+      loaded.aggregates.forEach(aggregateIds::put);
+      for (Head head : loaded.heads.values()) {
+        Id aggregateId = aggregateIds.get(head.number);
+        if (aggregateId == null) {
+          throw new IOException("Aggregate " + head.number + " is missing.");
+        }
+        index.put(aggregateId, head);
+      }
+      checkpointer.resume(checkpoint);
+      nextPosition = checkpoint.position;
+      checkpointedPosition = checkpoint.position;
+      checkpointedTypes = eventTypes.size();
+      checkpointedAggregates = aggregateIds.size();
+      return checkpoint.tailAddress;
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      logger.warn("Ignoring the unreadable index checkpoint {}, scanning all the segments.",
+          directory.resolve(INDEX_CHECKPOINT_FILE), e);
+      eventTypes.clear();
+      aggregateIds.clear();
+      index.clear();
+      return -1;
+    }
+  }
+
+  /**
+   * Hands what changed in the index since the last checkpoint over to the checkpointer, as of the
+   * events written so far, which must all be forced to the disk.
+   */
+  private void checkpointIndex() {
+    IndexCheckpointer.Delta delta = new IndexCheckpointer.Delta();
+    int types = eventTypes.size();
+    for (int number = checkpointedTypes; number < types; number++) {
+      if (eventTypes.get(number) != null) {
+        delta.types.put(number, eventTypes.get(number));
+      }
+    }
+    int aggregates = aggregateIds.size();
+    for (int number = checkpointedAggregates; number < aggregates; number++) {
+      if (aggregateIds.get(number) != null) {
+        delta.aggregates.put(number, aggregateIds.get(number));
+      }
+    }
+    for (Head head : changedHeads.values()) {
+      delta.heads.put(head.number, head);
+    }
+    checkpointer.save(nextPosition,
+        address(activeSegment.getNumber(), activeSegment.getWritePosition()), delta);
+    checkpointedPosition = nextPosition;
+    checkpointedTypes = types;
+    checkpointedAggregates = aggregates;
+    changedHeads = Maps.newHashMap();
+  }
+
+  private Segment newSegment(int number) {
+    Path file = directory.resolve(String.format(SEGMENT_FILE_FORMAT, number));
+    try {
+      Segment segment = Segment.open(file, number, segmentSize);
+      segments.add(segment);
+      return segment;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Decodes the event of a payload, skipping the event header.
+   */
+  private DomainEvent<?> decode(ByteBuffer payload) {
+    payload.position(payload.position() + EVENT_HEADER_SIZE);
+    return codec.decode(READERS.get().reset(payload));
+  }
+
+  /**
+   * Parses the number of a segment from its file name.
+   */
+  private static int segmentNumberOf(Path file) throws IOException {
+    String name = file.getFileName().toString();
+    try {
+      return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      throw new IOException("Unexpected segment file " + file + ".", e);
+    }
+  }
+
+  private static long address(int segmentNumber, int offset) {
+    return ((long) segmentNumber << 32) | (offset & 0xFFFFFFFFL);
+  }
+
+  private static int segmentNumber(long address) {
+    return (int) (address >>> 32);
+  }
+
+  private static int segmentOffset(long address) {
+    return (int) address;
+  }
+
+  /**
+   * Builds a {@link SegmentedFileEventStore}.
+   */
+  public static class Builder {
+
+    private final Path directory;
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.PER_GROUP;
+    private long fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private EventCodec codec = SerializableEventCodec.create();
+    private int indexCheckpointInterval = DEFAULT_INDEX_CHECKPOINT_INTERVAL;
+
+    Builder(Path directory) {
+      this.directory = directory;
+    }
+
+    public Builder segmentSize(int segmentSize) {
+      checkArgument(segmentSize > Segment.HEADER_SIZE, "Segment size %s is too small.", segmentSize);
+      this.segmentSize = segmentSize;
+      return this;
+    }
+
+    public Builder fsyncPolicy(FsyncPolicy fsyncPolicy) {
+      this.fsyncPolicy = fsyncPolicy;
+      return this;
+    }
+
+    /**
+     * Sets the interval of the {@link FsyncPolicy#INTERVAL} policy, 10 milliseconds by default.
+     */
+    public Builder fsyncInterval(long interval, TimeUnit unit) {
+      checkArgument(interval > 0, "Interval %s is not positive.", interval);
+      this.fsyncIntervalNanos = unit.toNanos(interval);
+      return this;
+    }
+
+    /**
+     * Sets the codec of the events, a store must always be opened with the codec it was written
+     * with.
+     */
+    public Builder codec(EventCodec codec) {
+      this.codec = checkNotNull(codec);
+      return this;
+    }
+
+    /**
+     * Sets the number of events between two index checkpoints, the more events the fewer pauses
+     * of the writer and the more to scan when opening the store after a crash.
+     */
+    public Builder indexCheckpointInterval(int events) {
+      checkArgument(events > 0, "Interval %s is not positive.", events);
+      this.indexCheckpointInterval = events;
+      return this;
+    }
+
+    public SegmentedFileEventStore open() throws IOException {
+      Files.createDirectories(directory);
+      SegmentedFileEventStore eventStore = new SegmentedFileEventStore(directory, segmentSize,
+          fsyncPolicy, fsyncIntervalNanos, codec, indexCheckpointInterval,
+          PositionIndex.open(directory.resolve(POSITION_INDEX_FILE)));
+      try {
+        eventStore.recover();
+      } catch (IOException | RuntimeException e) {
+        eventStore.queueDepth.close();
+        List<Closeable> opened = Lists.newArrayList(eventStore.segments);
+        opened.add(eventStore.positionIndex);
+        for (Closeable closeable : opened) {
+          try {
+            closeable.close();
+          } catch (IOException suppressed) {
+            e.addSuppressed(suppressed);
+          }
+        }
+        throw e;
+      }
+      return eventStore;
+    }
+
+  }
+
+  /**
+   * A batch of encoded events waiting for the writer.
+   */
+  static class Batch {
+
+    private final Id aggregateId;
+    private final int expectedVersion;
+    private final List<Id> ids = Lists.newArrayList();
+    private final int[] numbers;
+    private final List<byte[]> payloads = Lists.newArrayList();
+    private final SettableFuture<Void> committed = SettableFuture.create();
+
+    /**
+     * Written by the writer, the locations of the events or {@code null} if the batch failed.
+     */
+    private long[] addresses;
+    private long firstPosition;
+
+    /**
+     * Encodes the events on the caller's thread, so the writer only copies bytes.
+     */
+    <E extends DomainEvent> Batch(SegmentedFileEventStore store, Id aggregateId,
+        int expectedVersion, Iterable<E> events) {
+      this.aggregateId = aggregateId;
+      this.expectedVersion = expectedVersion;
+      BinaryWriter writer = WRITERS.get();
+      List<Integer> numbers = Lists.newArrayList();
+      for (E event : events) {
+        ids.add(event.getId());
+        numbers.add(store.aggregateIds.numberOf(event.getId()));
+        writer.reset();
+        writer.writeInt(numbers.get(numbers.size() - 1));
+        writer.writeInt(event.getVersion());
+        writer.writeInt(store.eventTypes.numberOf(event.getClass()));
+        // The writer fills the address of the previous event in.
+        writer.writeLong(NO_ADDRESS);
+        store.codec.encode(event, writer);
+        payloads.add(writer.toByteArray());
+      }
+      this.numbers = Ints.toArray(numbers);
+    }
+
+    /**
+     * Returns the number of bytes the batch takes in a segment.
+     */
+    int size() {
+      int size = 0;
+      for (byte[] payload : payloads) {
+        size += Segment.HEADER_SIZE + payload.length;
+      }
+      return size;
+    }
+
+  }
+
+  /**
+   * Walks the global log from a position to a head, hopping from record to record and on to the
+   * next segment when one runs out.
+   */
+  private class Records implements Iterator<EventEnvelope<?>> {
+
+    private final long head;
+    private long position;
+    private int segmentNumber;
+    private int offset;
+
+    Records(long fromPosition, long head) {
+      this.head = head;
+      long address = positionIndex.get(fromPosition / POSITION_INTERVAL);
+      this.position = fromPosition - fromPosition % POSITION_INTERVAL;
+      this.segmentNumber = segmentNumber(address);
+      this.offset = segmentOffset(address);
+      while (position < fromPosition) {
+        skip();
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return position < head;
+    }
+
+    @Override
+    public EventEnvelope<?> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Segment segment = segments.get(segmentNumber);
+      EventEnvelope<?> envelope = new LazyEnvelope(position,
+          aggregateIds.get(segment.readInt(offset, 0)), segment.readInt(offset, 4),
+          eventTypes.get(segment.readInt(offset, 8)), segment, offset);
+      skip();
+      return envelope;
+    }
+
+    /**
+     * Moves to the next record, which is only looked at if it's below the head.
+     */
+    private void skip() {
+      position++;
+      if (position < head) {
+        offset = segments.get(segmentNumber).next(offset);
+        if (offset < 0) {
+          segmentNumber++;
+          offset = 0;
+        }
+      }
+    }
+
+  }
+
+  /**
+   * The envelope of a record, decoding its event on first access.
+   */
+  private class LazyEnvelope extends EventEnvelope<DomainEvent<?>> {
+
+    private final Segment segment;
+    private final int offset;
+    private DomainEvent<?> event;
+
+    LazyEnvelope(long position, Id<?> aggregateId, int version, Class<?> eventType,
+        Segment segment, int offset) {
+      super(position, aggregateId, version, eventType);
+      this.segment = segment;
+      this.offset = offset;
+    }
+
+    @Override
+    public DomainEvent<?> getEvent() {
+      if (event == null) {
+        event = decode(segment.read(offset));
+      }
+      return event;
+    }
+
+  }
+
+  /**
+   * The locations of every {@value #VERSION_INTERVAL}th event of an {@code Aggregate}, learnt by
+   * walking its records back the first time it's read and only extended with the events added
+   * since afterwards. The events are numbered from 1, as they're counted by its {@link Head}.
+   */
+  private final class VersionIndex {
+
+    /**
+     * The location of the event {@code (k + 1) * VERSION_INTERVAL} at {@code k}, replaced when it
+     * grows so lookups need no locking.
+     */
+    private volatile long[] addresses = NO_ADDRESSES;
+
+    /**
+     * Returns the locations of every {@value #VERSION_INTERVAL}th event up to the specified head.
+     */
+    long[] covering(Head head) {
+      long[] addresses = this.addresses;
+      int indexed = head.count / VERSION_INTERVAL;
+      if (addresses.length >= indexed) {
+        return addresses;
+      }
+      synchronized (this) {
+        addresses = this.addresses;
+        if (addresses.length < indexed) {
+          int known = addresses.length * VERSION_INTERVAL;
+          addresses = Arrays.copyOf(addresses, indexed);
+          long address = head.address;
+          for (int version = head.count; version > known; version--) {
+            if (version % VERSION_INTERVAL == 0) {
+              addresses[version / VERSION_INTERVAL - 1] = address;
+            }
+            if (version - 1 > known) {
+              address = previousAddress(address);
+            }
+          }
+          this.addresses = addresses;
+        }
+        return addresses;
+      }
+    }
+
+  }
+
+  /**
+   * Hands the locations of a range of events of an {@code Aggregate} out in order, a block of up
+   * to {@value #VERSION_INTERVAL} events at a time, each block walked back from the closest known
+   * event after it: an indexed one or the last one.
+   */
+  private final class Addresses implements PrimitiveIterator.OfLong {
+
+    private final Head head;
+    private final long[] indexed;
+    private final int to;
+    private final long[] block = new long[VERSION_INTERVAL];
+    private int blockStart;
+    private int blockEnd;
+    private int next;
+
+    Addresses(Head head, long[] indexed, int from, int to) {
+      this.head = head;
+      this.indexed = indexed;
+      this.to = to;
+      this.next = from;
+      this.blockEnd = from - 1;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next <= to;
+    }
+
+    @Override
+    public long nextLong() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (next > blockEnd) {
+        nextBlock();
+      }
+      return block[next++ - blockStart];
+    }
+
+    private void nextBlock() {
+      int closing = ((next - 1) / VERSION_INTERVAL + 1) * VERSION_INTERVAL;
+      int version;
+      long address;
+      if (closing <= indexed.length * VERSION_INTERVAL) {
+        version = closing;
+        address = indexed[closing / VERSION_INTERVAL - 1];
+      } else {
+        version = head.count;
+        address = head.address;
+      }
+      blockStart = next;
+      blockEnd = Math.min(version, to);
+      for (; version > blockEnd; version--) {
+        address = previousAddress(address);
+      }
+      for (; version >= blockStart; version--) {
+        block[version - blockStart] = address;
+        if (version > blockStart) {
+          address = previousAddress(address);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Numbers the {@code Aggregate}s or the event types of the store, so an event header holds an
+   * int for each. The numbers are handed out as new values are encoded, so a failed batch may
+   * leave a number unused, and recovery learns them back from the records.
+   */
+  static class Numbering<T> {
+
+    private final ConcurrentMap<T, Integer> numbers = new ConcurrentHashMap<>();
+
+    /**
+     * Indexed by number, replaced when it grows so lookups need no locking.
+     */
+    private volatile Object[] values = new Object[16];
+    private int next;
+
+    int numberOf(T value) {
+      Integer number = numbers.get(value);
+      return number != null ? number : assign(value);
+    }
+
+    /**
+     * Returns the number the next new value gets, all the numbers handed out are below it.
+     */
+    synchronized int size() {
+      return next;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int number) {
+      Object[] values = this.values;
+      return number < values.length ? (T) values[number] : null;
+    }
+
+    synchronized void put(int number, T value) {
+      Object[] values = this.values;
+      if (number >= values.length) {
+        values = Arrays.copyOf(values, Math.max(values.length << 1, number + 1));
+      }
+      values[number] = value;
+      // The volatile write publishes the value before its number is handed out.
+      this.values = values;
+      numbers.put(value, number);
+      next = Math.max(next, number + 1);
+    }
+
+    synchronized void clear() {
+      numbers.clear();
+      values = new Object[16];
+      next = 0;
+    }
+
+    private synchronized int assign(T value) {
+      Integer number = numbers.get(value);
+      if (number == null) {
+        number = next;
+        put(number, value);
+      }
+      return number;
+    }
+
+  }
+
+  /**
+   * The number of an {@code Aggregate}, the location of its last event and its event count,
+   * replaced as events are added so readers see the three together.
+   */
+  static final class Head {
+
+    final int number;
+    final long address;
+    final int count;
+
+    Head(int number, long address, int count) {
+      this.number = number;
+      this.address = address;
+      this.count = count;
+    }
+
+    /**
+     * Returns the head once the event at the specified address is added.
+     *
+     * @param head before the event, or {@code null} if it's the first one
+     */
+    static Head after(Head head, int number, long address) {
+      return new Head(number, address, head == null ? 1 : head.count + 1);
+    }
+
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.event.BinaryReader;
+import org.basil.twentytwenty.event.BinaryWriter;
+import org.basil.twentytwenty.event.EventCodec;
+
+/**
+ * Encodes events with Java serialization, which needs nothing registered but writes the class
+ * descriptors along with every event. Prefer a {@link BinaryEventCodec} where the event types are
+ * known.
+ */
+public class SerializableEventCodec implements EventCodec {
+
+  public static SerializableEventCodec create() {
+    return new SerializableEventCodec();
+  }
+
+  SerializableEventCodec() {
+  }
+
+  @Override
+  public void encode(DomainEvent<?> event, BinaryWriter writer) {
+    try (ObjectOutputStream output = new ObjectOutputStream(writer.asOutputStream())) {
+      output.writeObject(event);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public DomainEvent<?> decode(BinaryReader reader) {
+    try (ObjectInputStream input = new ObjectInputStream(reader.asInputStream())) {
+      return (DomainEvent<?>) input.readObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.EventStore;
+
+import com.google.common.collect.Lists;
+
+/**
+ * An event store spreading the {@code Aggregate}s over a fixed number of
+ * {@link SegmentedFileEventStore}s, the shards, each with its own directory and writer thread, so
+ * appends to different shards run in parallel and can go to different disks.
+ *
+ * <p>An {@code Aggregate} lives in the shard its ID hashes to, see {@link #shardOf(Id, int)}, so
+ * its events keep their order and its appends are still checked for concurrency. A save of events
+ * of several {@code Aggregate}s is split by shard and is only atomic per shard.</p>
+ *
+ * <p>The shard count is written to the directory when it's created and can't change afterwards,
+ * {@link Resharder} copies the events to a store with another count offline. There's no global
+ * log across the shards, each shard keeps its own, see {@link #getShards()}, so a
+ * {@link ProjectionEngine} or an {@link OutboxRelay} refuses the store and has to run on each
+ * shard.</p>
+ */
+public class ShardedEventStore implements EventStore, Closeable {
+
+  static final String SHARD_COUNT_FILE = "shards";
+
+  /**
+   * Opens one shard.
+   */
+  @FunctionalInterface
+  public interface ShardOpener {
+
+    SegmentedFileEventStore open(Path directory) throws IOException;
+
+  }
+
+  /**
+   * Opens an existing sharded store with the shard count it was created with.
+   *
+   * @param directory of the store
+   * @return the store
+   * @throws IOException if the store doesn't exist or can't be opened
+   */
+  public static ShardedEventStore open(Path directory) throws IOException {
+    return open(directory, SegmentedFileEventStore::open);
+  }
+
+  /**
+   * Opens an existing sharded store with the shard count it was created with.
+   *
+   * @param directory of the store
+   * @param shardOpener to open each shard in its directory, to set its codec for instance
+   * @return the store
+   * @throws IOException if the store doesn't exist or can't be opened
+   */
+  public static ShardedEventStore open(Path directory, ShardOpener shardOpener)
+      throws IOException {
+    int shardCount = readShardCount(directory);
+    if (shardCount == 0) {
+      throw new NoSuchFileException(directory.resolve(SHARD_COUNT_FILE).toString());
+    }
+    return open(directory, shardCount, shardOpener);
+  }
+
+  public static ShardedEventStore open(Path directory, int shardCount) throws IOException {
+    return open(directory, shardCount, SegmentedFileEventStore::open);
+  }
+
+  /**
+   * Opens the sharded store, creating it if the directory holds none.
+   *
+   * @param directory of the store
+   * @param shardCount the number of shards, must be the one the store was created with
+   * @param shardOpener to open each shard in its directory, to set its codec for instance
+   * @return the store
+   * @throws IOException if a shard can't be opened
+   */
+  public static ShardedEventStore open(Path directory, int shardCount, ShardOpener shardOpener)
+      throws IOException {
+    checkArgument(shardCount > 0, "Shard count %s is not positive.", shardCount);
+    Files.createDirectories(directory);
+    int existingShardCount = readShardCount(directory);
+    if (existingShardCount == 0) {
+      writeShardCount(directory, shardCount);
+    } else if (existingShardCount != shardCount) {
+      throw new IllegalArgumentException(directory + " has " + existingShardCount
+          + " shards, not " + shardCount + ".");
+    }
+
+    List<SegmentedFileEventStore> shards = Lists.newArrayListWithCapacity(shardCount);
+    try {
+      for (int i = 0; i < shardCount; i++) {
+        shards.add(shardOpener.open(directory.resolve(String.format("shard-%03d", i))));
+      }
+    } catch (IOException | RuntimeException e) {
+      for (SegmentedFileEventStore shard : shards) {
+        shard.close();
+      }
+      throw e;
+    }
+    return new ShardedEventStore(shards);
+  }
+
+  private final SegmentedFileEventStore[] shards;
+
+  ShardedEventStore(List<SegmentedFileEventStore> shards) {
+    this.shards = shards.toArray(new SegmentedFileEventStore[0]);
+  }
+
+  public int getShardCount() {
+    return shards.length;
+  }
+
+  /**
+   * Returns the shards, to follow their logs one by one.
+   */
+  public List<EventStore> getShards() {
+    return Collections.unmodifiableList(Lists.newArrayList(shards));
+  }
+
+  @Override
+  public <E extends DomainEvent> void save(E event) {
+    shardOf(event.getId()).save(event);
+  }
+
+  @Override
+  public <E extends DomainEvent> void save(Iterable<E> events) {
+    List<List<E>> batches = Lists.newArrayListWithCapacity(shards.length);
+    for (int i = 0; i < shards.length; i++) {
+      batches.add(null);
+    }
+    for (E event : events) {
+      int shard = shardOf(event.getId(), shards.length);
+      if (batches.get(shard) == null) {
+        batches.set(shard, Lists.newArrayList());
+      }
+      batches.get(shard).add(event);
+    }
+    for (int i = 0; i < shards.length; i++) {
+      if (batches.get(i) != null) {
+        shards[i].save(batches.get(i));
+      }
+    }
+  }
+
+  @Override
+  public <E extends DomainEvent, ID extends Id> void append(ID aggregateId, int expectedVersion,
+      Iterable<E> events) {
+    shardOf(aggregateId).append(aggregateId, expectedVersion, events);
+  }
+
+  @Override
+  public <E extends DomainEvent, ID extends Id> List<E> find(ID aggregateId) {
+    return shardOf(aggregateId).find(aggregateId);
+  }
+
+  @Override
+  public <E extends DomainEvent, ID extends Id> List<E> find(ID aggregateId, int fromVersion) {
+    return shardOf(aggregateId).find(aggregateId, fromVersion);
+  }
+
+  @Override
+  public <E extends DomainEvent, ID extends Id> Stream<E> read(ID aggregateId, int fromVersion,
+      int toVersion) {
+    return shardOf(aggregateId).read(aggregateId, fromVersion, toVersion);
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (SegmentedFileEventStore shard : shards) {
+      try {
+        shard.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Returns the number of the shard of an {@code Aggregate}: its ID's hash code is spread by a
+   * multiplicative hash, folded and reduced to the shard count.
+   *
+   * <p>The shards are on the disk, so the function is frozen: changing it, or the hash codes of
+   * the IDs, sends the existing {@code Aggregate}s to the wrong shards, where they're not found
+   * and their versions aren't checked. The hash codes of the IDs of {@link Id} are the same in
+   * every JVM.</p>
+   *
+   * @param aggregateId the {@code Aggregate}'s ID
+   * @param shardCount the number of shards
+   * @return the number of the shard, from {@code 0} to {@code shardCount - 1}
+   */
+  static int shardOf(Id<?> aggregateId, int shardCount) {
+    int hash = aggregateId.hashCode() * 0x9E3779B9;
+    return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+  }
+
+  private SegmentedFileEventStore shardOf(Id<?> aggregateId) {
+    return shards[shardOf(aggregateId, shards.length)];
+  }
+
+  /**
+   * Returns the shard count written to the directory, {@code 0} if there's none.
+   */
+  static int readShardCount(Path directory) throws IOException {
+    try {
+      String count = new String(Files.readAllBytes(directory.resolve(SHARD_COUNT_FILE)),
+          StandardCharsets.US_ASCII);
+      return Integer.parseInt(count.trim());
+    } catch (NoSuchFileException e) {
+      return 0;
+    } catch (NumberFormatException e) {
+      throw new IOException("Unreadable shard count in " + directory + ".", e);
+    }
+  }
+
+  private static void writeShardCount(Path directory, int shardCount) throws IOException {
+    Path file = directory.resolve(SHARD_COUNT_FILE);
+    Path temporary = file.resolveSibling(SHARD_COUNT_FILE + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer =
+          ByteBuffer.wrap((shardCount + "\n").getBytes(StandardCharsets.US_ASCII));
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+}
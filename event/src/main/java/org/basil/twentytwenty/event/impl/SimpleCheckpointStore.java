@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.basil.twentytwenty.event.CheckpointStore;
+
+/**
+ * A very simple in-memory checkpoint store, for projections which are rebuilt on every start.
+ */
+public class SimpleCheckpointStore implements CheckpointStore {
+
+  public static CheckpointStore inMemory() {
+    return new SimpleCheckpointStore(new ConcurrentHashMap<>());
+  }
+
+  private final ConcurrentMap<String, Long> checkpoints;
+
+  SimpleCheckpointStore(ConcurrentMap<String, Long> checkpoints) {
+    this.checkpoints = checkpoints;
+  }
+
+  @Override
+  public long load(String name) {
+    return checkpoints.getOrDefault(name, 0L);
+  }
+
+  @Override
+  public void save(String name, long position) {
+    checkpoints.put(name, position);
+  }
+
+}
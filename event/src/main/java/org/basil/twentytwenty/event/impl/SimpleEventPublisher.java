@@ -13,31 +13,82 @@
  */
 package org.basil.twentytwenty.event.impl;
 
+import java.io.Closeable;
 import java.util.Arrays;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import org.basil.twentytwenty.concurrent.BoundedExecutor;
+import org.basil.twentytwenty.concurrent.OverflowPolicy;
 import org.basil.twentytwenty.domain.DomainEvent;
 import org.basil.twentytwenty.event.EventHandler;
 import org.basil.twentytwenty.event.EventPublisher;
+import org.basil.twentytwenty.metrics.Metrics;
+import org.basil.twentytwenty.metrics.Timer;
 
 import com.google.common.eventbus.AsyncEventBus;
 import com.google.common.eventbus.EventBus;
 
 /**
  * A very simple implementation of {@link EventPublisher} using Google Guava's EventBus.
+ *
+ * <p>Closing the publisher shuts down the Executor it created, never one it was given.</p>
  */
-public class SimpleEventPublisher implements EventPublisher {
+public class SimpleEventPublisher implements EventPublisher, Closeable {
+
+  /**
+   * Returns a publisher handling the events on the publishing thread, so they are handled by the
+   * time {@link #publish(DomainEvent[])} returns.
+   *
+   * @return the publisher
+   */
+  public static SimpleEventPublisher sync() {
+    return new SimpleEventPublisher(new EventBus("eventBus"));
+  }
 
   public static EventPublisher async() {
     ExecutorService executorService = Executors.newFixedThreadPool(1);
-    return new SimpleEventPublisher(new AsyncEventBus("eventBus", executorService));
+    return new SimpleEventPublisher(new AsyncEventBus("eventBus", executorService),
+        executorService::shutdown);
+  }
+
+  /**
+   * Returns a publisher handling the events in order on one thread, queueing up to the specified
+   * number of them. Create a {@link BoundedExecutor} and pass it to {@link #async(Executor)}
+   * instead to watch its queue.
+   *
+   * @param capacity the maximum number of events waiting to be handled
+   * @param overflowPolicy applying when the queue is full
+   * @return the publisher
+   */
+  public static SimpleEventPublisher async(int capacity, OverflowPolicy overflowPolicy) {
+    BoundedExecutor executor = BoundedExecutor.create("eventBus", 1, capacity, overflowPolicy);
+    return new SimpleEventPublisher(new AsyncEventBus("eventBus", executor), executor::shutdown);
+  }
+
+  /**
+   * Returns a publisher handling the events on the specified Executor.
+   *
+   * @param executor to handle the events on
+   * @return the publisher
+   */
+  public static SimpleEventPublisher async(Executor executor) {
+    return new SimpleEventPublisher(new AsyncEventBus("eventBus", executor));
   }
 
   private final EventBus eventBus;
+  private final Runnable shutdown;
+  private final Timer publishTimer = Metrics.global().timer("eventPublisher.publish");
 
   SimpleEventPublisher(EventBus eventBus) {
+    this(eventBus, () -> {
+    });
+  }
+
+  SimpleEventPublisher(EventBus eventBus, Runnable shutdown) {
     this.eventBus = eventBus;
+    this.shutdown = shutdown;
   }
 
   @Override
@@ -54,8 +105,20 @@ public class SimpleEventPublisher implements EventPublisher {
 
   @Override
   public <E extends DomainEvent<?>> void publish(E... events) {
-    Arrays.stream(events)
-        .forEach(eventBus::post);
+    long start = publishTimer.start();
+    for (E event : events) {
+      eventBus.post(event);
+    }
+    publishTimer.stop(start);
+  }
+
+  /**
+   * Shuts down the Executor the publisher created, the events already published are still
+   * handled.
+   */
+  @Override
+  public void close() {
+    shutdown.run();
   }
 
 }
@@ -13,15 +13,18 @@
  */
 package org.basil.twentytwenty.event.impl;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import org.basil.twentytwenty.domain.DomainEvent;
 import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.ConcurrencyException;
 import org.basil.twentytwenty.event.EventStore;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.basil.twentytwenty.metrics.Metrics;
+import org.basil.twentytwenty.metrics.Timer;
 
 import com.google.common.collect.Lists;
 
@@ -34,9 +37,9 @@ public class SimpleEventStore implements EventStore {
     return new SimpleEventStore(Lists.newArrayList());
   }
 
-  private final Logger logger = LoggerFactory.getLogger(SimpleEventStore.class);
-
   private final List<DomainEvent> events;
+  private final Timer saveTimer = Metrics.global().timer("eventStore.save");
+  private final Timer findTimer = Metrics.global().timer("eventStore.find");
 
   /**
    * Using the List as an interface for event crud.
@@ -47,23 +50,51 @@ public class SimpleEventStore implements EventStore {
 
   @Override
   public synchronized <E extends DomainEvent> void save(E event) {
-    logger.info("save(E event):{}", event.getId().toString());
-
+    long start = saveTimer.start();
     events.add(event);
+    saveTimer.stop(start);
+  }
+
+  @Override
+  public synchronized <E extends DomainEvent> void save(Iterable<E> events) {
+    long start = saveTimer.start();
+    this.events.addAll(Lists.newArrayList(events));
+    saveTimer.stop(start);
   }
 
   @Override
-  public <E extends DomainEvent> void save(Iterable<E> events) {
-    events.forEach(this::save);
+  public synchronized <E extends DomainEvent, ID extends Id> void append(ID aggregateId,
+      int expectedVersion, Iterable<E> events) {
+    int actualVersion = (int) this.events.stream()
+        .filter(event -> event.getId().equals(aggregateId))
+        .count();
+    if (actualVersion != expectedVersion) {
+      throw new ConcurrencyException(aggregateId, expectedVersion, actualVersion);
+    }
+    events.forEach(event ->
+        checkArgument(event.getId().equals(aggregateId), "%s is not from %s.", event, aggregateId));
+    save(events);
   }
 
   @Override
   public <E extends DomainEvent, ID extends Id> List<E> find(ID aggregateId) {
-    return events.stream()
+    long start = findTimer.start();
+    List<E> found = events.stream()
         .filter(event -> event.getId().equals(aggregateId))
         .map(event -> (E) event)
         .sorted(Collections.reverseOrder())
         .collect(Collectors.toList());
+    findTimer.stop(start);
+    return found;
+  }
+
+  @Override
+  public <E extends DomainEvent, ID extends Id> List<E> find(ID aggregateId, int fromVersion) {
+    return events.stream()
+        .filter(event -> event.getId().equals(aggregateId))
+        .skip(Math.max(fromVersion - 1, 0))
+        .map(event -> (E) event)
+        .collect(Collectors.toList());
   }
 
 }
@@ -13,43 +13,161 @@
  */
 package org.basil.twentytwenty.event.impl;
 
+import java.io.Serializable;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import org.basil.twentytwenty.domain.AggregateRoot;
+import org.basil.twentytwenty.domain.DomainEvent;
 import org.basil.twentytwenty.domain.Id;
 import org.basil.twentytwenty.domain.Repository;
 import org.basil.twentytwenty.event.EventPublisher;
 import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.Snapshot;
+import org.basil.twentytwenty.event.SnapshotPolicy;
+import org.basil.twentytwenty.event.SnapshotStore;
+import org.basil.twentytwenty.metrics.Metrics;
+import org.basil.twentytwenty.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A Simple ({@code Event}) {@code Aggregate} repository.
+ *
+ * <p>Saving is optimistic: the changes are appended only if the {@code Aggregate} is still at the
+ * version it was loaded at, otherwise a {@link org.basil.twentytwenty.event.ConcurrencyException}
+ * is thrown and the {@code Aggregate} should be loaded again.</p>
+ *
+ * <p>When an {@code Aggregate} is loaded, its newest snapshot is restored first and only the
+ * events after the version of the snapshot are replayed. A new snapshot is taken whenever the
+ * {@link SnapshotPolicy} says so.</p>
+ *
+ * <p>A repository created with {@link #outbox} only appends the changes, the store serves as an
+ * outbox that an {@link OutboxRelay} publishes from in the background, so publishing is off the
+ * save path and a crash between appending and publishing loses nothing. Otherwise the changes
+ * are published as soon as they are appended.</p>
  */
 public class SimpleRepository implements Repository<AggregateRoot<?>> {
 
+  /**
+   * Creates a repository appending the changes without publishing them, for an
+   * {@link OutboxRelay} to publish.
+   *
+   * @param eventStore to save the events to
+   * @param aggregateFactory to create an empty {@code Aggregate Root} of an ID for loading
+   * @return the repository
+   */
+  public static SimpleRepository outbox(EventStore eventStore,
+      Function<Id<?>, ? extends AggregateRoot<?>> aggregateFactory) {
+    return outbox(eventStore, aggregateFactory, SimpleSnapshotStore.inMemory(),
+        SnapshotPolicy.never());
+  }
+
+  /**
+   * Creates a repository appending the changes without publishing them, for an
+   * {@link OutboxRelay} to publish, and loading the {@code Aggregate}s from snapshots.
+   *
+   * @param eventStore to save the events to
+   * @param aggregateFactory to create an empty {@code Aggregate Root} of an ID for loading
+   * @param snapshotStore to save and find the snapshots
+   * @param snapshotPolicy to decide when to take a snapshot
+   * @return the repository
+   */
+  public static SimpleRepository outbox(EventStore eventStore,
+      Function<Id<?>, ? extends AggregateRoot<?>> aggregateFactory, SnapshotStore snapshotStore,
+      SnapshotPolicy snapshotPolicy) {
+    return new SimpleRepository(null, eventStore, aggregateFactory, snapshotStore,
+        snapshotPolicy);
+  }
+
   private final Logger logger = LoggerFactory.getLogger(SimpleRepository.class);
 
   private final EventPublisher eventPublisher;
   private final EventStore eventStore;
+  private final Function<Id<?>, ? extends AggregateRoot<?>> aggregateFactory;
+  private final SnapshotStore snapshotStore;
+  private final SnapshotPolicy snapshotPolicy;
+  private final Timer replayTimer = Metrics.global().timer("aggregate.loadFromHistory");
 
   public SimpleRepository(EventPublisher eventPublisher, EventStore eventStore) {
+    this(eventPublisher, eventStore, null);
+  }
+
+  /**
+   * Creates a repository loading the {@code Aggregate}s without snapshots.
+   *
+   * @param eventPublisher to publish the saved events
+   * @param eventStore to save the events to
+   * @param aggregateFactory to create an empty {@code Aggregate Root} of an ID for loading
+   */
+  public SimpleRepository(EventPublisher eventPublisher, EventStore eventStore,
+      Function<Id<?>, ? extends AggregateRoot<?>> aggregateFactory) {
+    this(eventPublisher, eventStore, aggregateFactory, SimpleSnapshotStore.inMemory(),
+        SnapshotPolicy.never());
+  }
+
+  /**
+   * Creates a repository loading the {@code Aggregate}s from snapshots.
+   *
+   * @param eventPublisher to publish the saved events
+   * @param eventStore to save the events to
+   * @param aggregateFactory to create an empty {@code Aggregate Root} of an ID for loading
+   * @param snapshotStore to save and find the snapshots
+   * @param snapshotPolicy to decide when to take a snapshot
+   */
+  public SimpleRepository(EventPublisher eventPublisher, EventStore eventStore,
+      Function<Id<?>, ? extends AggregateRoot<?>> aggregateFactory, SnapshotStore snapshotStore,
+      SnapshotPolicy snapshotPolicy) {
     this.eventPublisher = eventPublisher;
     this.eventStore = eventStore;
+    this.aggregateFactory = aggregateFactory;
+    this.snapshotStore = snapshotStore;
+    this.snapshotPolicy = snapshotPolicy;
   }
 
   @Override
   public void save(AggregateRoot<?> aggregateRoot) {
-    aggregateRoot.getUncommittedChanges()
-        .forEach(change -> {
-          eventStore.save(change);
-          eventPublisher.publish(change);
-        });
+    List<DomainEvent<?>> changes = aggregateRoot.getUncommittedChanges();
+    if (changes.isEmpty()) {
+      return;
+    }
+    eventStore.append(aggregateRoot.getId(), aggregateRoot.getVersion(), changes);
+    if (eventPublisher != null) {
+      eventPublisher.publish(changes.toArray(new DomainEvent<?>[0]));
+    }
+    aggregateRoot.markChangesAsCommitted();
   }
 
   @Override
   public <ID extends Id<?>> Optional<AggregateRoot<?>> findById(ID id) {
-    return Optional.empty();
+    if (aggregateFactory == null) {
+      return Optional.empty();
+    }
+
+    Optional<Snapshot> snapshot = snapshotStore.findLatest(id);
+    int snapshotVersion = snapshot.map(Snapshot::getVersion).orElse(0);
+    AggregateRoot<?> aggregateRoot = aggregateFactory.apply(id);
+    snapshot.ifPresent(s -> aggregateRoot.loadFromSnapshot(s.getState(), s.getVersion()));
+
+    // The events are read as they are replayed, the replay time includes reading them.
+    long start = System.nanoTime();
+    try (Stream<DomainEvent<?>> changes =
+        eventStore.read(id, snapshotVersion + 1, Integer.MAX_VALUE)) {
+      aggregateRoot.loadFromHistory(changes);
+    }
+    long replayNanos = System.nanoTime() - start;
+    replayTimer.record(replayNanos);
+
+    int replayedChanges = aggregateRoot.getVersion() - snapshotVersion;
+    if (!snapshot.isPresent() && replayedChanges == 0) {
+      return Optional.empty();
+    }
+    if (replayedChanges > 0 && snapshotPolicy.shouldSnapshot(replayedChanges, replayNanos)) {
+      takeSnapshot(aggregateRoot);
+    }
+    return Optional.of(aggregateRoot);
   }
 
   @Override
@@ -57,4 +175,13 @@ public class SimpleRepository implements Repository<AggregateRoot<?>> {
     throw new UnsupportedOperationException();
   }
 
+  private void takeSnapshot(AggregateRoot<?> aggregateRoot) {
+    Serializable state = aggregateRoot.getSnapshotState();
+    if (state == null) {
+      logger.debug("{} does not support snapshots.", aggregateRoot.getClass().getSimpleName());
+      return;
+    }
+    snapshotStore.save(new Snapshot(aggregateRoot.getId(), aggregateRoot.getVersion(), state));
+  }
+
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.Snapshot;
+import org.basil.twentytwenty.event.SnapshotStore;
+
+/**
+ * A very simple in-memory snapshot store, only the newest snapshot of each {@code Aggregate} is
+ * kept.
+ */
+public class SimpleSnapshotStore implements SnapshotStore {
+
+  public static SnapshotStore inMemory() {
+    return new SimpleSnapshotStore(new ConcurrentHashMap<>());
+  }
+
+  private final ConcurrentMap<Id<?>, Snapshot> snapshots;
+
+  SimpleSnapshotStore(ConcurrentMap<Id<?>, Snapshot> snapshots) {
+    this.snapshots = snapshots;
+  }
+
+  @Override
+  public void save(Snapshot snapshot) {
+    snapshots.merge(snapshot.getAggregateId(), snapshot,
+        (current, candidate) -> candidate.getVersion() > current.getVersion() ? candidate : current);
+  }
+
+  @Override
+  public <ID extends Id<?>> Optional<Snapshot> findLatest(ID aggregateId) {
+    return Optional.ofNullable(snapshots.get(aggregateId));
+  }
+
+}
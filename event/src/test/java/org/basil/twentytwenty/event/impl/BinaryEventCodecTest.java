@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.event.BinaryReader;
+import org.basil.twentytwenty.event.BinaryWriter;
+import org.basil.twentytwenty.event.EventCodec;
+import org.basil.twentytwenty.event.EventSerializer;
+import org.basil.twentytwenty.event.item.Item;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinaryEventCodecTest {
+
+  static final EventSerializer<Item.Created> CREATED = new EventSerializer<Item.Created>() {
+
+    @Override
+    public void write(Item.Created event, BinaryWriter writer) {
+      writer.writeUuid(event.getId());
+      writer.writeVarInt(event.getVersion());
+      writer.writeString(event.getName());
+    }
+
+    @Override
+    public Item.Created read(BinaryReader reader) {
+      return new Item.Created(new Item.ItemId(reader.readLong(), reader.readLong()),
+          reader.readVarInt(), reader.readString());
+    }
+
+  };
+
+  static final EventSerializer<Item.Renamed> RENAMED = new EventSerializer<Item.Renamed>() {
+
+    @Override
+    public void write(Item.Renamed event, BinaryWriter writer) {
+      writer.writeUuid(event.getId());
+      writer.writeVarInt(event.getVersion());
+      writer.writeString(event.getNewName());
+    }
+
+    @Override
+    public Item.Renamed read(BinaryReader reader) {
+      return new Item.Renamed(new Item.ItemId(reader.readLong(), reader.readLong()),
+          reader.readVarInt(), reader.readString());
+    }
+
+  };
+
+  static EventCodec itemCodec() {
+    return BinaryEventCodec.of(EventTypeRegistry.create()
+        .register(1, Item.Created.class, CREATED)
+        .register(2, Item.Renamed.class, RENAMED));
+  }
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final EventCodec codec = itemCodec();
+
+  @Test
+  public void testRoundTrip() {
+    Item.ItemId itemId = new Item.ItemId();
+    String name = "café 中文 😀";
+
+    Item.Created created = roundTrip(new Item.Created(itemId, 1, name));
+    Item.Renamed renamed = roundTrip(new Item.Renamed(itemId, 300, null));
+
+    assertThat(created.getId(), is(itemId));
+    assertThat(created.getVersion(), is(1));
+    assertThat(created.getName(), is(name));
+    assertThat(renamed.getId(), is(itemId));
+    assertThat(renamed.getVersion(), is(300));
+    assertThat(renamed.getNewName(), is(nullValue()));
+  }
+
+  @Test
+  public void testSmallerThanJavaSerialization() {
+    Item.Created event = new Item.Created(new Item.ItemId(), 1, "test");
+
+    assertThat(size(codec, event) * 10 < size(SerializableEventCodec.create(), event), is(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEncodeUnregisteredType() {
+    BinaryEventCodec.of(EventTypeRegistry.create())
+        .encode(new Item.Created(new Item.ItemId(), 1, "test"), new BinaryWriter());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRegisterTakenTypeId() {
+    EventTypeRegistry.create()
+        .register(1, Item.Created.class, CREATED)
+        .register(1, Item.Renamed.class, RENAMED);
+  }
+
+  @Test
+  public void testSegmentedFileEventStore() throws IOException {
+    Item.ItemId itemId = new Item.ItemId();
+    try (SegmentedFileEventStore eventStore = SegmentedFileEventStore
+        .builder(temporaryFolder.getRoot().toPath()).codec(codec).open()) {
+      eventStore.save(new Item.Created(itemId, 1, "test"));
+      eventStore.save(new Item.Renamed(itemId, 2, "renamed"));
+    }
+
+    try (SegmentedFileEventStore eventStore = SegmentedFileEventStore
+        .builder(temporaryFolder.getRoot().toPath()).codec(codec).open()) {
+      List<DomainEvent> events = eventStore.find(itemId);
+
+      assertThat(events.size(), is(2));
+      assertThat(((Item.Created) events.get(0)).getName(), is("test"));
+      assertThat(((Item.Renamed) events.get(1)).getNewName(), is("renamed"));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <E extends DomainEvent<?>> E roundTrip(E event) {
+    BinaryWriter writer = new BinaryWriter(4);
+    codec.encode(event, writer);
+    return (E) codec.decode(new BinaryReader(ByteBuffer.wrap(writer.toByteArray())));
+  }
+
+  private static int size(EventCodec codec, DomainEvent<?> event) {
+    BinaryWriter writer = new BinaryWriter();
+    codec.encode(event, writer);
+    return writer.size();
+  }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.ConcurrencyException;
+import org.basil.twentytwenty.event.EventEnvelope;
+import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.EventSubscription;
+import org.basil.twentytwenty.event.item.Item;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ForwardingConcurrentMap;
+
+public class IndexedEventStoreTest {
+
+  private EventStore eventStore;
+
+  @Before
+  public void setUp() {
+    eventStore = IndexedEventStore.inMemory();
+  }
+
+  @Test
+  public void testFindUnknownAggregate() {
+    assertThat(eventStore.find(new Item.ItemId()).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testFindInVersionOrder() {
+    Item.ItemId itemId = new Item.ItemId();
+    Item.ItemId otherItemId = new Item.ItemId();
+
+    eventStore.save(new Item.Created(itemId, 1, "test"));
+    eventStore.save(new Item.Created(otherItemId, 1, "other"));
+    eventStore.save(Arrays.asList(
+        new Item.Renamed(itemId, 2, "new-test"),
+        new Item.Renamed(itemId, 3, "newer-test")));
+
+    List<DomainEvent> events = eventStore.find(itemId);
+
+    assertThat(events.size(), is(3));
+    assertThat(events.get(0).getVersion(), is(1));
+    assertThat(events.get(1).getVersion(), is(2));
+    assertThat(events.get(2).getVersion(), is(3));
+    assertThat(eventStore.find(otherItemId).size(), is(1));
+  }
+
+  @Test
+  public void testReadRange() {
+    Item.ItemId itemId = new Item.ItemId();
+    eventStore.save(new Item.Created(itemId, 1, "test"));
+    for (int version = 2; version <= 100; version++) {
+      eventStore.save(new Item.Renamed(itemId, version, "test-" + version));
+    }
+
+    assertThat(versions(eventStore.read(itemId, 10, 20)), is(range(10, 20)));
+    assertThat(versions(eventStore.read(itemId, 95, Integer.MAX_VALUE)), is(range(95, 100)));
+    assertThat(versions(eventStore.read(itemId, 101, Integer.MAX_VALUE)).isEmpty(), is(true));
+    assertThat(versions(eventStore.read(new Item.ItemId(), 1, 10)).isEmpty(), is(true));
+  }
+
+  private static List<Integer> versions(Stream<DomainEvent> events) {
+    return events.map(DomainEvent::getVersion).collect(Collectors.toList());
+  }
+
+  private static List<Integer> range(int from, int to) {
+    return IntStream.rangeClosed(from, to).boxed().collect(Collectors.toList());
+  }
+
+  @Test
+  public void testReadAllInAppendOrder() {
+    Item.ItemId itemId = new Item.ItemId();
+    Item.ItemId otherItemId = new Item.ItemId();
+    eventStore.save(new Item.Created(itemId, 1, "test"));
+    eventStore.save(new Item.Created(otherItemId, 1, "other"));
+    eventStore.save(new Item.Renamed(itemId, 2, "new-test"));
+
+    List<EventEnvelope<?>> envelopes = eventStore.readAll(0).collect(Collectors.toList());
+
+    assertThat(eventStore.getHeadPosition(), is(3L));
+    assertThat(envelopes.size(), is(3));
+    assertThat(envelopes.get(1).getPosition(), is(1L));
+    assertThat(envelopes.get(1).getEvent().getId(), is(otherItemId));
+    assertThat(envelopes.get(2).getEvent().getVersion(), is(2));
+    assertThat(eventStore.readAll(2).count(), is(1L));
+    assertThat(eventStore.readAll(3).count(), is(0L));
+  }
+
+  @Test
+  public void testSubscribeCatchesUpAndFollows() throws InterruptedException {
+    Item.ItemId itemId = new Item.ItemId();
+    for (int version = 1; version <= 500; version++) {
+      eventStore.save(new Item.Renamed(itemId, version, "test"));
+    }
+
+    List<Long> positions = new CopyOnWriteArrayList<>();
+    try (EventSubscription subscription =
+        eventStore.subscribe(0, envelope -> positions.add(envelope.getPosition()))) {
+      for (int version = 501; version <= 1_000; version++) {
+        eventStore.save(new Item.Renamed(itemId, version, "test"));
+      }
+      while (!subscription.isLive() || subscription.getPosition() < 1_000) {
+        Thread.sleep(1);
+      }
+    }
+
+    assertThat(positions.size(), is(1_000));
+    for (int i = 0; i < positions.size(); i++) {
+      assertThat(positions.get(i), is((long) i));
+    }
+  }
+
+  @Test
+  public void testSubscribedEventIsFound() throws InterruptedException {
+    Item.ItemId itemId = new Item.ItemId();
+    List<Boolean> found = new CopyOnWriteArrayList<>();
+    try (EventSubscription subscription = eventStore.subscribe(0, envelope -> found.add(
+        eventStore.find(itemId).size() >= envelope.getEvent().getVersion()))) {
+      for (int version = 1; version <= 1_000; version++) {
+        eventStore.save(new Item.Renamed(itemId, version, "test"));
+      }
+      while (!subscription.isLive() || subscription.getPosition() < 1_000) {
+        Thread.sleep(1);
+      }
+    }
+
+    assertThat(found.size(), is(1_000));
+    assertThat(found.contains(false), is(false));
+  }
+
+  @Test(expected = ConcurrencyException.class)
+  public void testAppendStaleVersion() {
+    Item.ItemId itemId = new Item.ItemId();
+    eventStore.append(itemId, 0, Arrays.asList(new Item.Created(itemId, 1, "test")));
+
+    eventStore.append(itemId, 0, Arrays.asList(new Item.Renamed(itemId, 1, "new-test")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAppendEventFromOtherAggregate() {
+    eventStore.append(new Item.ItemId(), 0,
+        Arrays.asList(new Item.Created(new Item.ItemId(), 1, "test")));
+  }
+
+  @Test
+  public void testConcurrentAppends() throws InterruptedException {
+    Item.ItemId itemId = new Item.ItemId();
+    Runnable writer = () -> {
+      for (int i = 0; i < 1_000; i++) {
+        while (true) {
+          int version = eventStore.find(itemId).size();
+          try {
+            eventStore.append(itemId, version,
+                Arrays.asList(new Item.Renamed(itemId, version + 1, "test")));
+            break;
+          } catch (ConcurrencyException e) {
+            // Someone else got there first, retry at the new version.
+          }
+        }
+      }
+    };
+
+    Thread[] writers = new Thread[4];
+    for (int i = 0; i < writers.length; i++) {
+      writers[i] = new Thread(writer);
+      writers[i].start();
+    }
+    for (Thread thread : writers) {
+      thread.join();
+    }
+
+    List<DomainEvent> events = eventStore.find(itemId);
+    assertThat(events.size(), is(4_000));
+    for (int i = 0; i < events.size(); i++) {
+      assertThat(events.get(i).getVersion(), is(i + 1));
+    }
+  }
+
+  @Test
+  public void testFindOnlyLooksUpItsAggregate() {
+    LookupCountingMap streams = new LookupCountingMap();
+    eventStore = new IndexedEventStore(streams);
+    Item.ItemId itemId = new Item.ItemId();
+    for (int version = 1; version <= 100; version++) {
+      eventStore.save(new Item.Renamed(itemId, version, "test"));
+    }
+    for (int i = 0; i < 1_000; i++) {
+      eventStore.save(new Item.Created(new Item.ItemId(), 1, "unrelated"));
+    }
+    streams.lookups.set(0);
+
+    assertThat(eventStore.find(itemId).size(), is(100));
+    assertThat(streams.lookups.get(), is(1));
+  }
+
+  /**
+   * Counts the lookups of the streams, and fails anything going through all of them. The timing
+   * as the store grows is measured by {@code EventStoreBenchmark}.
+   */
+  private static class LookupCountingMap
+      extends ForwardingConcurrentMap<Id, IndexedEventStore.EventStream> {
+
+    private final ConcurrentMap<Id, IndexedEventStore.EventStream> delegate =
+        new ConcurrentHashMap<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    @Override
+    protected ConcurrentMap<Id, IndexedEventStore.EventStream> delegate() {
+      return delegate;
+    }
+
+    @Override
+    public IndexedEventStore.EventStream get(Object key) {
+      lookups.incrementAndGet();
+      return super.get(key);
+    }
+
+    @Override
+    public Set<Entry<Id, IndexedEventStore.EventStream>> entrySet() {
+      throw new AssertionError("Went through all the streams.");
+    }
+
+    @Override
+    public Set<Id> keySet() {
+      throw new AssertionError("Went through all the streams.");
+    }
+
+    @Override
+    public Collection<IndexedEventStore.EventStream> values() {
+      throw new AssertionError("Went through all the streams.");
+    }
+
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.event.CheckpointStore;
+import org.basil.twentytwenty.event.EventHandler;
+import org.basil.twentytwenty.event.EventPublisher;
+import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.item.Item;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OutboxRelayTest {
+
+  private EventStore eventStore;
+  private CheckpointStore checkpointStore;
+  private SimpleRepository repository;
+  private RecordingEventPublisher eventPublisher;
+
+  @Before
+  public void setUp() {
+    eventStore = IndexedEventStore.inMemory();
+    checkpointStore = SimpleCheckpointStore.inMemory();
+    repository = SimpleRepository.outbox(eventStore, id -> new Item((Item.ItemId) id));
+    eventPublisher = new RecordingEventPublisher();
+  }
+
+  @Test
+  public void testRelayPublishesSavedChanges() throws InterruptedException {
+    Item item = Item.create(new Item.ItemId(), "test");
+    item.rename("test-2");
+    repository.save(item);
+
+    assertThat(item.getVersion(), is(2));
+    assertThat(eventPublisher.events.isEmpty(), is(true));
+
+    try (OutboxRelay relay = OutboxRelay.start(eventStore, eventPublisher, checkpointStore)) {
+      item.rename("test-3");
+      repository.save(item);
+      awaitPublished(relay, 3);
+    }
+
+    assertThat(eventPublisher.events.size(), is(3));
+    for (int i = 0; i < 3; i++) {
+      assertThat(eventPublisher.events.get(i).getVersion(), is(i + 1));
+    }
+    assertThat(checkpointStore.load(OutboxRelay.NAME), is(3L));
+
+    try (OutboxRelay relay = OutboxRelay.start(eventStore, eventPublisher, checkpointStore)) {
+      assertThat(relay.getLag(), is(0L));
+    }
+    assertThat(eventPublisher.events.size(), is(3));
+  }
+
+  @Test
+  public void testFailedPublishIsRetried() throws InterruptedException {
+    eventPublisher.failures.set(2);
+    Item item = Item.create(new Item.ItemId(), "test");
+    repository.save(item);
+
+    try (OutboxRelay relay = OutboxRelay.start(eventStore, eventPublisher, checkpointStore)) {
+      awaitPublished(relay, 1);
+    }
+
+    assertThat(eventPublisher.failures.get(), is(0));
+    assertThat(eventPublisher.events.size(), is(1));
+  }
+
+  private void awaitPublished(OutboxRelay relay, int count) throws InterruptedException {
+    while (eventPublisher.events.size() < count || relay.getLag() > 0) {
+      Thread.sleep(1);
+    }
+  }
+
+  private static class RecordingEventPublisher implements EventPublisher {
+
+    private final List<DomainEvent<?>> events = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @Override
+    public <T extends EventHandler<?>> void register(T... eventHandlers) {
+    }
+
+    @Override
+    public <T extends EventHandler<?>> void unregister(T... eventHandlers) {
+    }
+
+    @Override
+    public <E extends DomainEvent<?>> void publish(E... events) {
+      if (failures.getAndUpdate(failures -> Math.max(failures - 1, 0)) > 0) {
+        throw new IllegalStateException("Publisher is down.");
+      }
+      this.events.addAll(Arrays.asList(events));
+    }
+
+  }
+
+}
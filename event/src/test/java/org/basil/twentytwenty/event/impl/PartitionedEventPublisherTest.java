@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.basil.twentytwenty.event.EventHandler;
+import org.basil.twentytwenty.event.item.Item;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartitionedEventPublisherTest {
+
+  private PartitionedEventPublisher eventPublisher;
+
+  @Before
+  public void setUp() {
+    eventPublisher = PartitionedEventPublisher.create(4, 1024,
+        RingBufferEventPublisher.WaitStrategy.BLOCKING);
+  }
+
+  @After
+  public void tearDown() {
+    eventPublisher.close();
+  }
+
+  @Test
+  public void testAggregateOrderUnderConcurrentPublishing() throws InterruptedException {
+    OrderCheckingHandler handler = new OrderCheckingHandler();
+    eventPublisher.register(handler);
+
+    Item.ItemId[] itemIds = new Item.ItemId[32];
+    for (int i = 0; i < itemIds.length; i++) {
+      itemIds[i] = new Item.ItemId();
+    }
+    // Each publisher owns a few aggregates and interleaves their events.
+    Thread[] publishers = new Thread[4];
+    for (int p = 0; p < publishers.length; p++) {
+      int owner = p;
+      publishers[p] = new Thread(() -> {
+        for (int version = 1; version <= 2_000; version++) {
+          for (int i = owner; i < itemIds.length; i += publishers.length) {
+            eventPublisher.publish(new Item.Renamed(itemIds[i], version, "test"));
+          }
+        }
+      });
+      publishers[p].start();
+    }
+    for (Thread publisher : publishers) {
+      publisher.join();
+    }
+    eventPublisher.close();
+
+    assertThat(handler.outOfOrder.get(), is(0));
+    assertThat(handler.versions.size(), is(itemIds.length));
+    for (int version : handler.versions.values()) {
+      assertThat(version, is(2_000));
+    }
+    assertThat(handler.threads.size() > 1, is(true));
+  }
+
+  @Test
+  public void testBatchAcrossPartitions() {
+    OrderCheckingHandler handler = new OrderCheckingHandler();
+    eventPublisher.register(handler);
+
+    Item.ItemId itemId = new Item.ItemId();
+    Item.ItemId otherItemId = new Item.ItemId();
+    eventPublisher.publish(new Item.Renamed(itemId, 1, "test"),
+        new Item.Renamed(otherItemId, 1, "other"), new Item.Renamed(itemId, 2, "test"));
+    eventPublisher.close();
+
+    assertThat(handler.outOfOrder.get(), is(0));
+    assertThat(handler.versions.get(itemId), is(2));
+    assertThat(handler.versions.get(otherItemId), is(1));
+  }
+
+  static class OrderCheckingHandler implements EventHandler<Item.Renamed> {
+
+    private final Map<Item.ItemId, Integer> versions = new ConcurrentHashMap<>();
+    private final Set<String> threads = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger outOfOrder = new AtomicInteger();
+
+    @Override
+    public void handle(Item.Renamed event) {
+      Integer last = versions.put(event.getId(), event.getVersion());
+      if (event.getVersion() != (last == null ? 0 : last) + 1) {
+        outOfOrder.incrementAndGet();
+      }
+      threads.add(Thread.currentThread().getName());
+    }
+
+  }
+
+}
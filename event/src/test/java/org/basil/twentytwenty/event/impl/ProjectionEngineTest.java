@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.domain.Id;
+import org.basil.twentytwenty.event.CheckpointStore;
+import org.basil.twentytwenty.event.EventEnvelope;
+import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.Projection;
+import org.basil.twentytwenty.event.item.Item;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+public class ProjectionEngineTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final EventStore eventStore = IndexedEventStore.inMemory();
+
+  @Test
+  public void testResumesFromCheckpoint() throws IOException, InterruptedException {
+    CheckpointStore checkpointStore = FileCheckpointStore.open(temporaryFolder.getRoot().toPath());
+    Item.ItemId itemId = new Item.ItemId();
+    save(itemId, 1, 100);
+
+    Versions versions = new Versions();
+    try (ProjectionEngine engine = ProjectionEngine.create(eventStore, checkpointStore, 16)) {
+      engine.start(versions);
+      awaitCaughtUp(engine);
+    }
+    assertThat(checkpointStore.load("versions"), is(100L));
+
+    save(itemId, 101, 150);
+    Versions resumed = new Versions();
+    try (ProjectionEngine engine = ProjectionEngine.create(eventStore,
+        FileCheckpointStore.open(temporaryFolder.getRoot().toPath()), 16)) {
+      assertThat(engine.getLag("versions"), is(50L));
+      engine.start(resumed);
+      awaitCaughtUp(engine);
+    }
+
+    assertThat(versions.of(itemId).size(), is(100));
+    assertThat(resumed.of(itemId).size(), is(50));
+    assertThat(resumed.of(itemId).get(0), is(101));
+  }
+
+  @Test
+  public void testRebuildKeepsAggregateOrder() throws InterruptedException {
+    List<Item.ItemId> itemIds = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      itemIds.add(new Item.ItemId());
+    }
+    for (int version = 1; version <= 100; version++) {
+      for (Item.ItemId itemId : itemIds) {
+        save(itemId, version, version);
+      }
+    }
+
+    CheckpointStore checkpointStore = SimpleCheckpointStore.inMemory();
+    Versions versions = new Versions();
+    try (ProjectionEngine engine = ProjectionEngine.create(eventStore, checkpointStore, 16)) {
+      engine.start(versions);
+      awaitCaughtUp(engine);
+
+      assertThat(engine.rebuild(versions, 4), is(1_000L));
+      save(itemIds.get(0), 101, 101);
+      awaitCaughtUp(engine);
+    }
+
+    assertThat(versions.resets, is(1));
+    for (Item.ItemId itemId : itemIds) {
+      List<Integer> projected = versions.of(itemId);
+      int expected = itemId.equals(itemIds.get(0)) ? 101 : 100;
+      assertThat(projected.size(), is(expected));
+      for (int i = 0; i < projected.size(); i++) {
+        assertThat(projected.get(i), is(i + 1));
+      }
+    }
+    assertThat(checkpointStore.load("versions"), is(1_001L));
+  }
+
+  @Test(timeout = 30_000)
+  public void testFailedProjectionCanBeStartedAgain() throws InterruptedException {
+    Item.ItemId itemId = new Item.ItemId();
+    save(itemId, 1, 100);
+    CheckpointStore checkpointStore = SimpleCheckpointStore.inMemory();
+    AtomicBoolean failing = new AtomicBoolean(true);
+    Versions versions = new Versions() {
+      @Override
+      public void project(List<EventEnvelope<?>> batch) {
+        if (failing.get()) {
+          throw new IllegalStateException("Failed.");
+        }
+        super.project(batch);
+      }
+    };
+
+    try (ProjectionEngine engine = ProjectionEngine.create(eventStore, checkpointStore, 16)) {
+      engine.start(versions);
+      while (engine.getLags().containsKey("versions")) {
+        Thread.sleep(1);
+      }
+      assertThat(engine.getLag("versions"), is(100L));
+
+      failing.set(false);
+      engine.start(versions);
+      awaitCaughtUp(engine);
+    }
+
+    assertThat(versions.of(itemId).size(), is(100));
+    assertThat(checkpointStore.load("versions"), is(100L));
+  }
+
+  private void save(Item.ItemId itemId, int fromVersion, int toVersion) {
+    for (int version = fromVersion; version <= toVersion; version++) {
+      eventStore.save(new Item.Renamed(itemId, version, "test-" + version));
+    }
+  }
+
+  private static void awaitCaughtUp(ProjectionEngine engine) throws InterruptedException {
+    while (engine.getLags().values().stream().anyMatch(lag -> lag > 0)) {
+      Thread.sleep(1);
+    }
+  }
+
+  /**
+   * Projects the versions of each {@code Aggregate}, safe to project from several threads.
+   */
+  private static class Versions implements Projection {
+
+    private final Map<Id<?>, List<Integer>> versions = new ConcurrentHashMap<>();
+    private volatile int resets;
+
+    @Override
+    public String getName() {
+      return "versions";
+    }
+
+    @Override
+    public void project(List<EventEnvelope<?>> batch) {
+      for (EventEnvelope<?> envelope : batch) {
+        DomainEvent<?> event = envelope.getEvent();
+        versions.computeIfAbsent(event.getId(), id -> new CopyOnWriteArrayList<>())
+            .add(event.getVersion());
+      }
+    }
+
+    @Override
+    public void reset() {
+      versions.clear();
+      resets++;
+    }
+
+    List<Integer> of(Id<?> aggregateId) {
+      return versions.getOrDefault(aggregateId, new CopyOnWriteArrayList<>());
+    }
+
+  }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.event.EventHandler;
+import org.basil.twentytwenty.event.item.Item;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class RingBufferEventPublisherTest {
+
+  private RingBufferEventPublisher eventPublisher;
+
+  @After
+  public void tearDown() {
+    if (eventPublisher != null) {
+      eventPublisher.close();
+    }
+  }
+
+  @Test
+  public void testHandlersGetEventsOfTheirType() {
+    eventPublisher = RingBufferEventPublisher.create();
+    CreatedHandler createdHandler = new CreatedHandler();
+    List<DomainEvent<?>> allEvents = Lists.newArrayList();
+    eventPublisher.register(createdHandler, (EventHandler<DomainEvent<?>>) allEvents::add);
+
+    Item.ItemId itemId = new Item.ItemId();
+    eventPublisher.publish(new Item.Created(itemId, 1, "test"),
+        new Item.Renamed(itemId, 2, "new-test"));
+    eventPublisher.close();
+
+    assertThat(createdHandler.names, is(Lists.newArrayList("test")));
+    assertThat(allEvents.size(), is(2));
+  }
+
+  @Test
+  public void testUnregisteredHandler() {
+    eventPublisher = RingBufferEventPublisher.create();
+    CreatedHandler createdHandler = new CreatedHandler();
+    eventPublisher.register(createdHandler);
+    eventPublisher.publish(new Item.Created(new Item.ItemId(), 1, "test"));
+
+    eventPublisher.unregister(createdHandler);
+    eventPublisher.publish(new Item.Created(new Item.ItemId(), 1, "other"));
+    eventPublisher.close();
+
+    assertThat(createdHandler.names.size() <= 1, is(true));
+    assertThat(createdHandler.names.contains("other"), is(false));
+  }
+
+  @Test
+  public void testFailingHandlerDoesNotStopOthers() {
+    eventPublisher = RingBufferEventPublisher.create();
+    CreatedHandler createdHandler = new CreatedHandler();
+    eventPublisher.register((EventHandler<DomainEvent<?>>) event -> {
+      throw new IllegalStateException();
+    }, createdHandler);
+
+    eventPublisher.publish(new Item.Created(new Item.ItemId(), 1, "test"));
+    eventPublisher.close();
+
+    assertThat(createdHandler.names, is(Lists.newArrayList("test")));
+  }
+
+  @Test(timeout = 30_000)
+  public void testHandlerPublishingToAFullRing() {
+    eventPublisher = RingBufferEventPublisher.create(2,
+        RingBufferEventPublisher.WaitStrategy.BLOCKING);
+    Item.ItemId itemId = new Item.ItemId();
+    List<Integer> versions = Lists.newArrayList();
+    eventPublisher.register((EventHandler<Item.Renamed>) event -> {
+      versions.add(event.getVersion());
+      if (event.getVersion() == 1) {
+        eventPublisher.publish(new Item.Renamed(itemId, 2, "test"),
+            new Item.Renamed(itemId, 3, "test"), new Item.Renamed(itemId, 4, "test"));
+      }
+    });
+
+    eventPublisher.publish(new Item.Renamed(itemId, 1, "test"));
+    eventPublisher.close();
+
+    assertThat(versions, is(Lists.newArrayList(1, 2, 3, 4)));
+  }
+
+  @Test
+  public void testConcurrentPublishersWithEachWaitStrategy() throws InterruptedException {
+    for (RingBufferEventPublisher.WaitStrategy waitStrategy
+        : RingBufferEventPublisher.WaitStrategy.values()) {
+      eventPublisher = RingBufferEventPublisher.create(1024, waitStrategy);
+      VersionHandler versionHandler = new VersionHandler();
+      eventPublisher.register(versionHandler);
+
+      Thread[] publishers = new Thread[4];
+      for (int i = 0; i < publishers.length; i++) {
+        Item.ItemId itemId = new Item.ItemId();
+        publishers[i] = new Thread(() -> {
+          for (int version = 1; version <= 10_000; version += 2) {
+            eventPublisher.publish(new Item.Renamed(itemId, version, "test"),
+                new Item.Renamed(itemId, version + 1, "test"));
+          }
+        });
+        publishers[i].start();
+      }
+      for (Thread publisher : publishers) {
+        publisher.join();
+      }
+      eventPublisher.close();
+
+      assertThat(waitStrategy.name(), versionHandler.outOfOrder, is(0));
+      assertThat(waitStrategy.name(), versionHandler.versions.size(), is(publishers.length));
+      for (int version : versionHandler.versions.values()) {
+        assertThat(waitStrategy.name(), version, is(10_000));
+      }
+    }
+  }
+
+  @Test
+  public void testPublishRacingCloseIsHandledOrRejected() throws InterruptedException {
+    for (int round = 0; round < 200; round++) {
+      eventPublisher = RingBufferEventPublisher.create(1024,
+          RingBufferEventPublisher.WaitStrategy.YIELDING);
+      AtomicInteger handled = new AtomicInteger();
+      eventPublisher.register((EventHandler<DomainEvent<?>>) event -> handled.incrementAndGet());
+      AtomicInteger published = new AtomicInteger();
+      Item.ItemId itemId = new Item.ItemId();
+      Thread publisher = new Thread(() -> {
+        try {
+          while (true) {
+            eventPublisher.publish(new Item.Renamed(itemId, 1, "test"));
+            published.incrementAndGet();
+          }
+        } catch (IllegalStateException e) {
+          // Closed.
+        }
+      });
+      publisher.start();
+      while (published.get() < round) {
+        Thread.yield();
+      }
+      eventPublisher.close();
+      publisher.join();
+
+      assertThat(handled.get(), is(published.get()));
+    }
+  }
+
+  static class CreatedHandler implements EventHandler<Item.Created> {
+
+    private final List<String> names = Lists.newArrayList();
+
+    @Override
+    public void handle(Item.Created event) {
+      names.add(event.getName());
+    }
+
+  }
+
+  static class VersionHandler implements EventHandler<Item.Renamed> {
+
+    private final Map<Item.ItemId, Integer> versions = Maps.newHashMap();
+    private int outOfOrder;
+
+    @Override
+    public void handle(Item.Renamed event) {
+      Integer last = versions.put(event.getId(), event.getVersion());
+      if (event.getVersion() != (last == null ? 0 : last) + 1) {
+        outOfOrder++;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,615 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.event.BinaryReader;
+import org.basil.twentytwenty.event.BinaryWriter;
+import org.basil.twentytwenty.event.EventCodec;
+import org.basil.twentytwenty.event.EventEnvelope;
+import org.basil.twentytwenty.event.EventSubscription;
+import org.basil.twentytwenty.event.item.Item;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+public class SegmentedFileEventStoreTest {
+
+  private static final int SEGMENT_SIZE = 4 * 1024;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path directory;
+  private SegmentedFileEventStore eventStore;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = temporaryFolder.getRoot().toPath();
+    eventStore = SegmentedFileEventStore.open(directory, SEGMENT_SIZE);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    eventStore.close();
+  }
+
+  @Test
+  public void testFindUnknownAggregate() {
+    assertThat(eventStore.find(new Item.ItemId()).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testFindAcrossSegments() throws IOException {
+    Item.ItemId itemId = new Item.ItemId();
+    Item.ItemId otherItemId = new Item.ItemId();
+
+    eventStore.save(new Item.Created(itemId, 1, "test"));
+    for (int version = 2; version <= 100; version++) {
+      eventStore.save(new Item.Renamed(itemId, version, "test-" + version));
+      eventStore.save(new Item.Renamed(otherItemId, version, "other-" + version));
+    }
+
+    List<DomainEvent> events = eventStore.find(itemId);
+
+    assertThat(segmentCount() > 1, is(true));
+    assertThat(events.size(), is(100));
+    assertThat(((Item.Created) events.get(0)).getName(), is("test"));
+    for (int i = 0; i < events.size(); i++) {
+      assertThat(events.get(i).getVersion(), is(i + 1));
+    }
+  }
+
+  @Test
+  public void testReadRange() {
+    Item.ItemId itemId = new Item.ItemId();
+    eventStore.save(new Item.Created(itemId, 1, "test"));
+    for (int version = 2; version <= 100; version++) {
+      eventStore.save(new Item.Renamed(itemId, version, "test-" + version));
+    }
+
+    assertThat(versions(eventStore.read(itemId, 10, 20)), is(range(10, 20)));
+    assertThat(versions(eventStore.read(itemId, 95, Integer.MAX_VALUE)), is(range(95, 100)));
+    assertThat(versions(eventStore.read(itemId, 101, Integer.MAX_VALUE)).isEmpty(), is(true));
+    assertThat(versions(eventStore.read(new Item.ItemId(), 1, 10)).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testReadRangeAcrossIndexedVersions() {
+    int interval = SegmentedFileEventStore.VERSION_INTERVAL;
+    Item.ItemId itemId = new Item.ItemId();
+    eventStore.save(new Item.Created(itemId, 1, "test"));
+    for (int version = 2; version <= 3 * interval + 10; version++) {
+      eventStore.save(new Item.Renamed(itemId, version, "test-" + version));
+    }
+
+    assertThat(versions(eventStore.read(itemId, interval, interval + 1)),
+        is(range(interval, interval + 1)));
+    assertThat(versions(eventStore.read(itemId, interval + 1, 3 * interval)),
+        is(range(interval + 1, 3 * interval)));
+    assertThat(versions(eventStore.read(itemId, 2 * interval + 5, Integer.MAX_VALUE)),
+        is(range(2 * interval + 5, 3 * interval + 10)));
+    assertThat(versions(eventStore.read(itemId, 1, Integer.MAX_VALUE).limit(3)),
+        is(range(1, 3)));
+
+    // The index learnt by the reads above is extended with the events added since.
+    for (int version = 3 * interval + 11; version <= 5 * interval; version++) {
+      eventStore.save(new Item.Renamed(itemId, version, "test-" + version));
+    }
+
+    assertThat(versions(eventStore.read(itemId, 3 * interval - 1, 4 * interval + 1)),
+        is(range(3 * interval - 1, 4 * interval + 1)));
+    assertThat(versions(eventStore.read(itemId, 1, Integer.MAX_VALUE)),
+        is(range(1, 5 * interval)));
+  }
+
+  private static List<Integer> versions(Stream<DomainEvent> events) {
+    return events.map(DomainEvent::getVersion).collect(Collectors.toList());
+  }
+
+  private static List<Integer> range(int from, int to) {
+    return IntStream.rangeClosed(from, to).boxed().collect(Collectors.toList());
+  }
+
+  @Test
+  public void testReopen() throws IOException {
+    Item.ItemId itemId = new Item.ItemId();
+    for (int version = 1; version <= 50; version++) {
+      eventStore.save(new Item.Renamed(itemId, version, "test-" + version));
+    }
+
+    eventStore.close();
+    eventStore = SegmentedFileEventStore.open(directory, SEGMENT_SIZE);
+    eventStore.save(new Item.Renamed(itemId, 51, "test-51"));
+
+    List<DomainEvent> events = eventStore.find(itemId);
+
+    assertThat(events.size(), is(51));
+    assertThat(events.get(50).getVersion(), is(51));
+  }
+
+  @Test
+  public void testReadAllAcrossSegmentsAfterReopen() throws IOException {
+    Item.ItemId itemId = new Item.ItemId();
+    Item.ItemId otherItemId = new Item.ItemId();
+    for (int version = 1; version <= 300; version++) {
+      eventStore.save(Arrays.asList(
+          new Item.Renamed(itemId, version, "test-" + version),
+          new Item.Renamed(otherItemId, version, "other-" + version)));
+    }
+
+    eventStore.close();
+    eventStore = SegmentedFileEventStore.open(directory, SEGMENT_SIZE);
+    eventStore.save(new Item.Renamed(itemId, 301, "test-301"));
+
+    assertThat(segmentCount() > 1, is(true));
+    assertThat(eventStore.getHeadPosition(), is(601L));
+    for (long from : new long[] {0, 255, 256, 257, 513, 600}) {
+      List<EventEnvelope<?>> envelopes = eventStore.readAll(from).collect(Collectors.toList());
+      assertThat(envelopes.size(), is((int) (601 - from)));
+      for (int i = 0; i < envelopes.size(); i++) {
+        long position = from + i;
+        DomainEvent<?> event = envelopes.get(i).getEvent();
+        assertThat(envelopes.get(i).getPosition(), is(position));
+        assertThat(event.getId(), is(position % 2 == 0 ? itemId : otherItemId));
+        assertThat(event.getVersion(), is((int) (position / 2 + 1)));
+      }
+    }
+    assertThat(eventStore.readAll(601).count(), is(0L));
+  }
+
+  @Test
+  public void testMissingSegmentFailsOpen() throws IOException {
+    Item.ItemId itemId = new Item.ItemId();
+    for (int version = 1; version <= 300; version++) {
+      eventStore.save(new Item.Renamed(itemId, version, "test-" + version));
+    }
+    eventStore.close();
+    assertThat(segmentCount() > 2, is(true));
+    Files.delete(directory.resolve(String.format(SegmentedFileEventStore.SEGMENT_FILE_FORMAT, 1)));
+
+    try {
+      eventStore = SegmentedFileEventStore.open(directory, SEGMENT_SIZE);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test(timeout = 30_000)
+  public void testWriterFailureFailsTheStore() throws IOException {
+    // The next segment can't be created, a directory is in the way.
+    Files.createDirectory(
+        directory.resolve(String.format(SegmentedFileEventStore.SEGMENT_FILE_FORMAT, 1)));
+    Item.ItemId itemId = new Item.ItemId();
+    int version = 0;
+    try {
+      while (true) {
+        eventStore.save(new Item.Renamed(itemId, ++version, "test-" + version));
+      }
+    } catch (IllegalStateException e) {
+      assertThat(e.getCause() instanceof UncheckedIOException, is(true));
+    }
+
+    // Every save fails from then on, instead of waiting for the writer.
+    try {
+      eventStore.save(new Item.Renamed(itemId, ++version, "test-" + version));
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getCause() instanceof UncheckedIOException, is(true));
+    }
+    assertThat(eventStore.find(itemId).size(), is(version - 2));
+  }
+
+  @Test
+  public void testSubscribeCatchesUpAndFollows() throws InterruptedException {
+    Item.ItemId itemId = new Item.ItemId();
+    for (int version = 1; version <= 300; version++) {
+      eventStore.save(new Item.Renamed(itemId, version, "test"));
+    }
+
+    List<Long> positions = new CopyOnWriteArrayList<>();
+    try (EventSubscription subscription =
+        eventStore.subscribe(100, envelope -> positions.add(envelope.getPosition()))) {
+      for (int version = 301; version <= 600; version++) {
+        eventStore.save(new Item.Renamed(itemId, version, "test"));
+      }
+      while (!subscription.isLive() || subscription.getPosition() < 600) {
+        Thread.sleep(1);
+      }
+    }
+
+    assertThat(positions.size(), is(500));
+    for (int i = 0; i < positions.size(); i++) {
+      assertThat(positions.get(i), is(100L + i));
+    }
+  }
+
+  @Test
+  public void testTornRecordIsWiped() throws IOException {
+    Item.ItemId itemId = new Item.ItemId();
+    eventStore.save(new Item.Created(itemId, 1, "test"));
+    eventStore.close();
+
+    // A record header with a length but a payload that never made it to the disk.
+    try (RandomAccessFile file = new RandomAccessFile(lastSegment().toFile(), "rw")) {
+      long offset = 0;
+      int length;
+      while ((length = file.readInt() & Integer.MAX_VALUE) != 0) {
+        offset += Segment.HEADER_SIZE + length;
+        file.seek(offset);
+      }
+      file.seek(offset);
+      file.writeInt(100);
+      file.writeInt(42);
+    }
+
+    eventStore = SegmentedFileEventStore.open(directory, SEGMENT_SIZE);
+    eventStore.save(new Item.Renamed(itemId, 2, "new-test"));
+    eventStore.close();
+    eventStore = SegmentedFileEventStore.open(directory, SEGMENT_SIZE);
+
+    assertThat(eventStore.find(itemId).size(), is(2));
+  }
+
+  @Test
+  public void testTornBatchIsDiscarded() throws IOException {
+    Item.ItemId itemId = new Item.ItemId();
+    eventStore.save(new Item.Created(itemId, 1, "test"));
+    eventStore.save(Arrays.asList(
+        new Item.Renamed(itemId, 2, "new-test"),
+        new Item.Renamed(itemId, 3, "newer-test")));
+    eventStore.close();
+    // A crash leaves no index checkpoint of a torn batch, checkpoints only cover forced ones.
+    Files.delete(directory.resolve(SegmentedFileEventStore.INDEX_CHECKPOINT_FILE));
+
+    // The first record of the batch made it to the disk, the last one did not.
+    try (RandomAccessFile file = new RandomAccessFile(lastSegment().toFile(), "rw")) {
+      long offset = 0;
+      long lastOffset = 0;
+      int length;
+      while ((length = file.readInt() & Integer.MAX_VALUE) != 0) {
+        lastOffset = offset;
+        offset += Segment.HEADER_SIZE + length;
+        file.seek(offset);
+      }
+      file.seek(lastOffset + 4);
+      file.writeInt(42);
+    }
+
+    eventStore = SegmentedFileEventStore.open(directory, SEGMENT_SIZE);
+
+    assertThat(eventStore.find(itemId).size(), is(1));
+  }
+
+  @Test
+  public void testTornBatchWithZeroHeaderIsWiped() throws IOException {
+    Item.ItemId itemId = new Item.ItemId();
+    eventStore.save(new Item.Created(itemId, 1, "test"));
+    eventStore.save(Arrays.asList(
+        new Item.Renamed(itemId, 2, "new-test"),
+        new Item.Renamed(itemId, 3, "new-test")));
+    eventStore.close();
+    Files.delete(directory.resolve(SegmentedFileEventStore.INDEX_CHECKPOINT_FILE));
+
+    // The header of the first record of the batch never made it to the disk, the rest did.
+    try (RandomAccessFile file = new RandomAccessFile(lastSegment().toFile(), "rw")) {
+      int length = file.readInt() & Integer.MAX_VALUE;
+      file.seek(Segment.HEADER_SIZE + length);
+      file.writeLong(0L);
+    }
+
+    // A record of the same length lands right in front of the leftover one.
+    eventStore = SegmentedFileEventStore.open(directory, SEGMENT_SIZE);
+    eventStore.save(new Item.Renamed(itemId, 2, "new-test"));
+    eventStore.close();
+    Files.delete(directory.resolve(SegmentedFileEventStore.INDEX_CHECKPOINT_FILE));
+    eventStore = SegmentedFileEventStore.open(directory, SEGMENT_SIZE);
+
+    assertThat(eventStore.find(itemId).size(), is(2));
+    assertThat(eventStore.getHeadPosition(), is(2L));
+  }
+
+  @Test
+  public void testIdleIntervalWriterWaits() throws Exception {
+    eventStore.close();
+    Path intervalDirectory = directory.resolve("interval");
+    eventStore = SegmentedFileEventStore.builder(intervalDirectory)
+        .segmentSize(SEGMENT_SIZE)
+        .fsyncPolicy(SegmentedFileEventStore.FsyncPolicy.INTERVAL)
+        .fsyncInterval(1, TimeUnit.MILLISECONDS)
+        .open();
+    eventStore.save(new Item.Created(new Item.ItemId(), 1, "test"));
+    Thread writer = Thread.getAllStackTraces().keySet().stream()
+        .filter(thread -> thread.getName().equals("eventStoreWriter-interval"))
+        .findFirst()
+        .get();
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    Thread.sleep(50);
+    long cpuNanos = threads.getThreadCpuTime(writer.getId());
+    Thread.sleep(500);
+    cpuNanos = threads.getThreadCpuTime(writer.getId()) - cpuNanos;
+
+    assertThat(cpuNanos < TimeUnit.MILLISECONDS.toNanos(50), is(true));
+  }
+
+  @Test
+  public void testConcurrentAppends() throws Exception {
+    for (SegmentedFileEventStore.FsyncPolicy fsyncPolicy
+        : SegmentedFileEventStore.FsyncPolicy.values()) {
+      Path policyDirectory = directory.resolve(fsyncPolicy.name());
+      SegmentedFileEventStore writingEventStore = SegmentedFileEventStore.builder(policyDirectory)
+          .segmentSize(SEGMENT_SIZE)
+          .fsyncPolicy(fsyncPolicy)
+          .open();
+
+      Item.ItemId[] itemIds = new Item.ItemId[4];
+      Thread[] writers = new Thread[itemIds.length];
+      for (int i = 0; i < writers.length; i++) {
+        Item.ItemId itemId = itemIds[i] = new Item.ItemId();
+        writers[i] = new Thread(() -> {
+          for (int version = 1; version <= 100; version++) {
+            writingEventStore.append(itemId, version - 1,
+                Arrays.asList(new Item.Renamed(itemId, version, "test-" + version)));
+          }
+        });
+        writers[i].start();
+      }
+      for (Thread writer : writers) {
+        writer.join();
+      }
+      writingEventStore.close();
+
+      SegmentedFileEventStore policyEventStore =
+          SegmentedFileEventStore.open(policyDirectory, SEGMENT_SIZE);
+      for (Item.ItemId itemId : itemIds) {
+        List<DomainEvent> events = policyEventStore.find(itemId);
+        assertThat(events.size(), is(100));
+        assertThat(events.get(99).getVersion(), is(100));
+      }
+      policyEventStore.close();
+    }
+  }
+
+  @Test
+  public void testReadAllDecodesOnlyTheEventsAskedFor() throws IOException {
+    eventStore.close();
+    CountingCodec codec = new CountingCodec();
+    AtomicInteger decoded = codec.decoded;
+    eventStore = SegmentedFileEventStore.builder(directory).codec(codec).open();
+    Item.ItemId itemId = new Item.ItemId();
+    eventStore.save(new Item.Created(itemId, 1, "test"));
+    for (int version = 2; version <= 10; version++) {
+      eventStore.save(new Item.Renamed(itemId, version, "test-" + version));
+    }
+    eventStore.close();
+    Files.delete(directory.resolve(SegmentedFileEventStore.INDEX_CHECKPOINT_FILE));
+
+    eventStore = SegmentedFileEventStore.builder(directory).codec(codec).open();
+    assertThat(decoded.get(), is(2));
+
+    List<EventEnvelope<?>> renames = eventStore.readAll(0)
+        .filter(envelope -> envelope.isOf(Item.Renamed.class))
+        .collect(Collectors.toList());
+    assertThat(renames.size(), is(9));
+    assertThat(renames.get(0).getAggregateId(), is(itemId));
+    assertThat(renames.get(0).getVersion(), is(2));
+    assertThat(renames.get(0).getEventType() == Item.Renamed.class, is(true));
+    assertThat(decoded.get(), is(2));
+
+    Item.Renamed renamed = (Item.Renamed) renames.get(0).getEvent();
+    assertThat(renamed.getNewName(), is("test-2"));
+    assertThat(renames.get(0).getEvent() == renamed, is(true));
+    assertThat(decoded.get(), is(3));
+  }
+
+  @Test
+  public void testReopenLoadsIndexCheckpoint() throws IOException {
+    eventStore.close();
+    CountingCodec codec = new CountingCodec();
+    eventStore = SegmentedFileEventStore.builder(directory)
+        .segmentSize(SEGMENT_SIZE)
+        .codec(codec)
+        .indexCheckpointInterval(50)
+        .open();
+    List<Item.ItemId> itemIds = IntStream.range(0, 10)
+        .mapToObj(i -> new Item.ItemId())
+        .collect(Collectors.toList());
+    for (int version = 1; version <= 30; version++) {
+      for (Item.ItemId itemId : itemIds) {
+        eventStore.save(new Item.Renamed(itemId, version, "test-" + version));
+      }
+    }
+    eventStore.close();
+
+    eventStore = SegmentedFileEventStore.builder(directory).codec(codec).open();
+
+    assertThat(codec.decoded.get(), is(0));
+    assertThat(eventStore.getHeadPosition(), is(300L));
+    assertThat(eventStore.readAll(299).findFirst().get().getVersion(), is(30));
+    for (Item.ItemId itemId : itemIds) {
+      assertThat(eventStore.find(itemId, 30).get(0).getVersion(), is(30));
+    }
+
+    // An unreadable checkpoint is ignored, the segments are scanned instead.
+    eventStore.close();
+    Files.write(directory.resolve(SegmentedFileEventStore.INDEX_CHECKPOINT_FILE), new byte[] {1});
+    eventStore = SegmentedFileEventStore.builder(directory).codec(codec).open();
+
+    assertThat(eventStore.getHeadPosition(), is(300L));
+    for (Item.ItemId itemId : itemIds) {
+      assertThat(eventStore.find(itemId).size(), is(30));
+    }
+
+    // The scanned store checkpoints a new log, the next checkpoints append to it.
+    for (int version = 31; version <= 32; version++) {
+      eventStore.save(new Item.Renamed(itemIds.get(0), version, "test-" + version));
+      eventStore.close();
+      codec.decoded.set(0);
+      eventStore = SegmentedFileEventStore.builder(directory).codec(codec).open();
+
+      assertThat(codec.decoded.get(), is(0));
+    }
+    assertThat(eventStore.find(itemIds.get(0)).size(), is(32));
+    assertThat(eventStore.find(itemIds.get(1)).size(), is(30));
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files.filter(file -> file.toString().endsWith(".log")).count(), is(1L));
+    }
+  }
+
+  @Test
+  public void testRecoveryAfterKillWhileAppending() throws Exception {
+    // The child is the only writer of the log, with its own segment size.
+    eventStore.close();
+    directory = temporaryFolder.newFolder().toPath();
+    Path output = temporaryFolder.newFile().toPath();
+    Process appender = new ProcessBuilder(
+        Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+        "-cp", System.getProperty("java.class.path"),
+        Appender.class.getName(), directory.toString())
+        .redirectError(temporaryFolder.newFile())
+        .redirectOutput(output.toFile())
+        .start();
+    int acknowledged = 0;
+    try {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+      while (acknowledged < 500) {
+        assertThat(appender.isAlive(), is(true));
+        assertThat(System.nanoTime() < deadline, is(true));
+        Thread.sleep(10);
+        List<String> lines = Files.readAllLines(output);
+        acknowledged =
+            lines.isEmpty() ? 0 : Integer.parseInt(lines.get(lines.size() - 1).trim());
+      }
+    } finally {
+      appender.destroyForcibly().waitFor();
+    }
+    List<String> lines = Files.readAllLines(output);
+    acknowledged = Integer.parseInt(lines.get(lines.size() - 1).trim());
+
+    eventStore = SegmentedFileEventStore.open(directory, Appender.SEGMENT_SIZE);
+
+    assertThat(Files.exists(directory.resolve(SegmentedFileEventStore.INDEX_CHECKPOINT_FILE)),
+        is(true));
+    int batches = 0;
+    for (int i = 0; i < Appender.AGGREGATES; i++) {
+      List<DomainEvent> events = eventStore.find(new Item.ItemId(0, i));
+      assertThat(events.size() % Appender.BATCH_SIZE, is(0));
+      for (int j = 0; j < events.size(); j++) {
+        assertThat(events.get(j).getVersion(), is(j + 1));
+      }
+      batches += events.size() / Appender.BATCH_SIZE;
+    }
+    assertThat(batches >= acknowledged, is(true));
+    assertThat(eventStore.getHeadPosition(), is((long) batches * Appender.BATCH_SIZE));
+  }
+
+  private int segmentCount() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return (int) files.filter(SegmentedFileEventStoreTest::isSegment).count();
+    }
+  }
+
+  private Path lastSegment() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      List<Path> sorted = files.filter(SegmentedFileEventStoreTest::isSegment)
+          .sorted()
+          .collect(Collectors.toList());
+      return sorted.get(sorted.size() - 1);
+    }
+  }
+
+  /**
+   * Decodes with Java serialization, counting the events decoded.
+   */
+  private static class CountingCodec implements EventCodec {
+
+    private final EventCodec delegate = SerializableEventCodec.create();
+    private final AtomicInteger decoded = new AtomicInteger();
+
+    @Override
+    public void encode(DomainEvent<?> event, BinaryWriter writer) {
+      delegate.encode(event, writer);
+    }
+
+    @Override
+    public DomainEvent<?> decode(BinaryReader reader) {
+      decoded.incrementAndGet();
+      return delegate.decode(reader);
+    }
+
+  }
+
+  /**
+   * Appends batches of events round robin to a few {@code Aggregate}s until it's killed, printing
+   * the number of batches appended so far after each one.
+   */
+  public static class Appender {
+
+    static final int SEGMENT_SIZE = 64 * 1024;
+    static final int AGGREGATES = 10;
+    static final int BATCH_SIZE = 3;
+
+    public static void main(String[] args) throws IOException {
+      SegmentedFileEventStore eventStore = SegmentedFileEventStore.builder(Paths.get(args[0]))
+          .segmentSize(SEGMENT_SIZE)
+          .indexCheckpointInterval(100)
+          .open();
+      int[] versions = new int[AGGREGATES];
+      for (int i = 0; ; i++) {
+        int aggregate = i % AGGREGATES;
+        Item.ItemId itemId = new Item.ItemId(0, aggregate);
+        List<DomainEvent> batch = Lists.newArrayList();
+        for (int j = 1; j <= BATCH_SIZE; j++) {
+          batch.add(new Item.Renamed(itemId, versions[aggregate] + j, "test"));
+        }
+        eventStore.append(itemId, versions[aggregate], batch);
+        versions[aggregate] += BATCH_SIZE;
+        System.out.println(i + 1);
+      }
+    }
+
+  }
+
+  private static boolean isSegment(Path file) {
+    return file.getFileName().toString().endsWith(SegmentedFileEventStore.SEGMENT_SUFFIX);
+  }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.basil.twentytwenty.domain.DomainEvent;
+import org.basil.twentytwenty.event.ConcurrencyException;
+import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.item.Item;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+public class ShardedEventStoreTest {
+
+  private static final int SEGMENT_SIZE = 64 * 1024;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testAggregatesAreSpreadOverShards() throws IOException {
+    Path directory = temporaryFolder.getRoot().toPath();
+    List<Item.ItemId> itemIds = IntStream.range(0, 32)
+        .mapToObj(i -> new Item.ItemId())
+        .collect(Collectors.toList());
+    try (ShardedEventStore eventStore = open(directory, 4)) {
+      save(eventStore, itemIds, 5);
+
+      for (EventStore shard : eventStore.getShards()) {
+        assertThat(shard.getHeadPosition() > 0, is(true));
+      }
+    }
+
+    try (ShardedEventStore eventStore = ShardedEventStore.open(directory,
+        shard -> SegmentedFileEventStore.open(shard, SEGMENT_SIZE))) {
+      assertThat(eventStore.getShardCount(), is(4));
+      assertVersions(eventStore, itemIds, 5);
+    }
+  }
+
+  @Test(expected = ConcurrencyException.class)
+  public void testAppendIsCheckedInItsShard() throws IOException {
+    try (ShardedEventStore eventStore = open(temporaryFolder.getRoot().toPath(), 4)) {
+      Item.ItemId itemId = new Item.ItemId();
+      eventStore.append(itemId, 0, Lists.newArrayList(new Item.Created(itemId, 1, "test")));
+      eventStore.append(itemId, 0, Lists.newArrayList(new Item.Renamed(itemId, 2, "test")));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testShardCountIsFixed() throws IOException {
+    Path directory = temporaryFolder.getRoot().toPath();
+    open(directory, 4).close();
+    open(directory, 8);
+  }
+
+  @Test
+  public void testShardOfIsFrozen() {
+    // The shards are on the disk, these must never change.
+    int[] shards = IntStream.range(0, 8)
+        .map(i -> ShardedEventStore.shardOf(new Item.ItemId(0, i), 4))
+        .toArray();
+    assertThat(shards, is(new int[] {0, 2, 0, 1, 1, 0, 2, 3}));
+    shards = IntStream.range(0, 8)
+        .map(i -> ShardedEventStore.shardOf(new Item.ItemId(i, 1), 16))
+        .toArray();
+    assertThat(shards, is(new int[] {14, 0, 13, 12, 8, 9, 11, 10}));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testProjectionEngineRefusesShards() throws IOException {
+    try (ShardedEventStore eventStore = open(temporaryFolder.getRoot().toPath(), 4)) {
+      ProjectionEngine.create(eventStore, SimpleCheckpointStore.inMemory());
+    }
+  }
+
+  @Test
+  public void testReshard() throws IOException {
+    Path source = temporaryFolder.getRoot().toPath().resolve("source");
+    Path target = temporaryFolder.getRoot().toPath().resolve("target");
+    List<Item.ItemId> itemIds = IntStream.range(0, 20)
+        .mapToObj(i -> new Item.ItemId())
+        .collect(Collectors.toList());
+    try (ShardedEventStore eventStore = open(source, 2)) {
+      save(eventStore, itemIds, 10);
+    }
+
+    long copied = Resharder.reshard(source, target, 3,
+        shard -> SegmentedFileEventStore.open(shard, SEGMENT_SIZE));
+
+    assertThat(copied, is(200L));
+    assertThat(Files.exists(target.resolve("shard-002")), is(true));
+    try (ShardedEventStore eventStore = open(target, 3)) {
+      assertVersions(eventStore, itemIds, 10);
+    }
+  }
+
+  private static ShardedEventStore open(Path directory, int shardCount) throws IOException {
+    return ShardedEventStore.open(directory, shardCount,
+        shard -> SegmentedFileEventStore.open(shard, SEGMENT_SIZE));
+  }
+
+  private static void save(EventStore eventStore, List<Item.ItemId> itemIds, int versions) {
+    for (int version = 1; version <= versions; version++) {
+      List<DomainEvent<?>> events = Lists.newArrayList();
+      for (Item.ItemId itemId : itemIds) {
+        events.add(new Item.Renamed(itemId, version, "test-" + version));
+      }
+      eventStore.save(events);
+    }
+  }
+
+  private static void assertVersions(EventStore eventStore, List<Item.ItemId> itemIds,
+      int versions) {
+    for (Item.ItemId itemId : itemIds) {
+      List<DomainEvent> events = eventStore.find(itemId);
+      assertThat(events.size(), is(versions));
+      for (int i = 0; i < versions; i++) {
+        assertThat(events.get(i).getVersion(), is(i + 1));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.impl;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.basil.twentytwenty.event.ConcurrencyException;
+import org.basil.twentytwenty.event.EventStore;
+import org.basil.twentytwenty.event.SnapshotPolicy;
+import org.basil.twentytwenty.event.SnapshotStore;
+import org.basil.twentytwenty.event.item.Item;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.eventbus.EventBus;
+
+public class SimpleRepositoryTest {
+
+  private EventStore eventStore;
+  private SnapshotStore snapshotStore;
+  private SimpleRepository repository;
+
+  @Before
+  public void setUp() {
+    eventStore = IndexedEventStore.inMemory();
+    snapshotStore = SimpleSnapshotStore.inMemory();
+    repository = new SimpleRepository(new SimpleEventPublisher(new EventBus()), eventStore,
+        id -> new Item((Item.ItemId) id), snapshotStore, SnapshotPolicy.everyEvents(10));
+  }
+
+  @Test
+  public void testFindUnknownAggregate() {
+    assertThat(repository.findById(new Item.ItemId()).isPresent(), is(false));
+  }
+
+  @Test
+  public void testFindWithoutSnapshot() {
+    Item.ItemId itemId = saveItem(5);
+
+    Item item = (Item) repository.findById(itemId).get();
+
+    assertThat(item.getName(), is("test-5"));
+    assertThat(item.getVersion(), is(5));
+    assertThat(item.getReplayedChanges(), is(5));
+    assertThat(snapshotStore.findLatest(itemId).isPresent(), is(false));
+  }
+
+  @Test
+  public void testFindReplaysOnlyEventsAfterSnapshot() {
+    Item.ItemId itemId = saveItem(25);
+
+    repository.findById(itemId);
+
+    assertThat(snapshotStore.findLatest(itemId).get().getVersion(), is(25));
+
+    Item item = (Item) repository.findById(itemId).get();
+    item.rename("test-26");
+    repository.save(item);
+
+    item = (Item) repository.findById(itemId).get();
+
+    assertThat(item.getName(), is("test-26"));
+    assertThat(item.getVersion(), is(26));
+    assertThat(item.getReplayedChanges(), is(1));
+  }
+
+  @Test(expected = ConcurrencyException.class)
+  public void testSaveStaleAggregate() {
+    Item.ItemId itemId = saveItem(1);
+    Item item = (Item) repository.findById(itemId).get();
+    Item staleItem = (Item) repository.findById(itemId).get();
+
+    item.rename("test-2");
+    repository.save(item);
+    staleItem.rename("stale-test-2");
+    repository.save(staleItem);
+  }
+
+  private Item.ItemId saveItem(int versions) {
+    Item.ItemId itemId = new Item.ItemId();
+    Item item = Item.create(itemId, "test-1");
+    for (int version = 2; version <= versions; version++) {
+      item.rename("test-" + version);
+    }
+    repository.save(item);
+    return itemId;
+  }
+
+}
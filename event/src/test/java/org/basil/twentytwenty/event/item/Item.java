@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2020 Li Wan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.basil.twentytwenty.event.item;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+import org.basil.twentytwenty.domain.AggregateRoot;
+import org.basil.twentytwenty.domain.Id;
+
+public class Item extends AggregateRoot<Item.ItemId> {
+
+  private String name;
+  private int replayedChanges;
+
+  public Item(ItemId id) {
+    this.id = id;
+  }
+
+  public static Item create(ItemId id, String name) {
+    Item item = new Item(id);
+    item.applyChange(new Created(id, item.nextVersion(), name));
+    return item;
+  }
+
+  public void rename(String newName) {
+    applyChange(new Renamed(id, nextVersion(), newName));
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getReplayedChanges() {
+    return replayedChanges;
+  }
+
+  @Override
+  public Serializable getSnapshotState() {
+    return name;
+  }
+
+  @Override
+  protected void restoreSnapshotState(Serializable state) {
+    name = (String) state;
+  }
+
+  private void apply(Created event) {
+    name = event.getName();
+    replayedChanges++;
+  }
+
+  private void apply(Renamed event) {
+    name = event.getNewName();
+    replayedChanges++;
+  }
+
+  public static class ItemId extends Id.Uuid {
+
+    public ItemId() {
+      super();
+    }
+
+    public ItemId(UUID id) {
+      super(id);
+    }
+
+    public ItemId(long mostSignificantBits, long leastSignificantBits) {
+      super(mostSignificantBits, leastSignificantBits);
+    }
+
+  }
+
+  public static abstract class Event implements org.basil.twentytwenty.event.Event<ItemId> {
+
+    private final ItemId id;
+    private final int version;
+
+    protected Event(ItemId id, int version) {
+      this.id = id;
+      this.version = version;
+    }
+
+    @Override
+    public ItemId getId() {
+      return id;
+    }
+
+    @Override
+    public int getVersion() {
+      return version;
+    }
+
+  }
+
+  public static class Created extends Event {
+
+    private final String name;
+
+    public Created(ItemId id, int version, String name) {
+      super(id, version);
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+  }
+
+  public static class Renamed extends Event {
+
+    private final String newName;
+
+    public Renamed(ItemId id, int version, String newName) {
+      super(id, version);
+      this.newName = newName;
+    }
+
+    public String getNewName() {
+      return newName;
+    }
+
+  }
+
+}